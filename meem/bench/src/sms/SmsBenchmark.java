@@ -0,0 +1,158 @@
+package sms;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// JMH benchmarks for the hot paths of the management system, driven through
+// its headless service so no console I/O is measured. Every benchmark runs at
+// each data size (number of registered students; courses get size/10 subjects
+// and the adaptive item bank size/10 questions, both capped at 20,000).
+//
+// Run:
+//   mvn -B package
+//   java -Xmx4g -jar meem/bench/target/benchmarks.jar SmsBenchmark [-p size=1000,100000,1000000] [-wi 3] [-i 5]
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmsBenchmark {
+    private static final String SUBJECT = "Core Java";
+    private static final String COURSE = "Bench Course";
+    private static final String ITEMS = "Bench Items";
+    private static final int GRADING_BATCH = 1000;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private ManagementService sms;
+    private String[] emails;
+    private int subjects;
+    private Course course;
+    private final Question[] asked = new Question[ExamScheduler.ADAPTIVE_QUESTIONS];
+    private List<BatchGrader.Submission> sheets;
+    private BatchGrader grader;
+    private int registered;
+    private int invocation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sms = new ManagementService();
+        emails = new String[size];
+        List<Student> batch = new ArrayList<>(10_000);
+        for (int i = 0; i < size; i++) {
+            emails[i] = "Student" + i + "@Example.com";
+            batch.add(new Student("Student " + i, emails[i], 18 + i % 10));
+            if (batch.size() == 10_000 || i == size - 1) {
+                sms.registerStudents(batch);
+                batch.clear();
+            }
+        }
+        registered = size;
+
+        sms.createCourse(COURSE);
+        subjects = Math.min(Math.max(size / 10, 1), 20_000);
+        for (int s = 0; s < subjects; s++) {
+            sms.addSubjectToCourse(COURSE, "Subject " + s);
+        }
+        course = sms.findCourse(COURSE);
+
+        List<Question> items = new ArrayList<>(subjects);
+        for (int q = 0; q < subjects; q++) {
+            items.add(new Question("Item " + q, new String[]{"A", "B", "C", "D"}, q % 4));
+        }
+        sms.replaceQuestions(ITEMS, items);
+
+        Random random = new Random(42);
+        sheets = new ArrayList<>(GRADING_BATCH);
+        int bankSize = sms.getQuestions(SUBJECT).size();
+        for (int s = 0; s < GRADING_BATCH; s++) {
+            byte[] answers = new byte[bankSize];
+            for (int q = 0; q < bankSize; q++) {
+                answers[q] = (byte) random.nextInt(4);
+            }
+            sheets.add(new BatchGrader.Submission(emails[random.nextInt(size)], SUBJECT, answers));
+        }
+        grader = new BatchGrader(sms);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sms.close();
+    }
+
+    // A registered student, spread over the registry
+    private int nextIndex() {
+        return (int) ((invocation++ * 2654435761L) % size);
+    }
+
+    @Benchmark
+    public boolean registration() {
+        int n = registered++;
+        return sms.registerStudents(Collections.singletonList(
+                new Student("New " + n, "new" + n + "@bench.org", 20)))[0];
+    }
+
+    @Benchmark
+    public int lookupByEmail() {
+        return sms.findStudent(emails[nextIndex()].toUpperCase()).getAge();
+    }
+
+    @Benchmark
+    public int searchPrefix() {
+        return sms.searchStudents("student" + (invocation++ % size), StudentSearchIndex.Mode.PREFIX, 0, 10).size();
+    }
+
+    @Benchmark
+    public int searchFuzzy() {
+        return sms.searchStudents("student" + (invocation++ % size) + "@exmaple.com",
+                StudentSearchIndex.Mode.FUZZY, 0, 10).size();
+    }
+
+    @Benchmark
+    public boolean addSubjectDedup() {
+        return sms.addSubjectToCourse(COURSE, "Subject " + (invocation++ % subjects));
+    }
+
+    @Benchmark
+    public String courseViewCached() {
+        return sms.getViews().get(Arrays.asList("bench", course), sms.getCatalogVersion(),
+                () -> String.join(", ", course.getSubjects()));
+    }
+
+    @Benchmark
+    public Question[] examGeneration() {
+        return sms.drawExam(SUBJECT, 5);
+    }
+
+    @Benchmark
+    public Question adaptiveSelect() {
+        return sms.getItemStatistics().select(ITEMS, (invocation++ % 81 - 40) / 10.0, asked, 0);
+    }
+
+    // One operation grades GRADING_BATCH sheets
+    @Benchmark
+    public int grading() {
+        return grader.grade(sheets).getGraded();
+    }
+
+    @Benchmark
+    public boolean recordResult() {
+        Student student = sms.getStudent(nextIndex());
+        return sms.recordResult(student, SUBJECT, invocation % 101);
+    }
+
+    @Benchmark
+    public long resultsListing() {
+        Student student = sms.getStudent(nextIndex());
+        long total = 0;
+        for (Map.Entry<String, Integer> entry : student.getExamResults().entrySet()) {
+            total += entry.getValue();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,204 @@
+package sms;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Multi-threaded stress test of the shared registries, driven through the
+// headless service. At each thread count, every thread registers its own
+// students and, per registration, looks the student up, records a result for
+// it, retakes a shared subject for a random student registered by anyone and
+// enrolls the student in one popular course with seats for a third of them
+// (every fourth drops it again), so threads collide on the same students,
+// subjects, leaderboards and seat counters.
+//
+// Reports throughput and speedup over one thread, then checks that nothing was
+// lost: every registration got a distinct id and is found by email, the
+// statistics and leaderboards agree with the results stored per student, and
+// the popular course is full but not overbooked.
+//
+// Run:
+//   mvn -B package
+//   java -Xmx4g -cp meem/bench/target/benchmarks.jar sms.StressBenchmark [-threads 1,2,4,8,16,32] [-n 50000]
+public class StressBenchmark {
+    private static final String[] OWN_SUBJECTS = {"Stress A", "Stress B", "Stress C"};
+    private static final String SHARED_SUBJECT = "Stress Shared";
+    private static final String POPULAR_COURSE = "Stress Course";
+    private static final int OPS_PER_STUDENT = 5; // register, lookup, two results, enrollment
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] threadCounts = {1, 2, 4, 8, 16, 32};
+        int perThread = 50_000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-threads":
+                    threadCounts = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "-n": perThread = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        run(Math.min(4, threadCounts[threadCounts.length - 1]), perThread / 4); // warm-up
+        System.out.printf("%-8s %12s %14s %9s  %s%n", "Threads", "Students", "ops/s", "Speedup", "Check");
+        double baseline = 0;
+        for (int threads : threadCounts) {
+            Result result = run(threads, perThread);
+            if (baseline == 0) {
+                baseline = result.opsPerSecond / threads;
+            }
+            System.out.printf("%-8d %12d %14.0f %8.2fx  %s%n", threads, result.students,
+                    result.opsPerSecond, result.opsPerSecond / baseline, result.check);
+        }
+    }
+
+    private static class Result {
+        int students;
+        double opsPerSecond;
+        String check;
+    }
+
+    private static Result run(int threads, int perThread) throws InterruptedException {
+        ManagementService sms = new ManagementService();
+        int initial = sms.getStudentCount();
+        sms.createCourse(POPULAR_COURSE);
+        sms.setCourseCapacity(POPULAR_COURSE, threads * perThread / 3);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    work(sms, thread, perThread);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }, "stress-" + t).start();
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - started;
+
+        Result result = new Result();
+        result.students = sms.getStudentCount() - initial;
+        result.opsPerSecond = (double) threads * perThread * OPS_PER_STUDENT * 1e9 / elapsed;
+        result.check = failure.get() != null ? "FAILED: " + failure.get() : verify(sms, initial, threads, perThread);
+        return result;
+    }
+
+    private static void work(ManagementService sms, int thread, int perThread) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < perThread; i++) {
+            String email = email(thread, i);
+            if (sms.registerStudent("Stress " + thread + "-" + i, email, 20) == null) {
+                throw new IllegalStateException("Registration rejected: " + email);
+            }
+            Student student = sms.findStudent(email);
+            if (student == null) {
+                throw new IllegalStateException("Registered student not found: " + email);
+            }
+            sms.recordResult(student, OWN_SUBJECTS[i % OWN_SUBJECTS.length], random.nextInt(101));
+            Student other = sms.getStudent(random.nextInt(sms.getStudentCount()));
+            sms.recordResult(other, SHARED_SUBJECT, random.nextInt(101));
+            sms.selectCourse(student, POPULAR_COURSE);
+            if (i % 4 == 0) {
+                sms.dropCourse(student);
+            }
+        }
+    }
+
+    // "ok", or the first inconsistency found
+    private static String verify(ManagementService sms, int initial, int threads, int perThread) {
+        int expected = initial + threads * perThread;
+        if (sms.getStudentCount() != expected) {
+            return "LOST registrations: " + sms.getStudentCount() + " of " + expected;
+        }
+        BitSet ids = new BitSet(expected);
+        int enrolled = 0;
+        Map<String, long[]> bySubject = new HashMap<>(); // count, sum, per-score counts
+        for (int id = 0; id < expected; id++) {
+            Student student = sms.getStudent(id);
+            if (student.getId() != id || ids.get(id)) {
+                return "BAD id " + student.getId() + " at ordinal " + id;
+            }
+            ids.set(id);
+            if (POPULAR_COURSE.equals(student.getSelectedCourse())) {
+                enrolled++;
+            }
+            if (sms.findStudent(student.getEmail()) != student) {
+                return "LOST email index entry: " + student.getEmail();
+            }
+            for (Map.Entry<String, Integer> entry : student.getExamResults().entrySet()) {
+                long[] figures = bySubject.computeIfAbsent(entry.getKey(), k -> new long[2 + 101]);
+                figures[0]++;
+                figures[1] += entry.getValue();
+                figures[2 + entry.getValue()]++;
+            }
+        }
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                if (sms.findStudent(email(t, i)) == null) {
+                    return "LOST registration: " + email(t, i);
+                }
+            }
+        }
+
+        CourseSeats seats = sms.findCourse(POPULAR_COURSE).getSeats();
+        if (enrolled > seats.getCapacity() || enrolled != seats.getEnrolled()) {
+            return "OVERBOOKED " + POPULAR_COURSE + ": " + enrolled + " students, " + seats.getEnrolled()
+                    + " seats taken of " + seats.getCapacity();
+        }
+        if (seats.getWaiting() > 0 && enrolled < seats.getCapacity()) {
+            return "IDLE seats in " + POPULAR_COURSE + ": " + enrolled + " of " + seats.getCapacity()
+                    + " taken with " + seats.getWaiting() + " waiting";
+        }
+
+        long ownResults = 0;
+        for (String subject : OWN_SUBJECTS) {
+            ownResults += figuresOf(bySubject, subject)[0];
+        }
+        if (ownResults != (long) threads * perThread) {
+            return "LOST results: " + ownResults + " of " + (long) threads * perThread;
+        }
+        for (String subject : bySubject.keySet()) {
+            long[] figures = bySubject.get(subject);
+            ResultStatistics.Aggregate aggregate = sms.getStatistics().forSubject(subject);
+            if (aggregate.getCount() != figures[0] || aggregate.getSum() != figures[1]) {
+                return "STATISTICS disagree on " + subject + ": " + aggregate.getCount() + "/" + aggregate.getSum()
+                        + " vs stored " + figures[0] + "/" + figures[1];
+            }
+            if (sms.getLeaderboards().participants(subject) != figures[0]) {
+                return "LEADERBOARD disagrees on " + subject + ": " + sms.getLeaderboards().participants(subject)
+                        + " vs stored " + figures[0];
+            }
+            List<Leaderboards.Entry> top = sms.getLeaderboards().top(subject, Integer.MAX_VALUE);
+            int[] ranked = new int[101];
+            for (Leaderboards.Entry entry : top) {
+                ranked[entry.getScore()]++;
+            }
+            for (int score = 0; score <= 100; score++) {
+                if (ranked[score] != figures[2 + score]) {
+                    return "LEADERBOARD bucket " + score + " of " + subject + " has " + ranked[score]
+                            + " students, stored " + figures[2 + score];
+                }
+            }
+        }
+        return "ok (" + figuresOf(bySubject, SHARED_SUBJECT)[0] + " shared-subject students)";
+    }
+
+    private static long[] figuresOf(Map<String, long[]> bySubject, String subject) {
+        long[] figures = bySubject.get(subject);
+        return figures != null ? figures : new long[2 + 101];
+    }
+
+    private static String email(int thread, int i) {
+        return "stress" + thread + "." + i + "@example.com";
+    }
+}
@@ -0,0 +1,30 @@
+package sms;
+
+import java.io.PrintStream;
+import java.util.*;
+
+// Admin class
+class Admin extends User {
+    public Admin(String name, String email) {
+        super(name, email);
+    }
+
+    @Override
+    public void displayMenu(PrintStream out) {
+        out.println("\n=== ADMIN MENU ===");
+        out.println("1. Add Course");
+        out.println("2. Add Subject to Course");
+        out.println("3. View All Courses");
+        out.println("4. View All Students");
+        out.println("5. View Student Exam Results");
+        out.println("6. Bulk Import");
+        out.println("7. Grade Answer Sheets");
+        out.println("8. View Result Statistics");
+        out.println("9. View Subject Leaderboard");
+        out.println("10. View Metrics");
+        out.println("11. View Attempt History");
+        out.println("12. Export Reports");
+        out.println("13. Set Course Capacity");
+        out.println("14. Logout");
+    }
+}
@@ -0,0 +1,161 @@
+package sms;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Output stream that hands filled buffers to a background writer.
+//
+// Writes are copied into a small set of reusable buffers; a full buffer, or
+// one passed on by flush(), is queued and written to the target by a drain task
+// on the given executor, so a slow socket or disk never blocks the writing
+// thread until every buffer is in flight. Buffers are written in order, one
+// large write each. Write errors surface on the next write, flush or close.
+// Meant for a single writing thread (PrintStream serializes its callers).
+class AsyncOutputStream extends OutputStream {
+    private final OutputStream target;
+    private final Executor executor;
+    private final int bufferSize;
+    private final int maxBuffers;
+
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final ConcurrentLinkedQueue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile IOException failure;
+    private ByteBuffer current;
+    private int allocated;
+    private boolean closed;
+
+    public AsyncOutputStream(OutputStream target, Executor executor) {
+        this(target, executor, 16 * 1024, 4);
+    }
+
+    public AsyncOutputStream(OutputStream target, Executor executor, int bufferSize, int maxBuffers) {
+        this.target = target;
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.free = new ArrayBlockingQueue<>(maxBuffers);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer().put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            ByteBuffer buffer = buffer();
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    // Queues what has been written so far; does not wait for it to be written
+    @Override
+    public void flush() throws IOException {
+        checkFailure();
+        if (current != null && current.position() > 0) {
+            submit(current);
+            current = null;
+        }
+    }
+
+    // Waits until everything queued has been written, then closes the target
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            int returned = current != null ? 1 : 0;
+            try {
+                while (returned < allocated) {
+                    free.take();
+                    returned++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while draining output");
+            }
+            checkFailure();
+        } finally {
+            target.close();
+        }
+    }
+
+    // The buffer to write into, with at least one byte of space
+    private ByteBuffer buffer() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        checkFailure();
+        if (current != null && current.hasRemaining()) {
+            return current;
+        }
+        if (current != null) {
+            submit(current);
+        }
+        current = free.poll();
+        if (current == null) {
+            if (allocated < maxBuffers) {
+                allocated++;
+                current = ByteBuffer.allocate(bufferSize);
+            } else {
+                try {
+                    current = free.take(); // every buffer in flight: wait for the writer
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for output buffer");
+                }
+            }
+        }
+        return current;
+    }
+
+    private void submit(ByteBuffer buffer) {
+        pending.add(buffer);
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    // Writes queued buffers in order; at most one drain task runs at a time
+    private void drain() {
+        do {
+            ByteBuffer buffer;
+            while ((buffer = pending.poll()) != null) {
+                if (failure == null) {
+                    try {
+                        target.write(buffer.array(), 0, buffer.position());
+                        if (pending.isEmpty()) {
+                            target.flush();
+                        }
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                buffer.clear();
+                free.add(buffer);
+            }
+            draining.set(false);
+        } while (!pending.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw new IOException("Asynchronous write failed: " + e.getMessage(), e);
+        }
+    }
+}
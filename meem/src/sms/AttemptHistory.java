@@ -0,0 +1,550 @@
+package sms;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32;
+
+// Time series of exam attempts, partitioned by subject: when, by whom, the
+// questions drawn, the answer given to each and the score.
+//
+// Each subject's attempts are appended to a log of PAGE_SIZE pages in a
+// compact encoding: varint milliseconds since the previous attempt, varint
+// student id, a score byte, a varint question count and per question its
+// content key and answer. Every INDEX_INTERVAL-th attempt is a restart point
+// that stores its time in full and is listed in a sparse index, so a time
+// range query binary-searches the index and decodes forward from the last
+// restart point before the range. Its cost is the attempts in the range plus
+// at most one interval, however long the history. Times are kept
+// non-decreasing per subject: an attempt recorded after the clock stepped
+// back is filed at the latest time already recorded.
+//
+// Writers append under the partition's monitor and then publish an immutable
+// view of the log, so queries never lock and see a consistent prefix of it.
+//
+// When opened on a file, each recorded batch is also appended to the file as
+// one checksummed frame, and the file is replayed on open. Student ids are
+// not stable across restarts, so the file names each student by email the
+// first time a run refers to its id. Frames are written without a sync: the
+// file survives a crash of the process, but a power failure may lose the
+// latest attempts (their scores are still journaled).
+class AttemptHistory implements Closeable {
+    static final int PAGE_SIZE = 64 * 1024;
+    static final int INDEX_INTERVAL = 64;
+    static final int MAX_QUESTIONS = 8192;
+
+    // Bound on one encoded attempt: time, id, score and count, then a key and an answer per question
+    private static final int MAX_HEADER_BYTES = 10 + 5 + 1 + 5;
+    private static final int BYTES_PER_QUESTION = 5;
+    private static final int MAX_PAGES = 1 << 15; // restart points pack page << 16 | position
+
+    private static final byte DEFINE_SUBJECT = 1;
+    private static final byte DEFINE_STUDENT = 2;
+    private static final byte ATTEMPT = 3;
+
+    private static final Metrics.Counter ATTEMPTS_RECORDED = Metrics.counter("history.attempts");
+    private static final Metrics.Timer QUERY_TIME = Metrics.timer("history.query");
+
+    private final SubjectTable subjects;
+    private final ConcurrentHashMap<Integer, Partition> partitions = new ConcurrentHashMap<>();
+
+    // Guarded by fileLock; null when the history is kept in memory only
+    private final Object fileLock = new Object();
+    private final FileChannel file;
+    private final BitSet definedSubjects = new BitSet();
+    private final BitSet definedStudents = new BitSet();
+    private final CRC32 crc = new CRC32();
+
+    // Receives the attempts of a query, in time order. The event is reused
+    // for the next attempt, so copy out anything kept.
+    interface EventConsumer {
+        void accept(Event event);
+    }
+
+    // One decoded attempt. Answers are 0-based option indexes, -1 if the
+    // question was left unanswered.
+    static final class Event {
+        private long timestamp;
+        private int studentId;
+        private int score;
+        private int questionCount;
+        private int[] questionKeys = new int[16];
+        private int[] answers = new int[16];
+
+        public long getTimestamp() { return timestamp; }
+        public int getStudentId() { return studentId; }
+        public int getScore() { return score; }
+        public int getQuestionCount() { return questionCount; }
+        public int getQuestionKey(int question) { return questionKeys[question]; }
+        public int getAnswer(int question) { return answers[question]; }
+
+        private void resize(int count) {
+            if (count > questionKeys.length) {
+                questionKeys = new int[Math.max(count, questionKeys.length * 2)];
+                answers = new int[questionKeys.length];
+            }
+            questionCount = count;
+        }
+    }
+
+    // In-memory history
+    public AttemptHistory(SubjectTable subjects) {
+        this.subjects = subjects;
+        this.file = null;
+    }
+
+    private AttemptHistory(SubjectTable subjects, FileChannel file) {
+        this.subjects = subjects;
+        this.file = file;
+    }
+
+    // Opens the history file, replaying it into memory. Students are resolved
+    // by email through studentIds (-1 if unknown); attempts of students that
+    // are no longer known are dropped.
+    static AttemptHistory open(Path path, SubjectTable subjects, ToIntFunction<String> studentIds)
+            throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        AttemptHistory history = new AttemptHistory(subjects, channel);
+        try {
+            long end = history.replay(channel, path, studentIds);
+            if (end < channel.size()) {
+                channel.truncate(end);
+            }
+            channel.position(end);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return history;
+    }
+
+    // Records one attempt; answers[i] is the option given to questions[i]
+    // (anything out of range counts as unanswered). Questions may be empty for
+    // a score entered without an exam.
+    public void record(Student student, String subject, long timestamp, int score,
+                       Question[] questions, int[] answers) {
+        recordAll(Collections.singletonList(student), Collections.singletonList(subject), timestamp,
+                new int[]{score}, Collections.singletonList(questions), Collections.singletonList(answers));
+    }
+
+    // Records a batch of attempts made at the same time, with one file write.
+    // Only the first MAX_QUESTIONS questions of an attempt are kept.
+    public void recordAll(List<Student> batch, List<String> subjectNames, long timestamp, int[] scores,
+                          List<Question[]> questions, List<int[]> answers) {
+        int[] studentIds = new int[scores.length];
+        int[] subjectIds = new int[scores.length];
+        if (questions.stream().anyMatch(drawn -> drawn.length > MAX_QUESTIONS)) {
+            List<Question[]> kept = new ArrayList<>(questions.size());
+            for (Question[] drawn : questions) {
+                kept.add(drawn.length > MAX_QUESTIONS ? Arrays.copyOf(drawn, MAX_QUESTIONS) : drawn);
+            }
+            questions = kept;
+        }
+        for (int i = 0; i < scores.length; i++) {
+            studentIds[i] = batch.get(i).getId();
+            subjectIds[i] = subjects.idOf(subjectNames.get(i));
+        }
+        long[] filedAt = new long[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            filedAt[i] = partition(subjectIds[i]).append(timestamp, studentIds[i], scores[i],
+                    keysOf(questions.get(i)), answers.get(i));
+        }
+        ATTEMPTS_RECORDED.add(scores.length);
+        if (file != null) {
+            write(batch, subjectIds, studentIds, filedAt, scores, questions, answers);
+        }
+    }
+
+    // Streams the subject's attempts made in [fromMillis, toMillis) to the
+    // consumer in time order; returns how many there were
+    public long query(String subject, long fromMillis, long toMillis, EventConsumer consumer) {
+        int subjectId = subjects.find(subject);
+        Partition partition = subjectId < 0 ? null : partitions.get(subjectId);
+        if (partition == null) {
+            return 0;
+        }
+        long started = QUERY_TIME.start();
+        try {
+            return partition.view.query(fromMillis, toMillis, consumer);
+        } finally {
+            QUERY_TIME.stop(started);
+        }
+    }
+
+    // Number of attempts recorded for the subject
+    public long count(String subject) {
+        Partition partition = partitionOf(subject);
+        return partition == null ? 0 : partition.view.count;
+    }
+
+    // Encoded size of the subject's attempts, in bytes
+    public long getBytes(String subject) {
+        Partition partition = partitionOf(subject);
+        return partition == null ? 0 : partition.view.bytes();
+    }
+
+    // Subjects with at least one recorded attempt
+    public List<String> getSubjects() {
+        List<String> names = new ArrayList<>(partitions.size());
+        for (Integer subjectId : partitions.keySet()) {
+            names.add(subjects.nameOf(subjectId));
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            synchronized (fileLock) {
+                file.force(false);
+                file.close();
+            }
+        }
+    }
+
+    private Partition partitionOf(String subject) {
+        int subjectId = subjects.find(subject);
+        return subjectId < 0 ? null : partitions.get(subjectId);
+    }
+
+    private Partition partition(int subjectId) {
+        return partitions.computeIfAbsent(subjectId, id -> new Partition());
+    }
+
+    private static int[] keysOf(Question[] questions) {
+        int[] keys = new int[questions.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = questions[i].getKey();
+        }
+        return keys;
+    }
+
+    // One subject's log. Pages below the last are full and never change; the
+    // last is only written past the end published in the view.
+    private static final class Partition {
+        // Guarded by this
+        private byte[][] pages = new byte[4][];
+        private int[] pageEnds = new int[4];
+        private int pageCount;
+        private int position = PAGE_SIZE; // in the last page; forces a page on first append
+        private long lastTimestamp = Long.MIN_VALUE;
+        private int count;
+        private long[] indexTimes = new long[16];
+        private int[] indexOffsets = new int[16]; // page << 16 | position of each restart point
+
+        private volatile View view = new View(new byte[0][], new int[0], 0, 0, new long[0], new int[0], 0, 0);
+
+        // Appends an attempt and returns the time it was filed at
+        synchronized long append(long timestamp, int studentId, int score, int[] keys, int[] answers) {
+            long filedAt = Math.max(timestamp, lastTimestamp);
+            if (position + MAX_HEADER_BYTES + keys.length * BYTES_PER_QUESTION > PAGE_SIZE) {
+                if (pageCount == MAX_PAGES) {
+                    throw new IllegalStateException("Attempt history of the subject is full");
+                }
+                if (pageCount == pages.length) {
+                    pages = Arrays.copyOf(pages, pageCount * 2);
+                    pageEnds = Arrays.copyOf(pageEnds, pageCount * 2);
+                }
+                if (pageCount > 0) {
+                    pageEnds[pageCount - 1] = position;
+                }
+                pages[pageCount++] = new byte[PAGE_SIZE];
+                position = 0;
+            }
+            byte[] page = pages[pageCount - 1];
+            int at = position;
+            if (count % INDEX_INTERVAL == 0) {
+                int entry = count / INDEX_INTERVAL;
+                if (entry == indexTimes.length) {
+                    indexTimes = Arrays.copyOf(indexTimes, entry * 2);
+                    indexOffsets = Arrays.copyOf(indexOffsets, entry * 2);
+                }
+                indexTimes[entry] = filedAt;
+                indexOffsets[entry] = (pageCount - 1) << 16 | at;
+                at = writeVarLong(page, at, filedAt);
+            } else {
+                at = writeVarLong(page, at, filedAt - lastTimestamp);
+            }
+            at = writeVarLong(page, at, studentId);
+            page[at++] = (byte) score;
+            at = writeVarLong(page, at, keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                int key = keys[i];
+                page[at++] = (byte) (key >>> 24);
+                page[at++] = (byte) (key >>> 16);
+                page[at++] = (byte) (key >>> 8);
+                page[at++] = (byte) key;
+                int answer = i < answers.length ? answers[i] : -1;
+                page[at++] = (byte) (answer >= 0 && answer < 255 ? answer + 1 : 0);
+            }
+            position = at;
+            lastTimestamp = filedAt;
+            count++;
+            view = new View(pages, pageEnds, pageCount, position, indexTimes, indexOffsets,
+                    (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL, count);
+            return filedAt;
+        }
+    }
+
+    // Published state of a partition; arrays are shared with the writer, which
+    // only writes beyond the counts captured here
+    private static final class View {
+        final byte[][] pages;
+        final int[] pageEnds;
+        final int pageCount;
+        final int lastPageEnd;
+        final long[] indexTimes;
+        final int[] indexOffsets;
+        final int indexCount;
+        final int count;
+
+        View(byte[][] pages, int[] pageEnds, int pageCount, int lastPageEnd, long[] indexTimes, int[] indexOffsets,
+             int indexCount, int count) {
+            this.pages = pages;
+            this.pageEnds = pageEnds;
+            this.pageCount = pageCount;
+            this.lastPageEnd = lastPageEnd;
+            this.indexTimes = indexTimes;
+            this.indexOffsets = indexOffsets;
+            this.indexCount = indexCount;
+            this.count = count;
+        }
+
+        long bytes() {
+            long bytes = lastPageEnd;
+            for (int page = 0; page < pageCount - 1; page++) {
+                bytes += pageEnds[page];
+            }
+            return bytes;
+        }
+
+        long query(long from, long to, EventConsumer consumer) {
+            if (indexCount == 0 || from >= to) {
+                return 0;
+            }
+            // Last restart point at or before the start of the range
+            int low = 0;
+            int high = indexCount - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (indexTimes[mid] <= from) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            Event event = new Event();
+            long[] cursor = new long[1];
+            int remaining = count - low * INDEX_INTERVAL;
+            int page = indexOffsets[low] >>> 16;
+            int at = indexOffsets[low] & 0xFFFF;
+            long timestamp = 0;
+            long matched = 0;
+            for (int n = 0; n < remaining; n++) {
+                if (at == (page == pageCount - 1 ? lastPageEnd : pageEnds[page])) {
+                    page++;
+                    at = 0;
+                }
+                byte[] bytes = pages[page];
+                at = readVarLong(bytes, at, cursor);
+                timestamp = n % INDEX_INTERVAL == 0 ? cursor[0] : timestamp + cursor[0];
+                if (timestamp >= to) {
+                    break;
+                }
+                at = readVarLong(bytes, at, cursor);
+                event.timestamp = timestamp;
+                event.studentId = (int) cursor[0];
+                event.score = bytes[at++] & 0xFF;
+                at = readVarLong(bytes, at, cursor);
+                int questions = (int) cursor[0];
+                if (timestamp < from) {
+                    at += questions * BYTES_PER_QUESTION;
+                    continue;
+                }
+                event.resize(questions);
+                for (int i = 0; i < questions; i++) {
+                    event.questionKeys[i] = (bytes[at] & 0xFF) << 24 | (bytes[at + 1] & 0xFF) << 16
+                            | (bytes[at + 2] & 0xFF) << 8 | (bytes[at + 3] & 0xFF);
+                    event.answers[i] = (bytes[at + 4] & 0xFF) - 1;
+                    at += BYTES_PER_QUESTION;
+                }
+                consumer.accept(event);
+                matched++;
+            }
+            return matched;
+        }
+    }
+
+    // Appends the batch to the file as one frame, naming subjects and students
+    // this run has not referred to yet. A failed write is reported, cut back
+    // off the file so later frames do not follow a torn one, and the attempts
+    // stay in memory.
+    private void write(List<Student> batch, int[] subjectIds, int[] studentIds, long[] filedAt, int[] scores,
+                       List<Question[]> questions, List<int[]> answers) {
+        synchronized (fileLock) {
+            BitSet newSubjects = new BitSet();
+            BitSet newStudents = new BitSet();
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(64 * scores.length);
+            try (DataOutputStream out = new DataOutputStream(payload)) {
+                for (int i = 0; i < scores.length; i++) {
+                    if (!definedSubjects.get(subjectIds[i]) && !newSubjects.get(subjectIds[i])) {
+                        out.writeByte(DEFINE_SUBJECT);
+                        out.writeInt(subjectIds[i]);
+                        out.writeUTF(subjects.nameOf(subjectIds[i]));
+                        newSubjects.set(subjectIds[i]);
+                    }
+                    if (!definedStudents.get(studentIds[i]) && !newStudents.get(studentIds[i])) {
+                        out.writeByte(DEFINE_STUDENT);
+                        out.writeInt(studentIds[i]);
+                        out.writeUTF(StudentRepository.normalizeEmail(batch.get(i).getEmail()));
+                        newStudents.set(studentIds[i]);
+                    }
+                    Question[] drawn = questions.get(i);
+                    int[] given = answers.get(i);
+                    out.writeByte(ATTEMPT);
+                    out.writeInt(subjectIds[i]);
+                    out.writeInt(studentIds[i]);
+                    out.writeLong(filedAt[i]);
+                    out.writeByte(scores[i]);
+                    out.writeShort(drawn.length);
+                    for (int q = 0; q < drawn.length; q++) {
+                        int answer = q < given.length ? given[q] : -1;
+                        out.writeInt(drawn[q].getKey());
+                        out.writeByte(answer >= 0 && answer < 255 ? answer + 1 : 0);
+                    }
+                }
+                byte[] bytes = payload.toByteArray();
+                crc.reset();
+                crc.update(bytes, 0, bytes.length);
+                ByteBuffer frame = ByteBuffer.allocate(8 + bytes.length);
+                frame.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+                writeFrame(frame);
+                definedSubjects.or(newSubjects);
+                definedStudents.or(newStudents);
+            } catch (IOException e) {
+                System.err.println("Warning: attempt history write failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Writes the whole frame or, on failure, removes what was written of it.
+    // Called holding fileLock.
+    private void writeFrame(ByteBuffer frame) throws IOException {
+        long start = file.position();
+        try {
+            while (frame.hasRemaining()) {
+                file.write(frame);
+            }
+        } catch (IOException e) {
+            // Each step on its own: moving back alone lets the next frame overwrite the torn bytes
+            try {
+                file.position(start);
+            } catch (IOException rollback) {
+                e.addSuppressed(rollback);
+            }
+            try {
+                file.truncate(start);
+            } catch (IOException rollback) {
+                e.addSuppressed(rollback);
+            }
+            throw e;
+        }
+    }
+
+    // Replays the file's frames into memory, stopping at the first torn or
+    // corrupt one; returns the offset just past the last good frame
+    private long replay(FileChannel channel, Path source, ToIntFunction<String> studentIds) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        Map<Integer, Integer> subjectMap = new HashMap<>();
+        Map<Integer, Integer> studentMap = new HashMap<>();
+        long end = 0;
+        while (true) {
+            byte[] payload;
+            int checksum;
+            try {
+                int length = in.readInt();
+                checksum = in.readInt();
+                if (length < 0 || length > channel.size() - end - 8) {
+                    System.err.println("Attempt history: corrupt frame length in " + source + ", dropping tail");
+                    return end;
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+            } catch (EOFException e) {
+                return end;
+            }
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            if ((int) crc.getValue() != checksum) {
+                System.err.println("Attempt history: checksum mismatch in " + source + ", dropping tail");
+                return end;
+            }
+            decode(payload, subjectMap, studentMap, studentIds);
+            end += 8 + payload.length;
+        }
+    }
+
+    // File ids are those of the run that wrote them; the maps translate them
+    // to this run's, and are redefined whenever a later run names an id again
+    private void decode(byte[] payload, Map<Integer, Integer> subjectMap, Map<Integer, Integer> studentMap,
+                        ToIntFunction<String> studentIds) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        while (in.available() > 0) {
+            byte type = in.readByte();
+            switch (type) {
+                case DEFINE_SUBJECT:
+                    subjectMap.put(in.readInt(), subjects.idOf(in.readUTF()));
+                    break;
+                case DEFINE_STUDENT:
+                    studentMap.put(in.readInt(), studentIds.applyAsInt(in.readUTF()));
+                    break;
+                case ATTEMPT:
+                    Integer subjectId = subjectMap.get(in.readInt());
+                    Integer studentId = studentMap.get(in.readInt());
+                    long timestamp = in.readLong();
+                    int score = in.readUnsignedByte();
+                    int[] keys = new int[in.readUnsignedShort()];
+                    int[] answers = new int[keys.length];
+                    for (int q = 0; q < keys.length; q++) {
+                        keys[q] = in.readInt();
+                        answers[q] = in.readUnsignedByte() - 1;
+                    }
+                    if (subjectId != null && studentId != null && studentId >= 0) {
+                        partition(subjectId).append(timestamp, studentId, score, keys, answers);
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown attempt history record type: " + type);
+            }
+        }
+    }
+
+    private static int writeVarLong(byte[] bytes, int at, long value) {
+        while ((value & ~0x7FL) != 0) {
+            bytes[at++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[at++] = (byte) value;
+        return at;
+    }
+
+    private static int readVarLong(byte[] bytes, int at, long[] value) {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[at++];
+            result |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        value[0] = result;
+        return at;
+    }
+}
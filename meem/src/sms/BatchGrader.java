@@ -0,0 +1,208 @@
+package sms;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.IntStream;
+
+// Batch auto-grading of paper or offline answer sheets.
+//
+// A sheet answers every question of the subject's question bank in bank
+// order. Answer keys are packed into one byte per question, sheets carry their
+// answers the same way, and the batch is graded with a parallel stream over
+// primitive arrays. Results are written back to the students and the journal
+// in a single batch, and each sheet is kept in the attempt history.
+class BatchGrader {
+    static final byte UNANSWERED = -1;
+
+    private static final Metrics.Timer GRADING_TIME = Metrics.timer("grading.batch");
+    private static final Metrics.Counter SHEETS_GRADED = Metrics.counter("grading.sheetsGraded");
+    private static final Metrics.Counter SHEETS_REJECTED = Metrics.counter("grading.sheetsRejected");
+
+    private final ManagementService system;
+
+    public BatchGrader(ManagementService system) {
+        this.system = system;
+    }
+
+    // One answer sheet: 0-based option index per question, UNANSWERED if blank
+    static class Submission {
+        private final String email;
+        private final String subject;
+        private final byte[] answers;
+
+        public Submission(String email, String subject, byte[] answers) {
+            this.email = email;
+            this.subject = subject;
+            this.answers = answers;
+        }
+
+        public String getEmail() { return email; }
+        public String getSubject() { return subject; }
+        public byte[] getAnswers() { return answers; }
+    }
+
+    // Correct option index per question, in bank order
+    static class AnswerKey {
+        private final byte[] correct;
+
+        private AnswerKey(byte[] correct) {
+            this.correct = correct;
+        }
+
+        static AnswerKey of(List<Question> questions) {
+            byte[] correct = new byte[questions.size()];
+            for (int i = 0; i < correct.length; i++) {
+                correct[i] = (byte) questions.get(i).getCorrectAnswer();
+            }
+            return new AnswerKey(correct);
+        }
+
+        public int size() { return correct.length; }
+
+        // Percentage score, rounded like the console exam (100 * correct / questions)
+        int score(byte[] answers) {
+            int matched = 0;
+            int n = Math.min(answers.length, correct.length);
+            for (int i = 0; i < n; i++) {
+                if (answers[i] == correct[i]) {
+                    matched++;
+                }
+            }
+            return (int) Math.round(100.0 * matched / correct.length);
+        }
+    }
+
+    static class GradingReport {
+        private int graded;
+        private int rejected;
+        private boolean saved = true;
+        private long elapsedNanos;
+        private final List<String> rejects = new ArrayList<>();
+
+        public int getGraded() { return graded; }
+        public int getRejected() { return rejected; }
+        public boolean isSaved() { return saved; }
+        public List<String> getRejects() { return rejects; }
+
+        public double getSheetsPerSecond() {
+            return elapsedNanos > 0 ? graded / (elapsedNanos / 1e9) : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Graded: %d | Rejected: %d | Throughput: %.0f sheets/s%s",
+                    graded, rejected, getSheetsPerSecond(), saved ? "" : " | Scores NOT saved");
+        }
+    }
+
+    public GradingReport grade(List<Submission> submissions) {
+        GradingReport report = new GradingReport();
+        long start = System.nanoTime();
+
+        // Resolve students and answer keys once, serially: both are hash lookups
+        int n = submissions.size();
+        Student[] sheetStudents = new Student[n];
+        AnswerKey[] sheetKeys = new AnswerKey[n];
+        Map<String, AnswerKey> keys = new HashMap<>();
+        Map<String, Question[]> banks = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            Submission submission = submissions.get(i);
+            AnswerKey key = keys.computeIfAbsent(submission.getSubject(), subject -> {
+                List<Question> questions = system.getQuestions(subject);
+                if (questions == null || questions.isEmpty()) {
+                    return null;
+                }
+                banks.put(subject, questions.toArray(new Question[0]));
+                return AnswerKey.of(questions);
+            });
+            Student student = system.findStudent(submission.getEmail());
+            if (key == null) {
+                reject(report, submission, "no questions for subject");
+            } else if (student == null) {
+                reject(report, submission, "unknown student");
+            } else {
+                sheetStudents[i] = student;
+                sheetKeys[i] = key;
+            }
+        }
+
+        int[] scores = new int[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            if (sheetKeys[i] != null) {
+                scores[i] = sheetKeys[i].score(submissions.get(i).getAnswers());
+            }
+        });
+
+        List<Student> gradedStudents = new ArrayList<>(n - report.rejected);
+        List<String> gradedSubjects = new ArrayList<>(n - report.rejected);
+        List<Question[]> gradedQuestions = new ArrayList<>(n - report.rejected);
+        List<int[]> gradedAnswers = new ArrayList<>(n - report.rejected);
+        int[] gradedScores = new int[n - report.rejected];
+        for (int i = 0; i < n; i++) {
+            if (sheetStudents[i] != null) {
+                Submission submission = submissions.get(i);
+                Question[] bank = banks.get(submission.getSubject());
+                gradedScores[gradedStudents.size()] = scores[i];
+                gradedStudents.add(sheetStudents[i]);
+                gradedSubjects.add(submission.getSubject());
+                gradedQuestions.add(bank);
+                gradedAnswers.add(answersOf(submission.getAnswers(), bank.length));
+            }
+        }
+        report.saved = system.recordAttempts(gradedStudents, gradedSubjects, gradedScores, gradedQuestions,
+                gradedAnswers);
+
+        report.graded = gradedStudents.size();
+        report.elapsedNanos = System.nanoTime() - start;
+        GRADING_TIME.record(report.elapsedNanos);
+        SHEETS_GRADED.add(report.graded);
+        SHEETS_REJECTED.add(n - report.graded);
+        return report;
+    }
+
+    // One answer per bank question for the attempt history; missing ones are blank
+    private static int[] answersOf(byte[] answers, int questions) {
+        int[] given = new int[questions];
+        for (int i = 0; i < questions; i++) {
+            given[i] = i < answers.length ? answers[i] : UNANSWERED;
+        }
+        return given;
+    }
+
+    private static void reject(GradingReport report, Submission submission, String reason) {
+        report.rejected++;
+        if (report.rejects.size() < 20) {
+            report.rejects.add(submission.getEmail() + " / " + submission.getSubject() + ": " + reason);
+        }
+    }
+
+    // Reads sheets from a CSV file: email,subject,answer1,answer2,...
+    // Answers are 1-based option numbers as in the console exam; 0 or blank means unanswered.
+    static List<Submission> readSheets(Path file) throws IOException {
+        List<Submission> submissions = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> fields = BulkImporter.splitCsv(line);
+                if (fields.size() < 2 || fields.get(0).trim().equalsIgnoreCase("email")) {
+                    continue;
+                }
+                byte[] answers = new byte[fields.size() - 2];
+                for (int i = 0; i < answers.length; i++) {
+                    String field = fields.get(i + 2).trim();
+                    int answer;
+                    try {
+                        answer = field.isEmpty() ? 0 : Integer.parseInt(field);
+                    } catch (NumberFormatException e) {
+                        answer = 0;
+                    }
+                    answers[i] = answer >= 1 && answer <= Byte.MAX_VALUE ? (byte) (answer - 1) : UNANSWERED;
+                }
+                submissions.add(new Submission(fields.get(0).trim(), fields.get(1).trim(), answers));
+            }
+        }
+        return submissions;
+    }
+}
@@ -0,0 +1,613 @@
+package sms;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Streaming bulk import of students, course catalogs and questions.
+//
+// The file is read line by line into fixed-size chunks. Chunks are parsed and
+// validated in parallel, then applied strictly in file order so that the first
+// occurrence of a duplicate email wins. Only a bounded window of chunks is in
+// flight at any time, so apart from QUESTION_BANKS (below) memory use does not
+// depend on the file size.
+//
+// Supported formats, chosen by file extension (.csv or .jsonl/.json):
+//   students   name,email,age                     {"name":..,"email":..,"age":..}
+//   courses    course[,subject]                   {"course":..,"subject":..}
+//   questions  subject,question,answer,opt1,opt2.. {"subject":..,"question":..,"answer":n,"options":[..]}
+// The answer is the 1-based option number, as typed in the console exam.
+// A CSV header row is skipped if present. Rejected rows are written to
+// <file>.rejected with their line number and reason, including rows with a
+// field too long for the journal.
+//
+// Questions are validated and hashed by the parsing workers, which also share
+// one copy of each distinct option string, up to SHARED_OPTIONS of them. A
+// question equal to one the subject already has (same text, options and
+// answer) is rejected as a duplicate. QUESTIONS checks each chunk against the
+// live banks and appends it, keeping nothing once the chunk is applied.
+// QUESTION_BANKS swaps in each subject's new bank in one step, so exams in
+// progress are never paused and never see a partly loaded bank; to do so it
+// holds every distinct question of the file until the end, so its memory use
+// grows with the number of distinct questions in the file.
+class BulkImporter {
+    enum Kind { STUDENTS, COURSES, QUESTIONS, QUESTION_BANKS }
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final int SAMPLE_REJECTS = 20;
+    private static final int SHARED_OPTIONS = 1 << 16;
+
+    private final ManagementService system;
+    private final int threads;
+
+    public BulkImporter(ManagementService system) {
+        this(system, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BulkImporter(ManagementService system, int threads) {
+        this.system = system;
+        this.threads = Math.max(1, threads);
+    }
+
+    // Summary of one import run
+    static class ImportReport {
+        private long rows;
+        private long accepted;
+        private long rejected;
+        private long elapsedNanos;
+        private Path rejectsFile;
+        private final List<String> sampleRejects = new ArrayList<>();
+
+        public long getRows() { return rows; }
+        public long getAccepted() { return accepted; }
+        public long getRejected() { return rejected; }
+        public List<String> getSampleRejects() { return sampleRejects; }
+        public Path getRejectsFile() { return rejectsFile; }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("Rows: %d | Accepted: %d | Rejected: %d | Time: %.2fs (%.0f rows/s)%s",
+                    rows, accepted, rejected, seconds, seconds > 0 ? rows / seconds : 0.0,
+                    rejectsFile != null ? " | Rejected rows: " + rejectsFile : "");
+        }
+    }
+
+    public ImportReport importFile(Kind kind, Path file) throws IOException {
+        boolean json = isJson(file);
+        ImportReport report = new ImportReport();
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        Path rejectsPath = Paths.get(file.toString() + ".rejected");
+        Files.deleteIfExists(rejectsPath);
+        ConcurrentHashMap<String, String> options = new ConcurrentHashMap<>();
+        Map<String, Set<Question>> banks = new LinkedHashMap<>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Files.newInputStream(file), StandardCharsets.UTF_8), 1 << 20);
+             RejectLog rejects = new RejectLog(rejectsPath, report)) {
+            Deque<Future<ParsedChunk>> window = new ArrayDeque<>();
+            int maxInFlight = threads * 2;
+            long lineNumber = 0;
+            List<String> lines = new ArrayList<>(CHUNK_SIZE);
+            long chunkStart = 1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber == 1 && !json && isHeader(kind, line)) {
+                    chunkStart = 2;
+                    continue;
+                }
+                lines.add(line);
+                if (lines.size() == CHUNK_SIZE) {
+                    window.add(submit(workers, kind, json, chunkStart, lines, options));
+                    lines = new ArrayList<>(CHUNK_SIZE);
+                    chunkStart = lineNumber + 1;
+                    while (window.size() >= maxInFlight) {
+                        apply(kind, await(window.poll()), report, rejects, banks);
+                    }
+                }
+            }
+            if (!lines.isEmpty()) {
+                window.add(submit(workers, kind, json, chunkStart, lines, options));
+            }
+            while (!window.isEmpty()) {
+                apply(kind, await(window.poll()), report, rejects, banks);
+            }
+            if (kind == Kind.QUESTION_BANKS) {
+                for (Map.Entry<String, Set<Question>> bank : banks.entrySet()) {
+                    system.replaceQuestions(bank.getKey(), new ArrayList<>(bank.getValue()));
+                    report.accepted += bank.getValue().size();
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private static boolean isJson(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".jsonl") || name.endsWith(".json") || name.endsWith(".ndjson");
+    }
+
+    private static boolean isHeader(Kind kind, String line) {
+        String first = line.split(",", 2)[0].trim().toLowerCase(Locale.ROOT);
+        switch (kind) {
+            case STUDENTS: return first.equals("name");
+            case COURSES: return first.equals("course");
+            default: return first.equals("subject");
+        }
+    }
+
+    private Future<ParsedChunk> submit(ExecutorService workers, Kind kind, boolean json,
+                                       long firstLine, List<String> lines, ConcurrentHashMap<String, String> options) {
+        return workers.submit(() -> parse(kind, json, firstLine, lines, options));
+    }
+
+    private static ParsedChunk await(Future<ParsedChunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed", e.getCause());
+        }
+    }
+
+    // Parsed rows of one chunk, with their line numbers
+    private static class ParsedChunk {
+        final List<Object> rows = new ArrayList<>();
+        final List<Long> lineNumbers = new ArrayList<>();
+        final List<String> rawLines = new ArrayList<>();
+        final List<String> rejects = new ArrayList<>();
+        int total;
+    }
+
+    private static class CourseRow {
+        final String course;
+        final String subject;
+
+        CourseRow(String course, String subject) {
+            this.course = course;
+            this.subject = subject;
+        }
+    }
+
+    private static class QuestionRow {
+        final String subject;
+        final Question question;
+
+        QuestionRow(String subject, Question question) {
+            this.subject = subject;
+            this.question = question;
+        }
+    }
+
+    private static ParsedChunk parse(Kind kind, boolean json, long firstLine, List<String> lines,
+                                     ConcurrentHashMap<String, String> options) {
+        ParsedChunk chunk = new ParsedChunk();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            long lineNumber = firstLine + i;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            chunk.total++;
+            try {
+                Row row = json ? new JsonRow(MiniJson.parseObject(line)) : new CsvRow(splitCsv(line));
+                chunk.rows.add(parseRow(kind, row, options));
+                chunk.lineNumbers.add(lineNumber);
+                chunk.rawLines.add(line);
+            } catch (IllegalArgumentException e) {
+                chunk.rejects.add("line " + lineNumber + ": " + e.getMessage() + ": " + line);
+            }
+        }
+        return chunk;
+    }
+
+    private static Object parseRow(Kind kind, Row row, ConcurrentHashMap<String, String> interned) {
+        switch (kind) {
+            case STUDENTS: {
+                String name = row.required("name", 0);
+                String email = row.required("email", 1).trim();
+                Journal.checkText("name", name);
+                Journal.checkText("email", email);
+                if (email.indexOf('@') <= 0 || email.indexOf('@') == email.length() - 1) {
+                    throw new IllegalArgumentException("invalid email");
+                }
+                int age = row.integer("age", 2);
+                if (age < 1 || age > 150) {
+                    throw new IllegalArgumentException("invalid age");
+                }
+                return new Student(name, email, age);
+            }
+            case COURSES: {
+                String course = row.required("course", 0);
+                String subject = row.optional("subject", 1);
+                Journal.checkText("course", course);
+                Journal.checkText("subject", subject);
+                return new CourseRow(course, subject);
+            }
+            default: {
+                String subject = row.required("subject", 0);
+                String text = row.required("question", 1);
+                int answer = row.integer("answer", 2);
+                String[] options = row.options(3);
+                if (interned.size() >= SHARED_OPTIONS) {
+                    interned.clear();
+                }
+                for (int i = 0; i < options.length; i++) {
+                    String option = interned.putIfAbsent(options[i], options[i]);
+                    if (option != null) {
+                        options[i] = option;
+                    }
+                }
+                Question question = new Question(text, options, answer - 1);
+                Journal.checkQuestion(subject, question);
+                return new QuestionRow(subject, question);
+            }
+        }
+    }
+
+    // Applies a parsed chunk; always called in file order from the reading
+    // thread. Banks accumulates each subject's new bank for QUESTION_BANKS.
+    private void apply(Kind kind, ParsedChunk chunk, ImportReport report, RejectLog rejects,
+                       Map<String, Set<Question>> banks) throws IOException {
+        report.rows += chunk.total;
+        for (String reject : chunk.rejects) {
+            rejects.add(reject);
+        }
+
+        switch (kind) {
+            case STUDENTS: {
+                List<Student> batch = new ArrayList<>(chunk.rows.size());
+                for (Object row : chunk.rows) {
+                    batch.add((Student) row);
+                }
+                boolean[] accepted = system.registerStudents(batch);
+                for (int i = 0; i < accepted.length; i++) {
+                    if (accepted[i]) {
+                        report.accepted++;
+                    } else {
+                        rejects.add("line " + chunk.lineNumbers.get(i) + ": duplicate email: " + chunk.rawLines.get(i));
+                    }
+                }
+                break;
+            }
+            case COURSES: {
+                List<String> courses = new ArrayList<>(chunk.rows.size());
+                List<String> subjects = new ArrayList<>(chunk.rows.size());
+                for (Object row : chunk.rows) {
+                    CourseRow course = (CourseRow) row;
+                    courses.add(course.course);
+                    subjects.add(course.subject);
+                }
+                system.addCourses(courses, subjects);
+                report.accepted += chunk.rows.size();
+                break;
+            }
+            case QUESTIONS: {
+                // The chunk's new questions by subject, minus those its bank holds
+                Map<String, Set<Question>> added = new LinkedHashMap<>();
+                boolean[] duplicate = new boolean[chunk.rows.size()];
+                for (int i = 0; i < chunk.rows.size(); i++) {
+                    QuestionRow question = (QuestionRow) chunk.rows.get(i);
+                    duplicate[i] = !added.computeIfAbsent(question.subject, s -> new LinkedHashSet<>())
+                            .add(question.question);
+                }
+                for (Map.Entry<String, Set<Question>> entry : added.entrySet()) {
+                    List<Question> existing = system.getQuestions(entry.getKey());
+                    if (existing != null) {
+                        for (Question question : existing) {
+                            entry.getValue().remove(question);
+                        }
+                    }
+                }
+                for (int i = 0; i < chunk.rows.size(); i++) {
+                    QuestionRow question = (QuestionRow) chunk.rows.get(i);
+                    if (duplicate[i] || !added.get(question.subject).contains(question.question)) {
+                        rejects.add("line " + chunk.lineNumbers.get(i) + ": duplicate question: " + chunk.rawLines.get(i));
+                    }
+                }
+                for (Map.Entry<String, Set<Question>> entry : added.entrySet()) {
+                    if (!entry.getValue().isEmpty()) {
+                        system.addQuestions(entry.getKey(), new ArrayList<>(entry.getValue()));
+                        report.accepted += entry.getValue().size();
+                    }
+                }
+                break;
+            }
+            default: {
+                for (int i = 0; i < chunk.rows.size(); i++) {
+                    QuestionRow question = (QuestionRow) chunk.rows.get(i);
+                    if (!banks.computeIfAbsent(question.subject, s -> new LinkedHashSet<>()).add(question.question)) {
+                        rejects.add("line " + chunk.lineNumbers.get(i) + ": duplicate question: " + chunk.rawLines.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    // Writes rejected rows to disk and keeps a short sample for the console
+    private static class RejectLog implements Closeable {
+        private final Path path;
+        private final ImportReport report;
+        private BufferedWriter writer;
+
+        RejectLog(Path path, ImportReport report) {
+            this.path = path;
+            this.report = report;
+        }
+
+        void add(String reject) throws IOException {
+            report.rejected++;
+            if (report.sampleRejects.size() < SAMPLE_REJECTS) {
+                report.sampleRejects.add(reject);
+            }
+            if (writer == null) {
+                writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+                report.rejectsFile = path;
+            }
+            writer.write(reject);
+            writer.newLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    // Field access by JSON key or CSV column
+    private interface Row {
+        String optional(String key, int column);
+        String[] options(int firstColumn);
+
+        default String required(String key, int column) {
+            String value = optional(key, column).trim();
+            if (value.isEmpty()) {
+                throw new IllegalArgumentException("missing " + key);
+            }
+            return value;
+        }
+
+        default int integer(String key, int column) {
+            try {
+                return Integer.parseInt(required(key, column));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid " + key);
+            }
+        }
+    }
+
+    private static class CsvRow implements Row {
+        private final List<String> fields;
+
+        CsvRow(List<String> fields) {
+            this.fields = fields;
+        }
+
+        public String optional(String key, int column) {
+            return column < fields.size() ? fields.get(column) : "";
+        }
+
+        public String[] options(int firstColumn) {
+            if (firstColumn >= fields.size()) {
+                return new String[0];
+            }
+            return fields.subList(firstColumn, fields.size()).toArray(new String[0]);
+        }
+    }
+
+    private static class JsonRow implements Row {
+        private final Map<String, Object> fields;
+
+        JsonRow(Map<String, Object> fields) {
+            this.fields = fields;
+        }
+
+        public String optional(String key, int column) {
+            Object value = fields.get(key);
+            return value == null ? "" : value.toString();
+        }
+
+        public String[] options(int firstColumn) {
+            Object value = fields.get("options");
+            if (!(value instanceof List)) {
+                return new String[0];
+            }
+            List<?> list = (List<?>) value;
+            String[] options = new String[list.size()];
+            for (int i = 0; i < options.length; i++) {
+                options[i] = String.valueOf(list.get(i));
+            }
+            return options;
+        }
+    }
+
+    // Splits one CSV line, honouring double-quoted fields with "" escapes
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // Minimal parser for one-line JSON objects with string, number, boolean,
+    // null and array-of-scalar values
+    static class MiniJson {
+        private final String text;
+        private int pos;
+
+        private MiniJson(String text) {
+            this.text = text;
+        }
+
+        static Map<String, Object> parseObject(String text) {
+            MiniJson parser = new MiniJson(text);
+            parser.skipWhitespace();
+            Map<String, Object> object = parser.readObject();
+            parser.skipWhitespace();
+            if (parser.pos != text.length()) {
+                throw new IllegalArgumentException("trailing characters in JSON");
+            }
+            return object;
+        }
+
+        private Map<String, Object> readObject() {
+            expect('{');
+            Map<String, Object> object = new HashMap<>();
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                object.put(key, readValue());
+                skipWhitespace();
+                char c = next();
+                if (c == '}') {
+                    return object;
+                }
+                if (c != ',') {
+                    throw new IllegalArgumentException("malformed JSON object");
+                }
+            }
+        }
+
+        private Object readValue() {
+            char c = peek();
+            if (c == '"') {
+                return readString();
+            }
+            if (c == '[') {
+                pos++;
+                List<Object> list = new ArrayList<>();
+                skipWhitespace();
+                if (peek() == ']') {
+                    pos++;
+                    return list;
+                }
+                while (true) {
+                    skipWhitespace();
+                    list.add(readValue());
+                    skipWhitespace();
+                    char d = next();
+                    if (d == ']') {
+                        return list;
+                    }
+                    if (d != ',') {
+                        throw new IllegalArgumentException("malformed JSON array");
+                    }
+                }
+            }
+            int start = pos;
+            while (pos < text.length() && ",}] \t".indexOf(text.charAt(pos)) < 0) {
+                pos++;
+            }
+            String literal = text.substring(start, pos);
+            if (literal.equals("null")) {
+                return null;
+            }
+            if (literal.isEmpty()) {
+                throw new IllegalArgumentException("malformed JSON value");
+            }
+            return literal;
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c == '\\') {
+                    char e = next();
+                    switch (e) {
+                        case 'n': value.append('\n'); break;
+                        case 't': value.append('\t'); break;
+                        case 'r': value.append('\r'); break;
+                        case 'b': value.append('\b'); break;
+                        case 'f': value.append('\f'); break;
+                        case 'u':
+                            if (pos + 4 > text.length()) {
+                                throw new IllegalArgumentException("malformed JSON escape");
+                            }
+                            value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                            pos += 4;
+                            break;
+                        default: value.append(e);
+                    }
+                } else {
+                    value.append(c);
+                }
+            }
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw new IllegalArgumentException("expected '" + c + "' in JSON");
+            }
+        }
+
+        private char next() {
+            if (pos >= text.length()) {
+                throw new IllegalArgumentException("unexpected end of JSON");
+            }
+            return text.charAt(pos++);
+        }
+
+        private char peek() {
+            if (pos >= text.length()) {
+                throw new IllegalArgumentException("unexpected end of JSON");
+            }
+            return text.charAt(pos);
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
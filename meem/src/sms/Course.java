@@ -0,0 +1,42 @@
+package sms;
+
+import java.util.*;
+
+// Course class
+// Created through CourseCatalog; subjects are interned in the catalog's table
+// and seats are allocated through Enrollments
+class Course {
+    private String courseName;
+    private SubjectSet subjects;
+    private final CourseCatalog catalog;
+    private final CourseSeats seats = new CourseSeats();
+
+    Course(String courseName, CourseCatalog catalog) {
+        this.courseName = courseName;
+        this.subjects = new SubjectSet(catalog.getSubjects());
+        this.catalog = catalog;
+    }
+
+    public String getCourseName() { return courseName; }
+    public List<String> getSubjects() { return subjects.asList(); }
+    public int[] getSubjectIds() { return subjects.toIdArray(); }
+    public CourseSeats getSeats() { return seats; }
+
+    public boolean hasSubject(String subject) {
+        return subjects.contains(subject);
+    }
+
+    // Returns false if the course already has the subject
+    public boolean addSubject(String subject) {
+        if (!subjects.add(subject)) {
+            return false;
+        }
+        catalog.changed();
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return courseName + " (Subjects: " + subjects.size() + ")";
+    }
+}
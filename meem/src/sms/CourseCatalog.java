@@ -0,0 +1,71 @@
+package sms;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Course catalog: courses in creation order for the numbered listings, plus a
+// hash index on the case-normalized name, so finding a course no longer scans
+// the list. Subjects are interned in the shared SubjectTable, so every course
+// and student refers to a subject by the same int id as the result store.
+//
+// Courses are created rarely and listed often: the list is copy-on-write and
+// both structures are read without locking; creation serializes on the catalog.
+// Every new course or subject bumps the catalog version, which stamps the
+// cached catalog views.
+class CourseCatalog {
+    private final SubjectTable subjects;
+    private final List<Course> courses = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, Course> byName = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    public CourseCatalog(SubjectTable subjects) {
+        this.subjects = subjects;
+    }
+
+    public SubjectTable getSubjects() { return subjects; }
+
+    static String normalizeName(String courseName) {
+        return courseName.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Returns the new course, or null if one with that name already exists
+    public synchronized Course add(String courseName) {
+        String key = normalizeName(courseName);
+        if (byName.containsKey(key)) {
+            return null;
+        }
+        Course course = new Course(courseName, this);
+        byName.put(key, course);
+        courses.add(course);
+        changed();
+        return course;
+    }
+
+    // Changes with every course or subject added
+    public long getVersion() {
+        return version.get();
+    }
+
+    void changed() {
+        version.incrementAndGet();
+    }
+
+    public Course find(String courseName) {
+        return byName.get(normalizeName(courseName));
+    }
+
+    // Read-only view in creation order
+    public List<Course> getAll() {
+        return Collections.unmodifiableList(courses);
+    }
+
+    public int size() {
+        return courses.size();
+    }
+
+    public boolean isEmpty() {
+        return courses.isEmpty();
+    }
+}
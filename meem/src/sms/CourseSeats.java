@@ -0,0 +1,186 @@
+package sms;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Seat counter and waitlist of one course.
+//
+// Free seats are split over STRIPES counters, a cache line apart. A thread
+// takes a seat with a CAS on the counter picked by its id and only tries the
+// others when that one is empty, so a registration spike on one popular
+// course spreads over several counters instead of queueing on one. A counter
+// never goes below zero, so the course is never overbooked. Lowering the
+// capacity below the seats taken leaves a debt that seats given back repay
+// before they are free again.
+//
+// The waitlist is a lock-free FIFO queue. While anyone waits, newcomers queue
+// behind them instead of taking a seat, and each seat that comes free is
+// handed to the head of the queue. Entries of students who stopped waiting
+// stay in the queue and are skipped when they reach the head.
+class CourseSeats {
+    static final int UNLIMITED = 1 << 30;
+    private static final int STRIPES = 8;
+    private static final int SPACING = 16; // ints per cache line
+
+    private final AtomicIntegerArray free = new AtomicIntegerArray(STRIPES * SPACING);
+    private final AtomicInteger debt = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Waiter> waitlist = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private volatile int capacity; // written under this
+
+    // A place on the waitlist. It ends either cancelled, or promoted (a seat
+    // is held for the student) and then claimed by whoever moves the student
+    // into the course.
+    static final class Waiter {
+        private static final int WAITING = 0;
+        private static final int PROMOTED = 1;
+        private static final int DONE = 2;
+
+        private final Student student;
+        private final Course course;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        private Waiter(Student student, Course course) {
+            this.student = student;
+            this.course = course;
+        }
+
+        public Student getStudent() { return student; }
+        public Course getCourse() { return course; }
+        public boolean isWaiting() { return state.get() == WAITING; }
+
+        // Leaves the waitlist; false if a seat was already handed over
+        boolean cancel() {
+            if (state.compareAndSet(WAITING, DONE)) {
+                course.getSeats().waiting.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        // True for exactly one caller once the waiter was promoted
+        boolean claim() {
+            return state.compareAndSet(PROMOTED, DONE);
+        }
+    }
+
+    CourseSeats() {
+        setCapacity(UNLIMITED);
+    }
+
+    public int getCapacity() { return capacity; }
+    public boolean isLimited() { return capacity != UNLIMITED; }
+    public int getWaiting() { return waiting.get(); }
+
+    // Seats taken; exact when no enrollment is in flight
+    public int getEnrolled() {
+        int available = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            available += free.get(i * SPACING);
+        }
+        return capacity - available + debt.get();
+    }
+
+    // Takes a seat unless the course is full or others are waiting for one
+    boolean tryTake() {
+        return waiting.get() == 0 && take();
+    }
+
+    // Gives a seat back, repaying any debt first
+    void release() {
+        int owed;
+        while ((owed = debt.get()) > 0) {
+            if (debt.compareAndSet(owed, owed - 1)) {
+                return;
+            }
+        }
+        free.getAndIncrement(home());
+    }
+
+    Waiter enqueue(Student student, Course course) {
+        Waiter waiter = new Waiter(student, course);
+        waiting.incrementAndGet();
+        waitlist.add(waiter);
+        return waiter;
+    }
+
+    // Takes a free seat for the first student still waiting and returns its
+    // promoted entry, or null if nobody waits or no seat is free
+    Waiter promoteNext() {
+        while (waiting.get() > 0 && take()) {
+            Waiter waiter;
+            while ((waiter = waitlist.poll()) != null) {
+                if (waiter.state.compareAndSet(Waiter.WAITING, Waiter.PROMOTED)) {
+                    waiting.decrementAndGet();
+                    return waiter;
+                }
+            }
+            release();
+            // A waiter may have been counted before it reached the queue
+        }
+        return null;
+    }
+
+    // Seats taken regardless of the capacity, for enrollments replayed on recovery
+    void takeForced(int seats) {
+        for (int i = 0; i < seats; i++) {
+            if (!take()) {
+                debt.incrementAndGet();
+            }
+        }
+    }
+
+    // Raising the capacity frees seats right away; lowering it takes free
+    // seats back and records the rest as debt
+    synchronized void setCapacity(int newCapacity) {
+        int delta = newCapacity - capacity;
+        capacity = newCapacity;
+        while (delta > 0) {
+            int owed = debt.get();
+            if (owed == 0) {
+                break;
+            }
+            int repaid = Math.min(owed, delta);
+            if (debt.compareAndSet(owed, owed - repaid)) {
+                delta -= repaid;
+            }
+        }
+        if (delta > 0) {
+            for (int i = 0; i < STRIPES; i++) {
+                free.getAndAdd(i * SPACING, delta / STRIPES + (i < delta % STRIPES ? 1 : 0));
+            }
+        }
+        for (int i = 0; i < STRIPES && delta < 0; i++) {
+            int index = i * SPACING;
+            int available;
+            while ((available = free.get(index)) > 0 && delta < 0) {
+                int taken = Math.min(available, -delta);
+                if (free.compareAndSet(index, available, available - taken)) {
+                    delta += taken;
+                }
+            }
+        }
+        if (delta < 0) {
+            debt.addAndGet(-delta);
+        }
+    }
+
+    private boolean take() {
+        int start = home();
+        for (int i = 0; i < STRIPES; i++) {
+            int index = (start + i * SPACING) % (STRIPES * SPACING);
+            int available;
+            while ((available = free.get(index)) > 0) {
+                if (free.compareAndSet(index, available, available - 1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int home() {
+        return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * SPACING;
+    }
+}
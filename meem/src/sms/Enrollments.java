@@ -0,0 +1,192 @@
+package sms;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Enrollment of students in courses with limited seats (see CourseSeats).
+//
+// A student holds a seat in at most one course, its selected course, and
+// waits for at most one other. Selecting a full course puts the student on
+// its waitlist and keeps the current course until a seat is handed over; the
+// switch then happens on the thread that freed the seat. Switching courses
+// takes the new seat before the old one is given back, so a student is never
+// left without a seat by a full course.
+//
+// The seat counters and waitlists are lock-free. Only the bookkeeping of one
+// student is serialized on that student, and seats freed by a change are
+// handed to waiting students after its monitor is released, so no thread
+// ever holds two students' monitors.
+//
+// Waitlists live in memory only: after a restart, students who were waiting
+// have to select the course again.
+class Enrollments {
+    private static final Metrics.Counter ENROLLED = Metrics.counter("enrollment.enrolled");
+    private static final Metrics.Counter WAITLISTED = Metrics.counter("enrollment.waitlisted");
+    private static final Metrics.Counter PROMOTED = Metrics.counter("enrollment.promoted");
+    private static final Metrics.Counter DROPPED = Metrics.counter("enrollment.dropped");
+    private static final Metrics.Timer ENROLL_TIME = Metrics.timer("enrollment.enroll");
+
+    enum Status { ENROLLED, ALREADY_ENROLLED, WAITLISTED, NO_SUCH_COURSE }
+
+    // Told about every change of a student's selected course, including
+    // promotions from a waitlist; courseName is null when the course is dropped
+    interface Listener {
+        void selected(Student student, String courseName);
+    }
+
+    private final CourseCatalog catalog;
+    private final Listener listener;
+    private final ConcurrentHashMap<Student, CourseSeats.Waiter> waiting = new ConcurrentHashMap<>();
+
+    public Enrollments(CourseCatalog catalog, Listener listener) {
+        this.catalog = catalog;
+        this.listener = listener;
+    }
+
+    // Enrolls the student if the course has a free seat, otherwise puts it on
+    // the course's waitlist (keeping its place if it already waits there)
+    public Status enroll(Student student, String courseName) {
+        Course course = catalog.find(courseName);
+        if (course == null) {
+            return Status.NO_SUCH_COURSE;
+        }
+        long started = ENROLL_TIME.start();
+        List<Course> freed = new ArrayList<>(2);
+        Status status;
+        synchronized (student) {
+            CourseSeats.Waiter waiter = waiting.get(student);
+            if (waiter != null && waiter.getCourse() == course && waiter.isWaiting()) {
+                ENROLL_TIME.stop(started);
+                return Status.WAITLISTED;
+            }
+            leaveWaitlist(student, freed);
+            if (course.getCourseName().equals(student.getSelectedCourse())) {
+                status = Status.ALREADY_ENROLLED;
+            } else if (course.getSeats().tryTake()) {
+                switchTo(student, course, freed);
+                status = Status.ENROLLED;
+                ENROLLED.increment();
+            } else {
+                waiting.put(student, course.getSeats().enqueue(student, course));
+                status = Status.WAITLISTED;
+                WAITLISTED.increment();
+            }
+        }
+        if (status == Status.WAITLISTED) {
+            // A seat may have come free before the student was queued
+            freed.add(course);
+        }
+        promote(freed);
+        ENROLL_TIME.stop(started);
+        return status;
+    }
+
+    // Gives up the student's seat and any place on a waitlist; returns false
+    // if the student had neither
+    public boolean drop(Student student) {
+        List<Course> freed = new ArrayList<>(2);
+        boolean dropped;
+        synchronized (student) {
+            boolean left = leaveWaitlist(student, freed);
+            dropped = switchTo(student, null, freed) || left;
+        }
+        if (dropped) {
+            DROPPED.increment();
+        }
+        promote(freed);
+        return dropped;
+    }
+
+    // Lowering the capacity below the enrolled count drops nobody, but frees
+    // no seat until enough students have left. Seats a raise adds stay free
+    // until fillSeats(), so the caller can journal the capacity before the
+    // promotions it causes.
+    public boolean setCapacity(String courseName, int capacity) {
+        Course course = catalog.find(courseName);
+        if (course == null) {
+            return false;
+        }
+        course.getSeats().setCapacity(capacity);
+        return true;
+    }
+
+    // Hands the course's free seats to the students waiting for it
+    public void fillSeats(String courseName) {
+        Course course = catalog.find(courseName);
+        if (course != null) {
+            promote(new ArrayList<>(Collections.singletonList(course)));
+        }
+    }
+
+    // Applies a selection replayed from the journal, moving the seat without
+    // checking the capacity; the journal only holds selections that were
+    // accepted. An empty name is a drop.
+    void restore(Student student, String courseName) {
+        Course course = courseName.isEmpty() ? null : catalog.find(courseName);
+        String selected = student.getSelectedCourse();
+        if (course != null && course.getCourseName().equals(selected)) {
+            return;
+        }
+        if (course != null) {
+            course.getSeats().takeForced(1);
+        }
+        Course previous = selected != null ? catalog.find(selected) : null;
+        if (previous != null) {
+            previous.getSeats().release();
+        }
+        student.setSelectedCourse(course != null ? course.getCourseName() : null);
+    }
+
+    // Removes the student from the waitlist it is on. If a seat was handed
+    // over meanwhile, the promotion is applied first, so the student's later
+    // choice wins over it. Returns false if the student was not waiting.
+    // Called holding the student's monitor.
+    private boolean leaveWaitlist(Student student, List<Course> freed) {
+        CourseSeats.Waiter waiter = waiting.remove(student);
+        if (waiter == null) {
+            return false;
+        }
+        if (!waiter.cancel() && waiter.claim()) {
+            switchTo(student, waiter.getCourse(), freed);
+        }
+        return true;
+    }
+
+    // Moves the student to the course (whose seat it already holds) or out of
+    // its course when null. The seat given back is added to freed for
+    // promotion. Called holding the student's monitor.
+    private boolean switchTo(Student student, Course course, List<Course> freed) {
+        String selected = student.getSelectedCourse();
+        if (course == null && selected == null) {
+            return false;
+        }
+        Course previous = selected != null ? catalog.find(selected) : null;
+        student.setSelectedCourse(course != null ? course.getCourseName() : null);
+        listener.selected(student, course != null ? course.getCourseName() : null);
+        if (previous != null) {
+            previous.getSeats().release();
+            freed.add(previous);
+        }
+        return true;
+    }
+
+    // Hands seats freed in these courses to their waiting students, then the
+    // seats those students give up in turn
+    private void promote(List<Course> freed) {
+        for (int i = 0; i < freed.size(); i++) {
+            Course course = freed.get(i);
+            CourseSeats.Waiter waiter;
+            while ((waiter = course.getSeats().promoteNext()) != null) {
+                Student student = waiter.getStudent();
+                synchronized (student) {
+                    // Otherwise the student's own enroll or drop already applied it
+                    if (waiter.claim()) {
+                        waiting.remove(student, waiter);
+                        switchTo(student, course, freed);
+                        PROMOTED.increment();
+                    }
+                }
+            }
+        }
+    }
+}
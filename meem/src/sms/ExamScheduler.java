@@ -0,0 +1,353 @@
+package sms;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Admission control and time limits for exam attempts.
+//
+// At most maxActive attempts run at once. Students beyond that queue for a
+// seat, in arrival order, for up to the admission wait; at most maxWaiting of
+// them queue at a time and the rest are turned away at once, so an exam spike
+// costs a bounded number of parked session threads instead of unbounded
+// memory. The limits come from system properties:
+//   -Dsms.exams.maxActive=1000 -Dsms.exams.maxWaiting=5000
+//   -Dsms.exams.admissionWaitSeconds=30 -Dsms.exams.secondsPerQuestion=120
+//
+// Adaptive attempts (see ItemStatistics) ask -Dsms.exams.adaptiveQuestions
+// questions, each chosen for the ability shown by the answers so far.
+//
+// Each attempt gets a deadline of secondsPerQuestion per drawn question, kept
+// in a hierarchical TimingWheel rather than a timer per student. Attempts that
+// run out of time are submitted with the answers given so far; they are queued
+// to one grading task that grades and records them in batches, each with a
+// single journal sync, so a wave of deadlines does not fan out into threads.
+class ExamScheduler implements Closeable {
+    static final int MAX_ACTIVE = Integer.getInteger("sms.exams.maxActive", 1000);
+    static final int MAX_WAITING = Integer.getInteger("sms.exams.maxWaiting", 5000);
+    static final int ADMISSION_WAIT_SECONDS = Integer.getInteger("sms.exams.admissionWaitSeconds", 30);
+    static final int SECONDS_PER_QUESTION = Integer.getInteger("sms.exams.secondsPerQuestion", 120);
+    static final int ADAPTIVE_QUESTIONS = Integer.getInteger("sms.exams.adaptiveQuestions", 10);
+    private static final int GRADING_BATCH = 1000;
+
+    private static final Metrics.Counter ADMITTED = Metrics.counter("exams.admitted");
+    private static final Metrics.Counter REJECTED = Metrics.counter("exams.rejected");
+    private static final Metrics.Counter EXPIRED = Metrics.counter("exams.expired");
+    // Counted by the service's draws for standard exams; adaptive ones draw lazily
+    private static final Metrics.Counter STARTED = Metrics.counter("exams.started");
+    private static final Metrics.Timer ADMISSION_TIME = Metrics.timer("exams.admission");
+    private static final Metrics.Timer EXPIRED_GRADING_TIME = Metrics.timer("exams.expiredBatch");
+
+    private final ManagementService service;
+    private final int maxWaiting;
+    private final long admissionWaitMillis;
+    private final long millisPerQuestion;
+    private final Semaphore seats;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final TimingWheel<Attempt> deadlines;
+
+    private final ConcurrentLinkedQueue<Attempt> expired = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean grading = new AtomicBoolean();
+    private final ExecutorService grader = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "exam-grader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ExamScheduler(ManagementService service) {
+        this(service, MAX_ACTIVE, MAX_WAITING, TimeUnit.SECONDS.toMillis(ADMISSION_WAIT_SECONDS),
+                TimeUnit.SECONDS.toMillis(SECONDS_PER_QUESTION), 1000);
+    }
+
+    public ExamScheduler(ManagementService service, int maxActive, int maxWaiting, long admissionWaitMillis,
+                         long millisPerQuestion, long tickMillis) {
+        this.service = service;
+        this.maxWaiting = maxWaiting;
+        this.admissionWaitMillis = admissionWaitMillis;
+        this.millisPerQuestion = millisPerQuestion;
+        this.seats = new Semaphore(maxActive, true);
+        this.deadlines = new TimingWheel<>(tickMillis, TimeUnit.MILLISECONDS, "exam-deadlines", this::onExpired);
+    }
+
+    // One student's timed attempt. Answers are 0-based option indexes; anything
+    // left unanswered counts as wrong. An adaptive attempt chooses each
+    // question when it is first asked for, from the answers given before it.
+    static class Attempt {
+        private static final int ACTIVE = 0;
+        private static final int SUBMITTED = 1;
+        private static final int EXPIRED = 2;
+
+        private final ExamScheduler scheduler;
+        private final Student student;
+        private final String subject;
+        private final Question[] questions;
+        private final int[] answers;
+        private final boolean adaptive;
+        private int asked; // guarded by this; questions chosen so far when adaptive
+        private double ability; // guarded by this
+        private final long deadlineNanos;
+        private final CountDownLatch graded = new CountDownLatch(1);
+        private TimingWheel.Timeout<Attempt> timeout;
+        private int state = ACTIVE; // guarded by this
+        private volatile ManagementService.ExamOutcome outcome;
+
+        private Attempt(ExamScheduler scheduler, Student student, String subject, Question[] questions,
+                        boolean adaptive, long limitMillis) {
+            this.scheduler = scheduler;
+            this.student = student;
+            this.subject = subject;
+            this.questions = questions;
+            this.adaptive = adaptive;
+            this.asked = adaptive ? 0 : questions.length;
+            this.answers = new int[questions.length];
+            Arrays.fill(this.answers, -1);
+            this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(limitMillis);
+        }
+
+        public Student getStudent() { return student; }
+        public String getSubject() { return subject; }
+        public boolean isAdaptive() { return adaptive; }
+        public int getQuestionCount() { return questions.length; }
+
+        // The questions asked so far
+        public synchronized Question[] getQuestions() {
+            return asked == questions.length ? questions : Arrays.copyOf(questions, asked);
+        }
+
+        // The question at this position. An adaptive attempt chooses the next
+        // one on first request; null once the time is up or the bank has no
+        // unasked question left.
+        public synchronized Question getQuestion(int question) {
+            if (question < asked) {
+                return questions[question];
+            }
+            if (question != asked || state != ACTIVE || getRemainingMillis() == 0) {
+                return null;
+            }
+            Question next = scheduler.service.getItemStatistics().select(subject, ability, questions, asked);
+            if (next != null) {
+                questions[asked++] = next;
+            }
+            return next;
+        }
+
+        public long getRemainingMillis() {
+            return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+        }
+
+        // Records an answer; false once the time is up or the attempt was submitted
+        public synchronized boolean answer(int question, int option) {
+            if (state != ACTIVE || getRemainingMillis() == 0 || question >= asked) {
+                return false;
+            }
+            answers[question] = option;
+            if (adaptive) {
+                ability = scheduler.service.getItemStatistics().estimateAbility(subject, getQuestions(), answers);
+            }
+            return true;
+        }
+
+        // Submits the attempt and returns its outcome. An attempt that ran out
+        // of time has been (or is being) submitted automatically; this waits
+        // for that grading instead.
+        public ManagementService.ExamOutcome submit() {
+            synchronized (this) {
+                if (state == SUBMITTED) {
+                    return outcome;
+                }
+                if (state == ACTIVE) {
+                    state = SUBMITTED;
+                    timeout.cancel();
+                    try {
+                        outcome = scheduler.service.submitExam(student, subject, getQuestions(),
+                                Arrays.copyOf(answers, asked), adaptive);
+                    } finally {
+                        graded.countDown();
+                        scheduler.seats.release();
+                    }
+                    return outcome;
+                }
+            }
+            try {
+                graded.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return outcome;
+        }
+
+        public synchronized boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        // Ends an active attempt for automatic submission; returns its answers
+        // to the questions asked, or null if it was submitted in the meantime
+        private synchronized int[] expire() {
+            if (state != ACTIVE) {
+                return null;
+            }
+            state = EXPIRED;
+            return Arrays.copyOf(answers, asked);
+        }
+    }
+
+    // Starts an attempt on the subject, waiting for a free seat if need be.
+    // Returns null if no seat came free in time, too many students are already
+    // waiting, or the subject has no questions.
+    public Attempt begin(Student student, String subject) {
+        long started = ADMISSION_TIME.start();
+        try {
+            if (!admit()) {
+                REJECTED.increment();
+                return null;
+            }
+            Question[] questions = service.drawExam(subject);
+            if (questions.length == 0) {
+                seats.release();
+                return null;
+            }
+            return start(student, subject, questions, false);
+        } finally {
+            ADMISSION_TIME.stop(started);
+        }
+    }
+
+    // Starts an adaptive attempt; same admission rules as begin()
+    public Attempt beginAdaptive(Student student, String subject) {
+        long started = ADMISSION_TIME.start();
+        try {
+            if (!admit()) {
+                REJECTED.increment();
+                return null;
+            }
+            int count = Math.min(ADAPTIVE_QUESTIONS, service.getItemStatistics().table(subject).size());
+            if (count == 0) {
+                seats.release();
+                return null;
+            }
+            STARTED.increment();
+            return start(student, subject, new Question[count], true);
+        } finally {
+            ADMISSION_TIME.stop(started);
+        }
+    }
+
+    private Attempt start(Student student, String subject, Question[] questions, boolean adaptive) {
+        ADMITTED.increment();
+        long limitMillis = millisPerQuestion * questions.length;
+        Attempt attempt = new Attempt(this, student, subject, questions, adaptive, limitMillis);
+        attempt.timeout = deadlines.schedule(attempt, limitMillis, TimeUnit.MILLISECONDS);
+        return attempt;
+    }
+
+    public int getAvailableSeats() { return seats.availablePermits(); }
+    public int getWaiting() { return waiting.get(); }
+
+    // Stops the deadline timer and finishes grading what already expired;
+    // attempts still running are left ungraded
+    @Override
+    public void close() {
+        deadlines.close();
+        grader.shutdown();
+        try {
+            grader.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean admit() {
+        try {
+            // The timed form honours fairness: a free seat goes to threads already waiting
+            if (seats.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            return false;
+        }
+        try {
+            return seats.tryAcquire(admissionWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    // On the wheel thread: hand the batch to the grader and return at once
+    private void onExpired(List<Attempt> attempts) {
+        expired.addAll(attempts);
+        if (grading.compareAndSet(false, true)) {
+            grader.execute(this::gradeExpired);
+        }
+    }
+
+    // Grades queued attempts GRADING_BATCH at a time; at most one runs at a time
+    private void gradeExpired() {
+        do {
+            List<Attempt> batch = new ArrayList<>();
+            List<int[]> answers = new ArrayList<>();
+            Attempt attempt;
+            while ((attempt = expired.poll()) != null) {
+                int[] given = attempt.expire();
+                if (given != null) {
+                    batch.add(attempt);
+                    answers.add(given);
+                }
+                if (batch.size() == GRADING_BATCH) {
+                    grade(batch, answers);
+                    batch.clear();
+                    answers.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                grade(batch, answers);
+            }
+            grading.set(false);
+        } while (!expired.isEmpty() && grading.compareAndSet(false, true));
+    }
+
+    private void grade(List<Attempt> batch, List<int[]> answers) {
+        long started = System.nanoTime();
+        try {
+            List<Student> students = new ArrayList<>(batch.size());
+            List<String> subjects = new ArrayList<>(batch.size());
+            List<Question[]> questions = new ArrayList<>(batch.size());
+            boolean[] adaptive = new boolean[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                Attempt attempt = batch.get(i);
+                students.add(attempt.student);
+                subjects.add(attempt.subject);
+                questions.add(attempt.getQuestions());
+                adaptive[i] = attempt.adaptive;
+            }
+            ManagementService.ExamOutcome[] outcomes = service.submitExams(students, subjects, questions, answers,
+                    adaptive);
+            for (int i = 0; i < outcomes.length; i++) {
+                batch.get(i).outcome = outcomes[i];
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Warning: could not record " + batch.size() + " expired exams: " + e.getMessage());
+        } finally {
+            for (Attempt expiredAttempt : batch) {
+                expiredAttempt.graded.countDown();
+                seats.release();
+            }
+            EXPIRED.add(batch.size());
+            EXPIRED_GRADING_TIME.record(System.nanoTime() - started);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package sms;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Line-oriented network front end for the management system.
+// Every connection gets its own session running the regular console menus
+// (login, course and subject selection, exams) against the shared state.
+// Session output is written asynchronously, so a slow client does not hold
+// up the session thread while it renders a listing.
+// Try it with: nc localhost <port>
+class ExamServer implements Closeable {
+    private static final Metrics.Counter SESSIONS = Metrics.counter("server.sessions");
+
+    private final ManagementService system;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService sessions;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private volatile boolean running = true;
+
+    public ExamServer(ManagementService system, int port) throws IOException {
+        this.system = system;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port), 1024);
+        this.sessions = newSessionExecutor();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    // Accepts connections until closed
+    public void serve() throws IOException {
+        System.out.println("Exam server listening on port " + getPort());
+        while (running) {
+            SocketChannel client;
+            try {
+                client = serverChannel.accept();
+            } catch (IOException e) {
+                if (!running) {
+                    return;
+                }
+                throw e;
+            }
+            sessions.execute(() -> runSession(client));
+        }
+    }
+
+    private void runSession(SocketChannel client) {
+        activeSessions.incrementAndGet();
+        SESSIONS.increment();
+        try (SocketChannel channel = client) {
+            InputStream in = Channels.newInputStream(channel);
+            PrintStream out = new PrintStream(
+                    new AsyncOutputStream(Channels.newOutputStream(channel), sessions), false, "UTF-8");
+            try {
+                new StudentManagementSystem(system, in, out).start();
+            } finally {
+                out.close(); // drains queued output before the channel closes
+            }
+        } catch (NoSuchElementException e) {
+            // Client disconnected mid-prompt
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Session ended with error: " + e.getMessage());
+        } finally {
+            activeSessions.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverChannel.close();
+        sessions.shutdown();
+    }
+
+    // One virtual thread per session when the JDK supports it (21+),
+    // otherwise a cached pool of platform threads
+    static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "exam-session-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package sms;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Per-question difficulty and discrimination, for adaptive exams.
+//
+// Questions follow the two-parameter logistic model: a student of ability t
+// answers a question of difficulty b and discrimination a correctly with
+// probability 1 / (1 + e^(-a(t - b))). Each graded attempt first estimates the
+// student's ability from its answers (maximum a posteriori with a standard
+// normal prior, using the current parameters), then adds to the running sums
+// of every question answered: attempts, correct answers, and the abilities of
+// those who answered it (sum, sum of squares, sum when correct). The sums are
+// atomic counters, so grading threads never wait on each other.
+//
+// From the sums, b is the mean ability of those who answered minus the logit
+// of the smoothed proportion correct, scaled by a, so it stays calibrated when
+// adaptive exams only show a question to students near its difficulty; a is
+// derived from the point-biserial correlation between answering correctly and
+// ability, and stays 1 until the question has MIN_ATTEMPTS attempts.
+//
+// Exams never compute these on the fly. Each subject has an immutable table of
+// its bank sorted by difficulty, published through a volatile field, rebuilt
+// under the subject's monitor after every REBUILD_EVERY recorded answers and
+// whenever the bank is replaced. Choosing the next question is a binary search for the
+// ability plus a scan of WINDOW questions on either side of it, picking at
+// random among the CANDIDATES most informative ones so that no single question
+// is shown to everyone of the same ability.
+//
+// The sums are not persisted: once a subject has questions after a start,
+// they are rebuilt from the subject's attempt history before its first table
+// is built, since telling the right answers apart takes the questions.
+class ItemStatistics {
+    static final int MIN_ATTEMPTS = Integer.getInteger("sms.items.minAttempts", 30);
+    static final int REBUILD_EVERY = Integer.getInteger("sms.items.rebuildEvery", 1000);
+    private static final int WINDOW = 16;
+    private static final int CANDIDATES = 3;
+    private static final double MAX_ABILITY = 4;
+    private static final double SCALE = 1 << 16; // fixed point of the ability sums
+
+    // Sums per question
+    private static final int ATTEMPTS = 0;
+    private static final int CORRECT = 1;
+    private static final int ABILITY = 2;
+    private static final int ABILITY_SQUARED = 3;
+    private static final int ABILITY_CORRECT = 4;
+    private static final int SUMS = 5;
+
+    private static final Metrics.Timer SELECT_TIME = Metrics.timer("items.select");
+    private static final Metrics.Timer REBUILD_TIME = Metrics.timer("items.rebuild");
+
+    private final QuestionBank bank;
+    private final AttemptHistory history;
+    private final ConcurrentHashMap<String, Subject> subjects = new ConcurrentHashMap<>();
+
+    public ItemStatistics(QuestionBank bank, AttemptHistory history) {
+        this.bank = bank;
+        this.history = history;
+    }
+
+    private static final class Subject {
+        final String name;
+        final ConcurrentHashMap<Integer, AtomicLongArray> sums = new ConcurrentHashMap<>();
+        final AtomicLong sinceRebuild = new AtomicLong();
+        final AtomicBoolean rebuilding = new AtomicBoolean();
+        volatile Table table;
+        boolean replayed; // guarded by this
+
+        Subject(String name) {
+            this.name = name;
+        }
+    }
+
+    // Immutable parameters of one subject's bank, sorted by difficulty
+    static final class Table {
+        private final Question[] bank; // the bank it was built from
+        private final Question[] questions;
+        private final double[] difficulty;
+        private final double[] discrimination;
+        private final Map<Integer, Integer> byKey = new HashMap<>();
+
+        private Table(Question[] bank, Question[] questions, double[] difficulty, double[] discrimination) {
+            this.bank = bank;
+            this.questions = questions;
+            this.difficulty = difficulty;
+            this.discrimination = discrimination;
+            for (int i = 0; i < questions.length; i++) {
+                byKey.put(questions[i].getKey(), i);
+            }
+        }
+
+        public int size() { return questions.length; }
+        public Question getQuestion(int i) { return questions[i]; }
+        public double getDifficulty(int i) { return difficulty[i]; }
+        public double getDiscrimination(int i) { return discrimination[i]; }
+
+        // Position of the question with this key, or -1 if it left the bank
+        public int indexOf(int key) {
+            Integer index = byKey.get(key);
+            return index != null ? index : -1;
+        }
+    }
+
+    // The subject's current table, rebuilt first if the bank was replaced
+    public Table table(String subject) {
+        Subject state = subjects.computeIfAbsent(subject, Subject::new);
+        Question[] current = bank.getBank(subject);
+        Table table = state.table;
+        if (table == null || table.bank != current) {
+            synchronized (state) {
+                table = state.table;
+                if (table == null || table.bank != current) {
+                    if (!state.replayed && current != null && current.length > 0) {
+                        state.replayed = true;
+                        replay(state);
+                    }
+                    table = rebuild(state);
+                }
+            }
+        }
+        return table;
+    }
+
+    // The next question for a student of this ability that is not among the
+    // first asked questions; null if every question was asked
+    public Question select(String subject, double ability, Question[] asked, int askedCount) {
+        long started = SELECT_TIME.start();
+        try {
+            Table table = table(subject);
+            int n = table.size();
+            int low = 0;
+            int high = n;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (table.difficulty[mid] < ability) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            Question chosen = select(table, ability, asked, askedCount, Math.max(0, low - WINDOW),
+                    Math.min(n, low + WINDOW));
+            return chosen != null ? chosen : select(table, ability, asked, askedCount, 0, n);
+        } finally {
+            SELECT_TIME.stop(started);
+        }
+    }
+
+    private static Question select(Table table, double ability, Question[] asked, int askedCount,
+                                   int from, int to) {
+        int[] best = new int[CANDIDATES];
+        double[] information = new double[CANDIDATES];
+        int found = 0;
+        for (int i = from; i < to; i++) {
+            if (contains(asked, askedCount, table.questions[i])) {
+                continue;
+            }
+            double a = table.discrimination[i];
+            double p = probability(a, table.difficulty[i], ability);
+            double info = a * a * p * (1 - p);
+            int at;
+            if (found < CANDIDATES) {
+                at = found++;
+            } else if (info > information[CANDIDATES - 1]) {
+                at = CANDIDATES - 1;
+            } else {
+                continue;
+            }
+            while (at > 0 && information[at - 1] < info) {
+                best[at] = best[at - 1];
+                information[at] = information[at - 1];
+                at--;
+            }
+            best[at] = i;
+            information[at] = info;
+        }
+        return found == 0 ? null : table.questions[best[ThreadLocalRandom.current().nextInt(found)]];
+    }
+
+    private static boolean contains(Question[] asked, int count, Question question) {
+        for (int i = 0; i < count; i++) {
+            if (asked[i] == question) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Ability shown by the answers (0-based options; anything else is wrong)
+    public double estimateAbility(String subject, Question[] questions, int[] answers) {
+        Table table = table(subject);
+        double[] a = new double[questions.length];
+        double[] b = new double[questions.length];
+        boolean[] correct = new boolean[questions.length];
+        int n = 0;
+        for (int i = 0; i < questions.length; i++) {
+            int index = table.indexOf(questions[i].getKey());
+            if (index >= 0) {
+                a[n] = table.discrimination[index];
+                b[n] = table.difficulty[index];
+                correct[n++] = i < answers.length && questions[i].isCorrect(answers[i]);
+            }
+        }
+        return estimateAbility(a, b, correct, n);
+    }
+
+    // Newton-Raphson on the log posterior with a standard normal prior
+    static double estimateAbility(double[] a, double[] b, boolean[] correct, int n) {
+        double ability = 0;
+        for (int iteration = 0; iteration < 20; iteration++) {
+            double slope = -ability;
+            double information = 1;
+            for (int i = 0; i < n; i++) {
+                double p = probability(a[i], b[i], ability);
+                slope += a[i] * ((correct[i] ? 1 : 0) - p);
+                information += a[i] * a[i] * p * (1 - p);
+            }
+            double step = slope / information;
+            ability = Math.max(-MAX_ABILITY, Math.min(MAX_ABILITY, ability + step));
+            if (Math.abs(step) < 1e-4) {
+                break;
+            }
+        }
+        return ability;
+    }
+
+    // Expected percentage of the whole bank a student of this ability answers
+    // correctly; the score of an adaptive exam
+    public int score(String subject, double ability) {
+        Table table = table(subject);
+        if (table.size() == 0) {
+            return 0;
+        }
+        double expected = 0;
+        for (int i = 0; i < table.size(); i++) {
+            expected += probability(table.discrimination[i], table.difficulty[i], ability);
+        }
+        return (int) Math.round(100 * expected / table.size());
+    }
+
+    static double probability(double discrimination, double difficulty, double ability) {
+        return 1 / (1 + Math.exp(-discrimination * (ability - difficulty)));
+    }
+
+    // Adds a graded attempt; answers[i] is the option given to questions[i]
+    public void record(String subject, Question[] questions, int[] answers) {
+        if (questions.length == 0) {
+            return;
+        }
+        Table table = table(subject);
+        Subject state = subjects.get(subject);
+        int[] keys = new int[questions.length];
+        boolean[] correct = new boolean[questions.length];
+        for (int i = 0; i < questions.length; i++) {
+            keys[i] = questions[i].getKey();
+            correct[i] = i < answers.length && questions[i].isCorrect(answers[i]);
+        }
+        record(state, table, keys, correct, questions.length);
+    }
+
+    private void record(Subject state, Table table, int[] keys, boolean[] correct, int n) {
+        double[] a = new double[n];
+        double[] b = new double[n];
+        boolean[] known = new boolean[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            int index = table.indexOf(keys[i]);
+            if (index >= 0) {
+                a[m] = table.discrimination[index];
+                b[m] = table.difficulty[index];
+                known[m++] = correct[i];
+            }
+        }
+        double ability = estimateAbility(a, b, known, m);
+        long scaled = Math.round(ability * SCALE);
+        long squared = Math.round(ability * ability * SCALE);
+        for (int i = 0; i < n; i++) {
+            AtomicLongArray sums = state.sums.computeIfAbsent(keys[i], key -> new AtomicLongArray(SUMS));
+            sums.incrementAndGet(ATTEMPTS);
+            sums.addAndGet(ABILITY, scaled);
+            sums.addAndGet(ABILITY_SQUARED, squared);
+            if (correct[i]) {
+                sums.incrementAndGet(CORRECT);
+                sums.addAndGet(ABILITY_CORRECT, scaled);
+            }
+        }
+        // One recorder rebuilds, under the monitor table() rebuilds under, so a
+        // slower rebuild never publishes its table over a newer one
+        if (state.sinceRebuild.addAndGet(n) >= REBUILD_EVERY && state.rebuilding.compareAndSet(false, true)) {
+            try {
+                state.sinceRebuild.set(0);
+                synchronized (state) {
+                    rebuild(state);
+                }
+            } finally {
+                state.rebuilding.set(false);
+            }
+        }
+    }
+
+    // Adds the subject's recorded attempts. Attempts are recorded here before
+    // they enter the history, and none can be recorded before the replay, so
+    // none is counted twice.
+    private void replay(Subject state) {
+        Table table = rebuild(state);
+        int[][] keys = {new int[16]};
+        boolean[][] correct = {new boolean[16]};
+        history.query(state.name, Long.MIN_VALUE, Long.MAX_VALUE, event -> {
+            int n = event.getQuestionCount();
+            if (n == 0) {
+                return;
+            }
+            if (keys[0].length < n) {
+                keys[0] = new int[Math.max(n, keys[0].length * 2)];
+                correct[0] = new boolean[keys[0].length];
+            }
+            for (int i = 0; i < n; i++) {
+                keys[0][i] = event.getQuestionKey(i);
+                int index = table.indexOf(keys[0][i]);
+                correct[0][i] = index >= 0 && table.questions[index].isCorrect(event.getAnswer(i));
+            }
+            record(state, state.table, keys[0], correct[0], n);
+        });
+    }
+
+    // Derives every question's parameters from its sums and publishes the
+    // table; callers hold the subject's monitor
+    private Table rebuild(Subject state) {
+        long started = REBUILD_TIME.start();
+        Question[] current = bank.getBank(state.name);
+        if (current == null || current.length == 0) {
+            Table empty = new Table(current, new Question[0], new double[0], new double[0]);
+            state.table = empty;
+            REBUILD_TIME.stop(started);
+            return empty;
+        }
+        int n = current.length;
+        double[] difficulty = new double[n];
+        double[] discrimination = new double[n];
+        for (int i = 0; i < n; i++) {
+            AtomicLongArray sums = state.sums.get(current[i].getKey());
+            long attempts = sums != null ? sums.get(ATTEMPTS) : 0;
+            long correct = sums != null ? sums.get(CORRECT) : 0;
+            double a = 1;
+            double meanAbility = 0;
+            if (attempts > 0) {
+                meanAbility = sums.get(ABILITY) / SCALE / attempts;
+                if (attempts >= MIN_ATTEMPTS && correct > 0 && correct < attempts) {
+                    a = discrimination(attempts, correct, sums.get(ABILITY) / SCALE,
+                            sums.get(ABILITY_SQUARED) / SCALE, sums.get(ABILITY_CORRECT) / SCALE);
+                }
+            }
+            double p = (correct + 0.5) / (attempts + 1);
+            discrimination[i] = a;
+            difficulty[i] = meanAbility - Math.log(p / (1 - p)) / a;
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> Double.compare(difficulty[x], difficulty[y]));
+        Question[] questions = new Question[n];
+        double[] sortedDifficulty = new double[n];
+        double[] sortedDiscrimination = new double[n];
+        for (int i = 0; i < n; i++) {
+            questions[i] = current[order[i]];
+            sortedDifficulty[i] = difficulty[order[i]];
+            sortedDiscrimination[i] = discrimination[order[i]];
+        }
+        Table table = new Table(current, questions, sortedDifficulty, sortedDiscrimination);
+        state.table = table;
+        REBUILD_TIME.stop(started);
+        return table;
+    }
+
+    // Logistic slope from the point-biserial correlation of answering
+    // correctly with ability, kept within 0.2 to 3
+    private static double discrimination(long attempts, long correct, double sum, double sumOfSquares,
+                                         double sumCorrect) {
+        double mean = sum / attempts;
+        double variance = sumOfSquares / attempts - mean * mean;
+        if (variance <= 1e-9) {
+            return 1;
+        }
+        double p = (double) correct / attempts;
+        double meanCorrect = sumCorrect / correct;
+        double meanWrong = (sum - sumCorrect) / (attempts - correct);
+        double r = (meanCorrect - meanWrong) / Math.sqrt(variance) * Math.sqrt(p * (1 - p));
+        r = Math.max(-0.95, Math.min(0.95, r));
+        return Math.max(0.2, Math.min(3, 1.7 * r / Math.sqrt(1 - r * r)));
+    }
+}
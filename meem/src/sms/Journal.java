@@ -0,0 +1,725 @@
+package sms;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// Append-only write-ahead log for the management system.
+//
+// Every mutation is encoded as a checksummed record ([length][crc32][payload])
+// and appended to the current log segment. A single flusher thread writes
+// whatever has accumulated and issues one fsync for the whole batch, so
+// concurrent callers share the cost of each force (group commit).
+//
+// Compaction rolls to a fresh segment, writes the full state as a binary
+// SnapshotFile and deletes the segments it covers. It is due once the log holds
+// as many records as the last snapshot (and at least the configured interval),
+// which keeps the total compaction work linear in the input. All records are
+// idempotent (duplicates are ignored, results are last-write-wins), so
+// mutations that land in the new segment while the snapshot is being taken
+// replay safely.
+//
+// A tap sees every batch once it is durable, in log order and in the framed
+// format above, so the log can be shipped to replicas (see ShardNode), which
+// apply it with apply() and keep it with appendShipped().
+class Journal implements Closeable {
+
+    // Receives decoded records during recovery, and encodes state for snapshots
+    interface Handler {
+        void addCourse(String courseName);
+        void addSubject(String courseName, String subject);
+        void registerStudent(String name, String email, int age);
+        void selectCourse(String email, String courseName);
+        void selectSubject(String email, String subject);
+        void examResult(String email, String subject, int score);
+        void setCapacity(String courseName, int capacity);
+        void replaceQuestions(String subject, List<Question> questions);
+        void addQuestions(String subject, List<Question> questions);
+    }
+
+    // Recovery target: receives the memory-mapped snapshot, then the newer records
+    interface Recovery extends Handler {
+        void restore(SnapshotFile snapshot);
+    }
+
+    // Records encoded ahead of appending them, so a record that cannot be
+    // journaled is rejected before the caller changes its state
+    static final class Prepared {
+        private final ByteArrayOutputStream bytes;
+        private final int records;
+
+        private Prepared(ByteArrayOutputStream bytes, int records) {
+            this.bytes = bytes;
+            this.records = records;
+        }
+    }
+
+    // Receives each batch of framed records once it is durable. Called by the
+    // flushing thread in log order, so it must hand the bytes off, not block.
+    interface Tap {
+        void durable(byte[] frames);
+    }
+
+    private static final byte ADD_COURSE = 1;
+    private static final byte ADD_SUBJECT = 2;
+    private static final byte REGISTER_STUDENT = 3;
+    private static final byte SELECT_COURSE = 4;
+    private static final byte SELECT_SUBJECT = 5;
+    private static final byte EXAM_RESULT = 6;
+    private static final byte SET_CAPACITY = 7;
+    private static final byte QUESTIONS_REPLACED = 8;
+    private static final byte QUESTIONS_ADDED = 9;
+
+    // Longer records are taken for corruption on replay; a bank is split into
+    // records of about QUESTION_RECORD_BYTES, all but the first appending
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final int QUESTION_RECORD_BYTES = 1 << 18;
+
+    private static final String SNAPSHOT_FILE = "snapshot.dat";
+    private static final int DEFAULT_SNAPSHOT_INTERVAL = 10_000;
+
+    private static final Metrics.Timer SYNC_TIME = Metrics.timer("journal.sync");
+    private static final Metrics.Counter SYNC_BYTES = Metrics.counter("journal.bytesSynced");
+    private static final Metrics.Timer SNAPSHOT_TIME = Metrics.timer("journal.snapshot");
+
+    private final Path directory;
+    private final int snapshotInterval;
+    private final Object lock = new Object();
+    private final Object ioLock = new Object();
+    private final Object snapshotLock = new Object();
+    private final Thread flusher;
+
+    // Guarded by lock
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private long appendedSeq;
+    private long durableSeq;
+    private long recordsSinceSnapshot;
+    private long snapshotThreshold;
+    private IOException failure;
+    private boolean closed;
+
+    // Guarded by ioLock
+    private FileChannel channel;
+    private long segment;
+
+    private boolean recovered;
+    private volatile Tap tap;
+
+    private Journal(Path directory, int snapshotInterval) {
+        this.directory = directory;
+        this.snapshotInterval = snapshotInterval;
+        this.snapshotThreshold = snapshotInterval;
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    // Opens the journal in the given directory, replaying any existing state
+    // into the handler before accepting new records
+    static Journal open(Path directory, Recovery recovery) throws IOException {
+        return open(directory, recovery, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    static Journal open(Path directory, Recovery recovery, int snapshotInterval) throws IOException {
+        Files.createDirectories(directory);
+        Journal journal = new Journal(directory, snapshotInterval);
+        long lastSegment = journal.recover(recovery);
+        journal.segment = lastSegment + 1;
+        journal.channel = openSegment(journal.segmentPath(journal.segment));
+        journal.flusher.start();
+        return journal;
+    }
+
+    // True when no prior state was recovered, so callers can seed default data
+    public boolean isEmpty() {
+        return !recovered;
+    }
+
+    public void addCourse(String courseName) {
+        append(ADD_COURSE, courseName, null, 0);
+    }
+
+    public void addSubject(String courseName, String subject) {
+        append(ADD_SUBJECT, courseName, subject, 0);
+    }
+
+    public void registerStudent(String name, String email, int age) {
+        append(REGISTER_STUDENT, name, email, age);
+    }
+
+    public void selectCourse(String email, String courseName) {
+        append(SELECT_COURSE, email, courseName, 0);
+    }
+
+    public void selectSubject(String email, String subject) {
+        append(SELECT_SUBJECT, email, subject, 0);
+    }
+
+    public void examResult(String email, String subject, int score) {
+        append(EXAM_RESULT, email, subject, score);
+    }
+
+    // Queues the record without waiting for it to become durable, so callers
+    // can order it with the in-memory change under their own lock; returns
+    // the sequence to pass to awaitDurable
+    public long queueExamResult(String email, String subject, int score) {
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(64);
+        frame(framed, encode(EXAM_RESULT, email, subject, score), new CRC32());
+        return enqueue(framed, 1, false);
+    }
+
+    // Blocks until every record up to the sequence is durable
+    public void awaitDurable(long seq) {
+        synchronized (lock) {
+            lock.notifyAll(); // queued records may not have woken the flusher
+            boolean interrupted = false;
+            while (durableSeq < seq && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Journal write failed", failure);
+            }
+        }
+    }
+
+    public void setCapacity(String courseName, int capacity) {
+        append(SET_CAPACITY, courseName, null, capacity);
+    }
+
+    // Appends records shipped from another journal, already framed
+    public void appendShipped(byte[] frames, int records) {
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(frames.length);
+        framed.write(frames, 0, frames.length);
+        appendFramed(framed, records);
+    }
+
+    public void setTap(Tap tap) {
+        this.tap = tap;
+    }
+
+    // Appends all records emitted by the writer as one batch with a single sync
+    public void batch(java.util.function.Consumer<Handler> writer) {
+        FrameCollector collector = new FrameCollector();
+        writer.accept(collector);
+        if (collector.records > 0) {
+            appendFramed(collector.bytes, collector.records);
+        }
+    }
+
+    // Encodes the records emitted by the writer for a later append; throws
+    // IllegalArgumentException if a question is too large for one record
+    public Prepared prepare(java.util.function.Consumer<Handler> writer) {
+        FrameCollector collector = new FrameCollector();
+        writer.accept(collector);
+        return new Prepared(collector.bytes, collector.records);
+    }
+
+    // Appends prepared records as one batch with a single sync
+    public void append(Prepared prepared) {
+        if (prepared.records > 0) {
+            appendFramed(prepared.bytes, prepared.records);
+        }
+    }
+
+    public boolean isSnapshotDue() {
+        synchronized (lock) {
+            return recordsSinceSnapshot >= snapshotThreshold;
+        }
+    }
+
+    // Snapshots unless another caller already compacted since the check
+    public void snapshotIfDue(java.util.function.Consumer<Handler> dumper) throws IOException {
+        synchronized (snapshotLock) {
+            if (isSnapshotDue()) {
+                snapshot(dumper);
+            }
+        }
+    }
+
+    // Writes a compacted snapshot of the state emitted by the dumper and drops
+    // the log segments it supersedes
+    public void snapshot(java.util.function.Consumer<Handler> dumper) throws IOException {
+        synchronized (snapshotLock) {
+            writeSnapshot(dumper);
+        }
+    }
+
+    private void writeSnapshot(java.util.function.Consumer<Handler> dumper) throws IOException {
+        long started = SNAPSHOT_TIME.start();
+        long covered;
+        synchronized (ioLock) {
+            drainAndForce();
+            channel.close();
+            covered = segment;
+            segment++;
+            channel = openSegment(segmentPath(segment));
+        }
+        synchronized (lock) {
+            recordsSinceSnapshot = 0;
+        }
+
+        // Readers may still have the previous snapshot mapped; replacing the
+        // file by rename leaves their mapping intact
+        Path tmp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        long snapshotRecords;
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(tmp, covered)) {
+            dumper.accept(writer);
+            snapshotRecords = writer.getRecordCount();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        synchronized (lock) {
+            snapshotThreshold = Math.max(snapshotInterval, snapshotRecords);
+        }
+        Files.move(tmp, directory.resolve(SNAPSHOT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (long old : listSegments()) {
+            if (old <= covered) {
+                Files.deleteIfExists(segmentPath(old));
+            }
+        }
+        SNAPSHOT_TIME.stop(started);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (ioLock) {
+            drainAndForce();
+            channel.close();
+        }
+    }
+
+    // Appends a record and blocks until the batch containing it is durable
+    private void append(byte type, String first, String second, int number) {
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(64);
+        frame(framed, encode(type, first, second, number), new CRC32());
+        appendFramed(framed, 1);
+    }
+
+    private void appendFramed(ByteArrayOutputStream framed, int records) {
+        awaitDurable(enqueue(framed, records, true));
+    }
+
+    private long enqueue(ByteArrayOutputStream framed, int records, boolean wake) {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            try {
+                framed.writeTo(pending);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            recordsSinceSnapshot += records;
+            if (wake) {
+                lock.notifyAll();
+            }
+            return ++appendedSeq;
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            synchronized (lock) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            synchronized (ioLock) {
+                drainAndForce();
+            }
+        }
+    }
+
+    // Must hold ioLock: writes everything pending with a single force
+    private void drainAndForce() {
+        ByteArrayOutputStream batch;
+        long batchSeq;
+        synchronized (lock) {
+            if (pending.size() == 0) {
+                return;
+            }
+            batch = pending;
+            batchSeq = appendedSeq;
+            pending = new ByteArrayOutputStream(Math.max(64 * 1024, batch.size()));
+        }
+        IOException error = null;
+        long started = SYNC_TIME.start();
+        byte[] frames = batch.toByteArray();
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(frames);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            SYNC_TIME.stop(started);
+            SYNC_BYTES.add(batch.size());
+        } catch (IOException e) {
+            error = e;
+        }
+        Tap target = tap;
+        if (error == null && target != null) {
+            target.durable(frames);
+        }
+        synchronized (lock) {
+            if (error != null) {
+                failure = error;
+            } else {
+                durableSeq = batchSeq;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private long recover(Recovery recovery) throws IOException {
+        long covered = 0;
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            SnapshotFile file = SnapshotFile.open(snapshot);
+            covered = file.getCoveredSegment();
+            // Same pacing as after writeSnapshot; older snapshots only know their student count
+            long records = file.getRecordCount() >= 0 ? file.getRecordCount() : file.getStudentCount();
+            snapshotThreshold = Math.max(snapshotInterval, records);
+            recovery.restore(file);
+            recovered = true;
+        }
+
+        long last = covered;
+        for (long seg : listSegments()) {
+            if (seg <= covered) {
+                continue;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(segmentPath(seg)), 1 << 16))) {
+                recovered |= replay(in, recovery, segmentPath(seg));
+            }
+            last = seg;
+        }
+        return last;
+    }
+
+    // Replays framed records, stopping at the first torn or corrupt one.
+    // Returns true if at least one record was applied.
+    private static boolean replay(DataInputStream in, Handler handler, Path source) throws IOException {
+        CRC32 crc = new CRC32();
+        boolean applied = false;
+        while (true) {
+            int length;
+            int checksum;
+            byte[] payload;
+            try {
+                length = in.readInt();
+                checksum = in.readInt();
+                if (length < 0 || length > MAX_RECORD_BYTES) {
+                    System.err.println("Journal: corrupt record length in " + source + ", ignoring tail");
+                    return applied;
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+            } catch (EOFException e) {
+                return applied;
+            }
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            if ((int) crc.getValue() != checksum) {
+                System.err.println("Journal: checksum mismatch in " + source + ", ignoring tail");
+                return applied;
+            }
+            decode(payload, handler);
+            applied = true;
+        }
+    }
+
+    // Applies a batch of framed records as passed to a Tap and returns how many
+    // it held. Unlike recovery, a damaged record fails the whole call.
+    static int apply(byte[] frames, Handler handler) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.wrap(frames);
+        int records = 0;
+        while (buffer.hasRemaining()) {
+            if (buffer.remaining() < 8) {
+                throw new IOException("Truncated shipped record");
+            }
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException("Corrupt shipped record length: " + length);
+            }
+            crc.reset();
+            crc.update(frames, buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Checksum mismatch in shipped record");
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            decode(payload, handler);
+            records++;
+        }
+        return records;
+    }
+
+    // Frames the records emitted by the writer in the format a Tap receives,
+    // handing them to the sink in chunks of about chunkBytes
+    static void encode(java.util.function.Consumer<Handler> writer, int chunkBytes,
+                       java.util.function.Consumer<byte[]> sink) {
+        FrameCollector collector = new FrameCollector(chunkBytes, sink);
+        writer.accept(collector);
+        collector.flush();
+    }
+
+    private static void decode(byte[] payload, Handler handler) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        switch (type) {
+            case ADD_COURSE:
+                handler.addCourse(in.readUTF());
+                break;
+            case ADD_SUBJECT:
+                handler.addSubject(in.readUTF(), in.readUTF());
+                break;
+            case REGISTER_STUDENT:
+                handler.registerStudent(in.readUTF(), in.readUTF(), in.readInt());
+                break;
+            case SELECT_COURSE:
+                handler.selectCourse(in.readUTF(), in.readUTF());
+                break;
+            case SELECT_SUBJECT:
+                handler.selectSubject(in.readUTF(), in.readUTF());
+                break;
+            case EXAM_RESULT:
+                handler.examResult(in.readUTF(), in.readUTF(), in.readInt());
+                break;
+            case SET_CAPACITY:
+                handler.setCapacity(in.readUTF(), in.readInt());
+                break;
+            case QUESTIONS_REPLACED:
+            case QUESTIONS_ADDED: {
+                String subject = in.readUTF();
+                int count = in.readInt();
+                List<Question> questions = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    String text = in.readUTF();
+                    String[] options = new String[in.readByte()];
+                    for (int j = 0; j < options.length; j++) {
+                        options[j] = in.readUTF();
+                    }
+                    questions.add(new Question(text, options, in.readByte()));
+                }
+                if (type == QUESTIONS_REPLACED) {
+                    handler.replaceQuestions(subject, questions);
+                } else {
+                    handler.addQuestions(subject, questions);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown journal record type: " + type);
+        }
+    }
+
+    private static byte[] encode(byte type, String first, String second, int number) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            out.writeUTF(first);
+            if (second != null) {
+                out.writeUTF(second);
+            }
+            if (type == REGISTER_STUDENT || type == EXAM_RESULT || type == SET_CAPACITY) {
+                out.writeInt(number);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Throws IllegalArgumentException unless the text fits writeUTF's 65535
+    // bytes; returns the bytes it takes there
+    static int checkText(String key, String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            length += c >= 0x01 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+        }
+        if (length > 0xFFFF) {
+            throw new IllegalArgumentException(key + " longer than 65535 bytes");
+        }
+        return 2 + length;
+    }
+
+    // Throws IllegalArgumentException unless the question can be journaled
+    // for this subject, alone in a record of at most MAX_RECORD_BYTES
+    static void checkQuestion(String subject, Question question) {
+        long size = 1 + checkText("subject", subject) + 4 + checkText("question", question.getQuestion()) + 2;
+        for (int i = 0; i < question.getOptionCount(); i++) {
+            size += checkText("option", question.getOption(i));
+        }
+        if (size > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("question too large to journal");
+        }
+    }
+
+    // Splits a bank into records of about QUESTION_RECORD_BYTES; the first has
+    // the given type and the rest append, so an empty bank is still one record
+    private static List<byte[]> encodeQuestions(byte type, String subject, List<Question> questions) {
+        List<byte[]> payloads = new ArrayList<>();
+        int next = 0;
+        do {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+            int count = 0;
+            try (DataOutputStream out = new DataOutputStream(body)) {
+                while (next < questions.size() && (count == 0 || body.size() < QUESTION_RECORD_BYTES)) {
+                    Question question = questions.get(next++);
+                    out.writeUTF(question.getQuestion());
+                    out.writeByte(question.getOptionCount());
+                    for (int i = 0; i < question.getOptionCount(); i++) {
+                        out.writeUTF(question.getOption(i));
+                    }
+                    out.writeByte(question.getCorrectAnswer());
+                    count++;
+                }
+                DataOutputStream record = new DataOutputStream(bytes);
+                record.writeByte(payloads.isEmpty() ? type : QUESTIONS_ADDED);
+                record.writeUTF(subject);
+                record.writeInt(count);
+                body.writeTo(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (bytes.size() > MAX_RECORD_BYTES) {
+                throw new IllegalArgumentException("question too large to journal");
+            }
+            payloads.add(bytes.toByteArray());
+        } while (next < questions.size());
+        return payloads;
+    }
+
+    private static void frame(ByteArrayOutputStream out, byte[] payload, CRC32 crc) {
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        writeInt(out, payload.length);
+        writeInt(out, (int) crc.getValue());
+        out.write(payload, 0, payload.length);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static FileChannel openSegment(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private Path segmentPath(long seg) {
+        return directory.resolve(String.format("journal-%016d.log", seg));
+    }
+
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal-*.log")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(8, name.length() - 4)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    // Encodes records into one contiguous buffer for a batch append, or into
+    // chunks passed on to a sink once they reach the given size
+    private static class FrameCollector implements Handler {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        private final CRC32 crc = new CRC32();
+        private final int chunkBytes;
+        private final java.util.function.Consumer<byte[]> sink;
+        private int records;
+
+        FrameCollector() {
+            this(Integer.MAX_VALUE, null);
+        }
+
+        FrameCollector(int chunkBytes, java.util.function.Consumer<byte[]> sink) {
+            this.chunkBytes = chunkBytes;
+            this.sink = sink;
+        }
+
+        public void addCourse(String courseName) { add(ADD_COURSE, courseName, null, 0); }
+        public void addSubject(String courseName, String subject) { add(ADD_SUBJECT, courseName, subject, 0); }
+        public void registerStudent(String name, String email, int age) { add(REGISTER_STUDENT, name, email, age); }
+        public void selectCourse(String email, String courseName) { add(SELECT_COURSE, email, courseName, 0); }
+        public void selectSubject(String email, String subject) { add(SELECT_SUBJECT, email, subject, 0); }
+        public void examResult(String email, String subject, int score) { add(EXAM_RESULT, email, subject, score); }
+        public void setCapacity(String courseName, int capacity) { add(SET_CAPACITY, courseName, null, capacity); }
+
+        public void replaceQuestions(String subject, List<Question> questions) {
+            addQuestions(QUESTIONS_REPLACED, subject, questions);
+        }
+
+        public void addQuestions(String subject, List<Question> questions) {
+            addQuestions(QUESTIONS_ADDED, subject, questions);
+        }
+
+        private void addQuestions(byte type, String subject, List<Question> questions) {
+            for (byte[] payload : encodeQuestions(type, subject, questions)) {
+                add(payload);
+            }
+        }
+
+        private void add(byte type, String first, String second, int number) {
+            add(encode(type, first, second, number));
+        }
+
+        private void add(byte[] payload) {
+            frame(bytes, payload, crc);
+            records++;
+            if (bytes.size() >= chunkBytes) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (bytes.size() > 0) {
+                sink.accept(bytes.toByteArray());
+                bytes.reset();
+            }
+        }
+    }
+}
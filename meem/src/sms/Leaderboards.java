@@ -0,0 +1,291 @@
+package sms;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Per-subject rankings over the 0-100 score range.
+//
+// Each subject keeps one bucket per possible score: an atomic count and the
+// set of student ids currently holding that score. Because the range is fixed,
+// rank and percentile queries sum at most 101 counts (constant time) and read
+// the counts without locking, while top-K walks buckets from 100 down and
+// stops after K students. Updates move a student between two buckets.
+//
+// The member sets of a subject are split over stripes by student id, each
+// under its own monitor, so concurrent results for one subject rarely contend;
+// a student's buckets are always in the same stripe, so a move is atomic.
+class Leaderboards implements ResultStore.ResultListener {
+    static final int SCORES = 101;
+    private static final int STRIPES = 16;
+
+    private final ResultStore results;
+    private final ConcurrentHashMap<Integer, Board> bySubject = new ConcurrentHashMap<>();
+
+    public Leaderboards(ResultStore results) {
+        this.results = results;
+    }
+
+    // A ranked entry: student id and score
+    static class Entry {
+        private final int studentId;
+        private final int score;
+
+        Entry(int studentId, int score) {
+            this.studentId = studentId;
+            this.score = score;
+        }
+
+        public int getStudentId() { return studentId; }
+        public int getScore() { return score; }
+    }
+
+    private static class Board {
+        final AtomicLongArray counts = new AtomicLongArray(SCORES);
+        final Stripe[] stripes = new Stripe[STRIPES];
+
+        Board() {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new Stripe();
+            }
+        }
+
+        void move(int studentId, int previousScore, int score) {
+            Stripe stripe = stripes[studentId & (STRIPES - 1)];
+            synchronized (stripe) {
+                IntHashSet[] members = stripe.members;
+                if (previousScore >= 0 && members[previousScore] != null
+                        && members[previousScore].remove(studentId)) {
+                    counts.decrementAndGet(previousScore);
+                }
+                if (members[score] == null) {
+                    members[score] = new IntHashSet();
+                }
+                if (members[score].add(studentId)) {
+                    counts.incrementAndGet(score);
+                }
+            }
+        }
+
+        long total() {
+            long total = 0;
+            for (int s = 0; s < SCORES; s++) {
+                total += counts.get(s);
+            }
+            return total;
+        }
+
+        long above(int score) {
+            long above = 0;
+            for (int s = score + 1; s < SCORES; s++) {
+                above += counts.get(s);
+            }
+            return above;
+        }
+    }
+
+    // Student ids by score for the students of one stripe
+    private static class Stripe {
+        final IntHashSet[] members = new IntHashSet[SCORES]; // guarded by this
+    }
+
+    @Override
+    public void onResult(int studentId, int subjectId, int previousScore, int score) {
+        board(subjectId).move(studentId, previousScore, score);
+    }
+
+    // Highest scores first; ties within a score come in no particular order
+    public List<Entry> top(String subject, int k) {
+        Board board = find(subject);
+        List<Entry> top = new ArrayList<>(Math.min(k, 64));
+        if (board == null) {
+            return top;
+        }
+        for (int s = SCORES - 1; s >= 0 && top.size() < k; s--) {
+            if (board.counts.get(s) == 0) {
+                continue;
+            }
+            int score = s;
+            for (int i = 0; i < STRIPES && top.size() < k; i++) {
+                Stripe stripe = board.stripes[i];
+                synchronized (stripe) {
+                    IntHashSet bucket = stripe.members[s];
+                    if (bucket != null) {
+                        bucket.forEachWhile(id -> {
+                            top.add(new Entry(id, score));
+                            return top.size() < k;
+                        });
+                    }
+                }
+            }
+        }
+        return top;
+    }
+
+    // 1-based competition rank (ties share a rank), or -1 if the student has no result
+    public long rankOf(int studentId, String subject) {
+        int score = scoreOf(studentId, subject);
+        Board board = find(subject);
+        if (score < 0 || board == null) {
+            return -1;
+        }
+        return board.above(score) + 1;
+    }
+
+    // Share of students scoring below this student, counting ties as half
+    // (percentile rank, 0-100), or -1 if the student has no result
+    public double percentileOf(int studentId, String subject) {
+        int score = scoreOf(studentId, subject);
+        Board board = find(subject);
+        if (score < 0 || board == null) {
+            return -1;
+        }
+        long total = board.total();
+        long below = total - board.above(score) - board.counts.get(score);
+        return total == 0 ? -1 : 100.0 * (below + 0.5 * board.counts.get(score)) / total;
+    }
+
+    // Score at the given percentile: the lowest score that at least
+    // percentile% of students reached or fell below
+    public int scoreAtPercentile(String subject, double percentile) {
+        Board board = find(subject);
+        if (board == null) {
+            return -1;
+        }
+        long total = board.total();
+        long target = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int s = 0; s < SCORES; s++) {
+            seen += board.counts.get(s);
+            if (seen >= target && seen > 0) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    public long participants(String subject) {
+        Board board = find(subject);
+        return board == null ? 0 : board.total();
+    }
+
+    // Seeds one score bucket from a snapshot
+    public void restore(String subject, int score, int[] studentIds) {
+        Board board = board(results.getSubjects().idOf(subject));
+        for (int id : studentIds) {
+            board.move(id, -1, score);
+        }
+    }
+
+    private int scoreOf(int studentId, String subject) {
+        int subjectId = results.getSubjects().find(subject);
+        return subjectId < 0 ? -1 : results.get(studentId, subjectId);
+    }
+
+    private Board find(String subject) {
+        int subjectId = results.getSubjects().find(subject);
+        return subjectId < 0 ? null : bySubject.get(subjectId);
+    }
+
+    private Board board(int subjectId) {
+        return bySubject.computeIfAbsent(subjectId, id -> new Board());
+    }
+
+    // Open-addressing set of non-negative ints with backward-shift deletion
+    static class IntHashSet {
+        private static final int EMPTY = -1;
+
+        private int[] slots = newSlots(8);
+        private int size;
+
+        // Returns false to stop the iteration
+        interface IntVisitor {
+            boolean visit(int value);
+        }
+
+        boolean add(int value) {
+            if ((size + 1) * 2 > slots.length) {
+                rehash(slots.length * 2);
+            }
+            int mask = slots.length - 1;
+            for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+                if (slots[i] == value) {
+                    return false;
+                }
+                if (slots[i] == EMPTY) {
+                    slots[i] = value;
+                    size++;
+                    return true;
+                }
+            }
+        }
+
+        boolean remove(int value) {
+            int mask = slots.length - 1;
+            int i = mix(value) & mask;
+            while (slots[i] != value) {
+                if (slots[i] == EMPTY) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            // Shift later entries of the probe chain back into the gap
+            int gap = i;
+            for (int j = (gap + 1) & mask; slots[j] != EMPTY; j = (j + 1) & mask) {
+                int home = mix(slots[j]) & mask;
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    slots[gap] = slots[j];
+                    gap = j;
+                }
+            }
+            slots[gap] = EMPTY;
+            size--;
+            return true;
+        }
+
+        int size() { return size; }
+
+        // Visits members until the visitor returns false; returns false if it stopped early
+        boolean forEachWhile(IntVisitor visitor) {
+            for (int slot : slots) {
+                if (slot != EMPTY && !visitor.visit(slot)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int[] toArray() {
+            int[] values = new int[size];
+            int n = 0;
+            for (int slot : slots) {
+                if (slot != EMPTY) {
+                    values[n++] = slot;
+                }
+            }
+            return values;
+        }
+
+        private void rehash(int capacity) {
+            int[] old = slots;
+            slots = newSlots(capacity);
+            size = 0;
+            for (int value : old) {
+                if (value != EMPTY) {
+                    add(value);
+                }
+            }
+        }
+
+        private static int mix(int value) {
+            int h = value * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private static int[] newSlots(int capacity) {
+            int[] slots = new int[capacity];
+            Arrays.fill(slots, EMPTY);
+            return slots;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package sms;
+
+import java.io.IOException;
+
+// Main class
+public class Main {
+    // Usage: java sms.Main [--serve <port>] [data-directory]
+    // With a data directory, all changes are journaled and recovered on restart.
+    // Metrics are readable from the admin menu and over JMX (sms:type=Metrics).
+    // With --serve, sessions are accepted over TCP instead of the local console.
+    // Shard node:  Main --shard <index>/<count> --serve <port> [--follow <host:port>,...] <dataDir>
+    //              (--follow lists the shard's other replicas; the node follows whichever leads)
+    // Front end:   Main --route <spec> [--serve <port>]   (spec as in ShardRouter)
+    public static void main(String[] args) throws IOException {
+        int port = -1;
+        String dataDirectory = null;
+        String shard = null;
+        String follow = null;
+        String route = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--serve") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--shard") && i + 1 < args.length) {
+                shard = args[++i];
+            } else if (args[i].equals("--follow") && i + 1 < args.length) {
+                follow = args[++i];
+            } else if (args[i].equals("--route") && i + 1 < args.length) {
+                route = args[++i];
+            } else {
+                dataDirectory = args[i];
+            }
+        }
+
+        Metrics.registerMBean();
+        if (shard != null) {
+            if (dataDirectory == null || port < 0) {
+                System.err.println("A shard node needs --serve <port> and a data directory");
+                return;
+            }
+            String[] position = shard.split("/");
+            try (ManagementService service = new ManagementService(java.nio.file.Paths.get(dataDirectory));
+                 ShardNode node = new ShardNode(service, Integer.parseInt(position[0]),
+                         Integer.parseInt(position[1]), port,
+                         follow != null ? ShardRouter.parseReplicas(follow)
+                                 : java.util.Collections.<java.net.InetSocketAddress>emptyList())) {
+                node.serve();
+            }
+            return;
+        }
+        if (route != null && dataDirectory != null) {
+            System.err.println("A routed front end keeps its students on the shards, not in a data directory");
+            return;
+        }
+
+        try (ManagementService service = route != null
+                ? new ManagementService(ShardRouter.parse(route))
+                : dataDirectory != null
+                ? new ManagementService(java.nio.file.Paths.get(dataDirectory))
+                : new ManagementService()) {
+            if (port >= 0) {
+                try (ExamServer server = new ExamServer(service, port)) {
+                    server.serve();
+                }
+            } else {
+                new StudentManagementSystem(service).start();
+            }
+        }
+    }
+}
@@ -0,0 +1,878 @@
+package sms;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+
+// Headless service layer of the management system.
+//
+// Owns the shared state (course list, seat allocation, student registry,
+// question bank, question statistics, result statistics, leaderboards, attempt
+// history and the optional journal) and exposes every operation as a plain
+// method that reports its outcome through the return value instead of printing.
+// The console menus, network sessions, bulk importer, batch grader and
+// benchmarks are all clients of one instance. Methods are safe to call from
+// many threads.
+//
+// With a ShardRouter the service is a front end to a sharded registry:
+// registrations, logins and results go to the shard that owns the student,
+// and the front end keeps the students it has seen (with their course and
+// subject selections, in memory only) so its sessions work as before.
+class ManagementService implements Closeable {
+    static final String ADMIN_PASSWORD = "admin";
+    static final int EXAM_QUESTIONS = 5;
+    static final String HISTORY_FILE = "attempts.log";
+    private static final Question[] NO_QUESTIONS = new Question[0];
+    private static final int[] NO_ANSWERS = new int[0];
+
+    private static final Metrics.Counter REGISTRATIONS = Metrics.counter("students.registered");
+    private static final Metrics.Counter LOGINS = Metrics.counter("students.logins");
+    private static final Metrics.Counter FAILED_LOGINS = Metrics.counter("students.loginsFailed");
+    private static final Metrics.Counter EXAMS_STARTED = Metrics.counter("exams.started");
+    private static final Metrics.Counter EXAMS_FINISHED = Metrics.counter("exams.finished");
+    private static final Metrics.Counter RESULTS_RECORDED = Metrics.counter("results.recorded");
+    private static final Metrics.Counter RESULTS_NOT_SAVED = Metrics.counter("results.notSaved");
+    private static final Metrics.Timer REGISTER_TIME = Metrics.timer("students.register");
+    private static final Metrics.Timer LOGIN_TIME = Metrics.timer("students.login");
+    private static final Metrics.Timer SEARCH_TIME = Metrics.timer("students.search");
+    private static final Metrics.Timer CHOOSE_SUBJECTS_TIME = Metrics.timer("subjects.choose");
+    private static final Metrics.Timer DRAW_TIME = Metrics.timer("exams.draw");
+    private static final Metrics.Timer SUBMIT_TIME = Metrics.timer("exams.submit");
+    private static final Metrics.Timer RECORD_TIME = Metrics.timer("results.record");
+
+    private final CourseCatalog catalog;
+    private final StudentRepository students;
+    private final Admin admin;
+    private final QuestionBank questionBank;
+    private final ResultStatistics statistics;
+    private final Leaderboards leaderboards;
+    private final ExamScheduler exams;
+    private final ViewCache views = new ViewCache();
+    private final Enrollments enrollments;
+    private final Journal journal;
+    private final AttemptHistory history;
+    private final ItemStatistics items;
+    private final ShardRouter router;
+
+    // In-memory service seeded with the default catalog
+    public ManagementService() {
+        this((ShardRouter) null);
+    }
+
+    // In-memory front end whose student registry and results live on the
+    // router's shards; null keeps them in this process
+    public ManagementService(ShardRouter router) {
+        this.router = router;
+        students = new StudentRepository();
+        catalog = new CourseCatalog(students.getResults().getSubjects());
+        enrollments = new Enrollments(catalog, this::journalSelection);
+        questionBank = new QuestionBank();
+        statistics = new ResultStatistics(students.getResults().getSubjects());
+        leaderboards = new Leaderboards(students.getResults());
+        students.getResults().addListener(statistics);
+        students.getResults().addListener(leaderboards);
+        admin = new Admin("Admin", "admin@sms.com");
+        exams = new ExamScheduler(this);
+        journal = null;
+        history = new AttemptHistory(students.getResults().getSubjects());
+        items = new ItemStatistics(questionBank, history);
+
+        initializeDefaultData();
+        initializeSampleQuestions();
+    }
+
+    // Durable variant: recovers state from the data directory and journals every change
+    public ManagementService(Path dataDirectory) throws IOException {
+        students = new StudentRepository();
+        catalog = new CourseCatalog(students.getResults().getSubjects());
+        enrollments = new Enrollments(catalog, this::journalSelection);
+        questionBank = new QuestionBank();
+        statistics = new ResultStatistics(students.getResults().getSubjects());
+        leaderboards = new Leaderboards(students.getResults());
+        students.getResults().addListener(statistics);
+        students.getResults().addListener(leaderboards);
+        admin = new Admin("Admin", "admin@sms.com");
+        exams = new ExamScheduler(this);
+        router = null;
+
+        StateLoader loader = new StateLoader();
+        journal = Journal.open(dataDirectory, loader);
+        boolean seeded = false;
+        if (journal.isEmpty()) {
+            initializeDefaultData();
+            seeded = true;
+        }
+        // Also seeds a directory written before banks were journaled
+        if (!loader.questionsRecovered) {
+            initializeSampleQuestions();
+            seeded = true;
+        }
+        if (seeded) {
+            journal.snapshot(this::dumpState);
+        }
+        history = AttemptHistory.open(dataDirectory.resolve(HISTORY_FILE), students.getResults().getSubjects(),
+                students::idOf);
+        items = new ItemStatistics(questionBank, history);
+    }
+
+    // Outcome of a submitted exam
+    static class ExamOutcome {
+        private final String subject;
+        private final int correct;
+        private final int questions;
+        private final int score;
+        private boolean saved = true;
+
+        ExamOutcome(String subject, int correct, int questions, int score) {
+            this.subject = subject;
+            this.correct = correct;
+            this.questions = questions;
+            this.score = score;
+        }
+
+        public String getSubject() { return subject; }
+        public int getCorrect() { return correct; }
+        public int getQuestions() { return questions; }
+        public int getScore() { return score; }
+        public boolean isPassed() { return score >= ResultStatistics.PASS_MARK; }
+
+        // False if the student's shard could not be reached to store the score
+        public boolean isSaved() { return saved; }
+    }
+
+    // Applies the recovered snapshot and journal records directly to the in-memory state
+    private class StateLoader implements Journal.Recovery {
+        // False until a snapshot or record that carries question banks is seen
+        private boolean questionsRecovered;
+
+        public void restore(SnapshotFile snapshot) {
+            snapshot.readCourses(catalog);
+            snapshot.readSeats(catalog);
+            students.restore(snapshot);
+            snapshot.readStatistics(statistics);
+            snapshot.readLeaderboards(leaderboards);
+            snapshot.readQuestions(questionBank);
+            questionsRecovered |= snapshot.hasQuestions();
+        }
+
+        public void addCourse(String courseName) {
+            catalog.add(courseName);
+        }
+
+        public void addSubject(String courseName, String subject) {
+            Course course = findCourse(courseName);
+            if (course != null) {
+                course.addSubject(subject);
+            }
+        }
+
+        public void registerStudent(String name, String email, int age) {
+            students.register(new Student(name, email, age));
+        }
+
+        public void selectCourse(String email, String courseName) {
+            Student student = students.findByEmail(email);
+            if (student != null) {
+                enrollments.restore(student, courseName);
+            }
+        }
+
+        public void selectSubject(String email, String subject) {
+            Student student = students.findByEmail(email);
+            if (student != null) {
+                student.addSelectedSubject(subject);
+            }
+        }
+
+        public void examResult(String email, String subject, int score) {
+            Student student = students.findByEmail(email);
+            if (student != null) {
+                student.addExamResult(subject, score);
+            }
+        }
+
+        public void setCapacity(String courseName, int capacity) {
+            Course course = findCourse(courseName);
+            if (course != null) {
+                course.getSeats().setCapacity(capacity);
+            }
+        }
+
+        public void replaceQuestions(String subject, List<Question> questions) {
+            questionBank.replace(subject, questions);
+            questionsRecovered = true;
+        }
+
+        public void addQuestions(String subject, List<Question> questions) {
+            questionBank.append(subject, questions);
+            questionsRecovered = true;
+        }
+    }
+
+    // Emits the full current state as journal records, used for snapshots
+    private void dumpState(Journal.Handler out) {
+        for (Course course : catalog.getAll()) {
+            out.addCourse(course.getCourseName());
+            if (course.getSeats().isLimited()) {
+                out.setCapacity(course.getCourseName(), course.getSeats().getCapacity());
+            }
+            for (String subject : course.getSubjects()) {
+                out.addSubject(course.getCourseName(), subject);
+            }
+        }
+        for (Student student : students.getAll()) {
+            out.registerStudent(student.getName(), student.getEmail(), student.getAge());
+            if (student.getSelectedCourse() != null) {
+                out.selectCourse(student.getEmail(), student.getSelectedCourse());
+            }
+            for (String subject : student.getSelectedSubjects()) {
+                out.selectSubject(student.getEmail(), subject);
+            }
+            for (Map.Entry<String, Integer> entry : student.getExamResults().entrySet()) {
+                out.examResult(student.getEmail(), entry.getKey(), entry.getValue());
+            }
+        }
+        questionBank.forEach(out::replaceQuestions);
+    }
+
+    // Takes a compacted snapshot once enough records have accumulated. A failed
+    // snapshot is not fatal: the journal still holds every record.
+    private void checkpointIfDue() {
+        if (journal != null && journal.isSnapshotDue()) {
+            try {
+                journal.snapshotIfDue(this::dumpState);
+            } catch (IOException e) {
+                System.err.println("Warning: snapshot failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Replication (see ShardNode)
+
+    // Hands every batch the journal makes durable to the tap
+    void setReplicationTap(Journal.Tap tap) {
+        requireJournal().setTap(tap);
+    }
+
+    // Emits the full current state as framed journal records, in chunks
+    void dumpFrames(int chunkBytes, java.util.function.Consumer<byte[]> sink) {
+        Journal.encode(this::dumpState, chunkBytes, sink);
+    }
+
+    // Applies records shipped from a leader's journal and keeps them in ours
+    void applyShipped(byte[] frames) throws IOException {
+        Journal journal = requireJournal();
+        int records = Journal.apply(frames, new StateLoader());
+        journal.appendShipped(frames, records);
+        checkpointIfDue();
+    }
+
+    private Journal requireJournal() {
+        if (journal == null) {
+            throw new IllegalStateException("Replication needs a journaled service");
+        }
+        return journal;
+    }
+
+    // Accounts
+
+    public Admin getAdmin() { return admin; }
+
+    public boolean authenticateAdmin(String password) {
+        return ADMIN_PASSWORD.equals(password);
+    }
+
+    // Returns the registered student, or null if the email is already taken
+    public Student registerStudent(String name, String email, int age) {
+        long started = REGISTER_TIME.start();
+        try {
+            if (router != null && !router.register(name, email, age)) {
+                return null;
+            }
+            Student student = new Student(name, email, age);
+            if (!students.register(student)) {
+                // With a router, the shard took it and a login cached it meanwhile
+                return router != null ? students.findByEmail(email) : null;
+            }
+            REGISTRATIONS.increment();
+            if (journal != null) {
+                journal.registerStudent(name, email, age);
+                checkpointIfDue();
+            }
+            return student;
+        } finally {
+            REGISTER_TIME.stop(started);
+        }
+    }
+
+    // Registers the batch in order and journals it with a
+    // single sync. Returns which entries were accepted (false = duplicate email).
+    // With a router the batch is only sent to the shards, not kept here.
+    public boolean[] registerStudents(List<Student> batch) {
+        boolean[] accepted = router != null ? router.registerAll(batch) : students.registerAll(batch);
+        int registered = 0;
+        for (boolean ok : accepted) {
+            registered += ok ? 1 : 0;
+        }
+        REGISTRATIONS.add(registered);
+        if (journal != null) {
+            journal.batch(records -> {
+                for (int i = 0; i < accepted.length; i++) {
+                    if (accepted[i]) {
+                        Student student = batch.get(i);
+                        records.registerStudent(student.getName(), student.getEmail(), student.getAge());
+                    }
+                }
+            });
+            checkpointIfDue();
+        }
+        return accepted;
+    }
+
+    // Looks a student up by email (case-insensitive); null if not registered
+    public Student findStudent(String email) {
+        Student student = students.findByEmail(email);
+        return student == null && router != null ? fetch(email) : student;
+    }
+
+    // Same lookup as findStudent, counted as a login attempt. With a router
+    // the owning shard is always asked, which refreshes the local copy.
+    public Student login(String email) {
+        long started = LOGIN_TIME.start();
+        Student student = router != null ? fetch(email) : students.findByEmail(email);
+        LOGIN_TIME.stop(started);
+        (student != null ? LOGINS : FAILED_LOGINS).increment();
+        return student;
+    }
+
+    // Loads the student and its results from its shard into the local registry
+    private Student fetch(String email) {
+        Student stored = router.login(email);
+        if (stored == null) {
+            return null;
+        }
+        Student student = students.findByEmail(email);
+        if (student == null) {
+            students.register(new Student(stored.getName(), stored.getEmail(), stored.getAge()));
+            student = students.findByEmail(email);
+        }
+        Map<String, Integer> known = student.getExamResults();
+        for (Map.Entry<String, Integer> result : stored.getExamResults().entrySet()) {
+            if (!result.getValue().equals(known.get(result.getKey()))) {
+                student.addExamResult(result.getKey(), result.getValue());
+            }
+        }
+        return student;
+    }
+
+    public Student getStudent(int id) {
+        return students.get(id);
+    }
+
+    // With a router, the students on all shards
+    public int getStudentCount() {
+        return router != null ? router.count() : students.size();
+    }
+
+    // One page of students whose name or email matches the query
+    public StudentSearchIndex.Page searchStudents(String query, StudentSearchIndex.Mode mode, int offset, int limit) {
+        long started = SEARCH_TIME.start();
+        try {
+            return students.search(query, mode, offset, limit);
+        } finally {
+            SEARCH_TIME.stop(started);
+        }
+    }
+
+    // Students in registration order; index = student id
+    public List<Student> getStudents() {
+        return students.getAll();
+    }
+
+    // The registry itself, for reports that read students without materializing them
+    public StudentRepository getStudentRepository() {
+        return students;
+    }
+
+    // Catalog
+
+    public List<Course> getCourses() {
+        return catalog.getAll();
+    }
+
+    // Case-insensitive lookup by name; null if there is no such course
+    public Course findCourse(String courseName) {
+        return catalog.find(courseName);
+    }
+
+    // Returns false if a course with that name already exists
+    public boolean createCourse(String courseName) {
+        // Holding the catalog lock keeps creation and journal order the same
+        synchronized (catalog) {
+            if (catalog.add(courseName) == null) {
+                return false;
+            }
+            if (journal != null) {
+                journal.addCourse(courseName);
+            }
+        }
+        checkpointIfDue();
+        return true;
+    }
+
+    // Creates the courses that do not exist yet and adds the subjects, row by
+    // row (an empty subject adds none), journaling the changes with a single sync
+    public void addCourses(List<String> courseNames, List<String> subjects) {
+        synchronized (catalog) {
+            List<String[]> changes = new ArrayList<>(); // course, and subject or null
+            for (int i = 0; i < courseNames.size(); i++) {
+                String courseName = courseNames.get(i);
+                if (catalog.add(courseName) != null) {
+                    changes.add(new String[] {courseName, null});
+                }
+                Course course = catalog.find(courseName);
+                String subject = subjects.get(i);
+                if (!subject.isEmpty() && course.addSubject(subject)) {
+                    changes.add(new String[] {course.getCourseName(), subject});
+                }
+            }
+            if (journal != null && !changes.isEmpty()) {
+                journal.batch(records -> {
+                    for (String[] change : changes) {
+                        if (change[1] == null) {
+                            records.addCourse(change[0]);
+                        } else {
+                            records.addSubject(change[0], change[1]);
+                        }
+                    }
+                });
+            }
+        }
+        checkpointIfDue();
+    }
+
+    // Returns false if the course does not exist; adding a subject the course
+    // already has is a no-op
+    public boolean addSubjectToCourse(String courseName, String subject) {
+        Course course = findCourse(courseName);
+        if (course == null) {
+            return false;
+        }
+        if (course.addSubject(subject) && journal != null) {
+            journal.addSubject(course.getCourseName(), subject);
+            checkpointIfDue();
+        }
+        return true;
+    }
+
+    // Returns false if the course does not exist; 0 or less lifts the limit
+    public boolean setCourseCapacity(String courseName, int capacity) {
+        Course course = findCourse(courseName);
+        if (course == null) {
+            return false;
+        }
+        int seats = capacity > 0 ? Math.min(capacity, CourseSeats.UNLIMITED) : CourseSeats.UNLIMITED;
+        enrollments.setCapacity(course.getCourseName(), seats);
+        if (journal != null) {
+            journal.setCapacity(course.getCourseName(), seats);
+        }
+        enrollments.fillSeats(course.getCourseName());
+        checkpointIfDue();
+        return true;
+    }
+
+    // Enrollment
+
+    // Enrolls the student if the course has a free seat, otherwise waitlists it
+    public Enrollments.Status selectCourse(Student student, String courseName) {
+        return enrollments.enroll(student, courseName);
+    }
+
+    // Gives up the student's course and waitlist place; false if it had no course
+    public boolean dropCourse(Student student) {
+        return enrollments.drop(student);
+    }
+
+    public Enrollments getEnrollments() { return enrollments; }
+
+    // Journals every change of a student's course, including promotions
+    private void journalSelection(Student student, String courseName) {
+        if (journal != null) {
+            journal.selectCourse(student.getEmail(), courseName != null ? courseName : "");
+            checkpointIfDue();
+        }
+    }
+
+    // The student's selected course, or null if none is selected
+    public Course getSelectedCourse(Student student) {
+        String selected = student.getSelectedCourse();
+        return selected == null ? null : findCourse(selected);
+    }
+
+    // Adds the subjects that belong to the student's selected course, journaled
+    // with a single sync. Returns how many were accepted.
+    public int chooseSubjects(Student student, Collection<String> subjects) {
+        long started = CHOOSE_SUBJECTS_TIME.start();
+        try {
+            return addSubjects(student, subjects);
+        } finally {
+            CHOOSE_SUBJECTS_TIME.stop(started);
+        }
+    }
+
+    private int addSubjects(Student student, Collection<String> subjects) {
+        Course course = getSelectedCourse(student);
+        if (course == null) {
+            return 0;
+        }
+        List<String> accepted = new ArrayList<>(subjects.size());
+        for (String subject : subjects) {
+            if (course.hasSubject(subject)) {
+                student.addSelectedSubject(subject);
+                accepted.add(subject);
+            }
+        }
+        if (journal != null && !accepted.isEmpty()) {
+            journal.batch(records -> {
+                for (String subject : accepted) {
+                    records.selectSubject(student.getEmail(), subject);
+                }
+            });
+            checkpointIfDue();
+        }
+        return accepted.size();
+    }
+
+    // Exams and results
+
+    public Question[] drawExam(String subject) {
+        return drawExam(subject, EXAM_QUESTIONS);
+    }
+
+    public Question[] drawExam(String subject, int count) {
+        long started = DRAW_TIME.start();
+        Question[] exam = questionBank.drawExam(subject, count);
+        DRAW_TIME.stop(started);
+        if (exam.length > 0) {
+            EXAMS_STARTED.increment();
+        }
+        return exam;
+    }
+
+    public List<Question> getQuestions(String subject) {
+        return questionBank.get(subject);
+    }
+
+    // Appends to a subject's bank, skipping questions it already holds; exams
+    // already running keep the questions they drew. Throws
+    // IllegalArgumentException, changing nothing, if a question is too large
+    // to journal.
+    public void addQuestions(String subject, List<Question> questions) {
+        changeQuestions(records -> records.addQuestions(subject, questions),
+                () -> questionBank.append(subject, questions));
+    }
+
+    // Swaps in a new bank for the subject without pausing exams in progress
+    public void replaceQuestions(String subject, List<Question> questions) {
+        changeQuestions(records -> records.replaceQuestions(subject, questions),
+                () -> questionBank.replace(subject, questions));
+    }
+
+    // Applies a bank change and journals it under the bank's monitor, so the
+    // journal orders changes as memory does. The records are encoded first,
+    // so a change that cannot be journaled is rejected before it is applied.
+    private void changeQuestions(java.util.function.Consumer<Journal.Handler> records, Runnable change) {
+        if (journal == null) {
+            change.run();
+            return;
+        }
+        Journal.Prepared prepared = journal.prepare(records);
+        synchronized (questionBank) {
+            change.run();
+            journal.append(prepared);
+        }
+        checkpointIfDue();
+    }
+
+    // Starts a timed attempt, waiting for a free exam seat if need be; null if
+    // none came free in time or the subject has no questions
+    public ExamScheduler.Attempt startExam(Student student, String subject) {
+        return exams.begin(student, subject);
+    }
+
+    public ExamScheduler getExamScheduler() { return exams; }
+
+    // Starts a timed adaptive attempt (see ItemStatistics); null as for startExam
+    public ExamScheduler.Attempt startAdaptiveExam(Student student, String subject) {
+        return exams.beginAdaptive(student, subject);
+    }
+
+    // Grades the answers (0-based option per question, anything else counts as
+    // wrong) to the drawn questions, records the score and keeps the attempt
+    // in the history
+    public ExamOutcome submitExam(Student student, String subject, Question[] questions, int[] answers) {
+        return submitExam(student, subject, questions, answers, false);
+    }
+
+    // An adaptive exam is scored by the ability its answers show instead of
+    // the share answered correctly
+    public ExamOutcome submitExam(Student student, String subject, Question[] questions, int[] answers,
+                                  boolean adaptive) {
+        long started = SUBMIT_TIME.start();
+        ExamOutcome outcome = grade(subject, questions, answers, adaptive);
+        if (storeResult(student, subject, outcome.getScore())) {
+            items.record(subject, questions, answers);
+            history.record(student, subject, System.currentTimeMillis(), outcome.getScore(), questions, answers);
+        } else {
+            outcome.saved = false;
+        }
+        SUBMIT_TIME.stop(started);
+        EXAMS_FINISHED.increment();
+        return outcome;
+    }
+
+    // Grades a batch of exams and records the scores with a single journal sync
+    public ExamOutcome[] submitExams(List<Student> batch, List<String> subjects, List<Question[]> questions,
+                                     List<int[]> answers) {
+        return submitExams(batch, subjects, questions, answers, new boolean[batch.size()]);
+    }
+
+    public ExamOutcome[] submitExams(List<Student> batch, List<String> subjects, List<Question[]> questions,
+                                     List<int[]> answers, boolean[] adaptive) {
+        ExamOutcome[] outcomes = new ExamOutcome[batch.size()];
+        int[] scores = new int[outcomes.length];
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = grade(subjects.get(i), questions.get(i), answers.get(i), adaptive[i]);
+            scores[i] = outcomes[i].getScore();
+        }
+        if (!recordAttempts(batch, subjects, scores, questions, answers)) {
+            for (ExamOutcome outcome : outcomes) {
+                outcome.saved = false;
+            }
+        }
+        EXAMS_FINISHED.add(outcomes.length);
+        return outcomes;
+    }
+
+    private ExamOutcome grade(String subject, Question[] questions, int[] answers, boolean adaptive) {
+        int correct = 0;
+        for (int i = 0; i < questions.length; i++) {
+            if (i < answers.length && questions[i].isCorrect(answers[i])) {
+                correct++;
+            }
+        }
+        int score;
+        if (questions.length == 0) {
+            score = 0;
+        } else if (adaptive) {
+            score = items.score(subject, items.estimateAbility(subject, questions, answers));
+        } else {
+            score = (int) Math.round(100.0 * correct / questions.length);
+        }
+        return new ExamOutcome(subject, correct, questions.length, score);
+    }
+
+    // Records a score entered without an exam; the history keeps it with no
+    // questions. False if it was not saved (see storeResult).
+    public boolean recordResult(Student student, String subject, int score) {
+        if (!storeResult(student, subject, score)) {
+            return false;
+        }
+        history.record(student, subject, System.currentTimeMillis(), score, NO_QUESTIONS, NO_ANSWERS);
+        return true;
+    }
+
+    // With a router the score is stored on the student's shard first; false,
+    // changing nothing here, if the shard could not store it. The shard may
+    // still have applied it if it took the write but did not answer.
+    private boolean storeResult(Student student, String subject, int score) {
+        long started = RECORD_TIME.start();
+        if (router != null) {
+            try {
+                router.addExamResult(student.getEmail(), subject, score);
+            } catch (UncheckedIOException e) {
+                notSaved(1, e);
+                return false;
+            }
+        }
+        long seq = applyResult(student, subject, score);
+        if (journal != null) {
+            journal.awaitDurable(seq);
+            checkpointIfDue();
+        }
+        RECORD_TIME.stop(started);
+        RESULTS_RECORDED.increment();
+        return true;
+    }
+
+    private static void notSaved(int results, UncheckedIOException e) {
+        RESULTS_NOT_SAVED.add(results);
+        System.err.println("Warning: " + results + " result(s) not saved: " + e.getMessage());
+    }
+
+    // Stores the score and queues its journal record under the student's
+    // monitor, so concurrent results for one student reach the journal in the
+    // order they were applied; returns the record's journal sequence
+    private long applyResult(Student student, String subject, int score) {
+        synchronized (student) {
+            student.addExamResult(subject, score);
+            return journal != null ? journal.queueExamResult(student.getEmail(), subject, score) : 0;
+        }
+    }
+
+    // Records a batch of results with a single journal sync; false as for
+    // recordAttempts
+    public boolean recordResults(List<Student> batch, List<String> subjects, int[] scores) {
+        return recordAttempts(batch, subjects, scores, Collections.nCopies(scores.length, NO_QUESTIONS),
+                Collections.nCopies(scores.length, NO_ANSWERS));
+    }
+
+    // Records a batch of graded attempts: the scores with a single journal
+    // sync, then the answers in the question statistics and the history.
+    // False, recording nothing here, if a shard could not store its part; the
+    // other shards keep theirs.
+    public boolean recordAttempts(List<Student> batch, List<String> subjects, int[] scores,
+                                  List<Question[]> questions, List<int[]> answers) {
+        if (router != null) {
+            List<String> emails = new ArrayList<>(batch.size());
+            for (Student student : batch) {
+                emails.add(student.getEmail());
+            }
+            try {
+                router.addExamResults(emails, subjects, scores);
+            } catch (UncheckedIOException e) {
+                notSaved(scores.length, e);
+                return false;
+            }
+        }
+        long seq = 0;
+        for (int i = 0; i < scores.length; i++) {
+            seq = applyResult(batch.get(i), subjects.get(i), scores[i]);
+        }
+        RESULTS_RECORDED.add(scores.length);
+        if (journal != null) {
+            journal.awaitDurable(seq);
+            checkpointIfDue();
+        }
+        for (int i = 0; i < scores.length; i++) {
+            items.record(subjects.get(i), questions.get(i), answers.get(i));
+        }
+        history.recordAll(batch, subjects, System.currentTimeMillis(), scores, questions, answers);
+        return true;
+    }
+
+    // Reporting
+
+    public ResultStatistics getStatistics() { return statistics; }
+    public Leaderboards getLeaderboards() { return leaderboards; }
+
+    // Every attempt with its answers, queryable by subject and time range
+    public AttemptHistory getHistory() { return history; }
+
+    // Difficulty and discrimination of every question, for adaptive exams
+    public ItemStatistics getItemStatistics() { return items; }
+
+    // Rendered views, stamped with the versions below
+    public ViewCache getViews() { return views; }
+
+    // Changes with every course or subject added
+    public long getCatalogVersion() { return catalog.getVersion(); }
+
+    // Changes with every result recorded
+    public long getResultsVersion() { return students.getResults().getVersion(); }
+
+    // Finishes grading expired exams before the journal and history close
+    @Override
+    public void close() throws IOException {
+        exams.close();
+        if (journal != null) {
+            journal.close();
+        }
+        history.close();
+        if (router != null) {
+            router.close();
+        }
+    }
+
+    private void initializeDefaultData() {
+        // Add default courses
+        Course javaCourse = catalog.add("Java Programming");
+        javaCourse.addSubject("Core Java");
+        javaCourse.addSubject("Advanced Java");
+        javaCourse.addSubject("Spring Framework");
+
+        Course pythonCourse = catalog.add("Python Programming");
+        pythonCourse.addSubject("Python Basics");
+        pythonCourse.addSubject("Django Framework");
+        pythonCourse.addSubject("Data Science");
+
+        Course webCourse = catalog.add("Web Development");
+        webCourse.addSubject("HTML/CSS");
+        webCourse.addSubject("JavaScript");
+        webCourse.addSubject("React.js");
+    }
+
+    private void initializeSampleQuestions() {
+        // Java questions
+        List<Question> javaQuestions = new ArrayList<>();
+        javaQuestions.add(new Question(
+                "What is the main feature of Java?",
+                new String[]{"Platform Independent", "Fast", "Small", "Simple"}, 0));
+        javaQuestions.add(new Question(
+                "Which keyword is used for inheritance in Java?",
+                new String[]{"implements", "extends", "inherits", "super"}, 1));
+        javaQuestions.add(new Question(
+                "What is the size of int in Java?",
+                new String[]{"2 bytes", "4 bytes", "8 bytes", "1 byte"}, 1));
+        javaQuestions.add(new Question(
+                "Which collection class allows duplicate elements?",
+                new String[]{"Set", "Map", "List", "Queue"}, 2));
+        javaQuestions.add(new Question(
+                "What is method overloading?",
+                new String[]{"Same method name, different parameters", "Different method name", "Same parameters", "None"}, 0));
+
+        questionBank.put(javaQuestions, "Core Java", "Advanced Java", "Spring Framework");
+
+        // Python questions
+        List<Question> pythonQuestions = new ArrayList<>();
+        pythonQuestions.add(new Question(
+                "Python is a __ language",
+                new String[]{"Compiled", "Interpreted", "Assembly", "Machine"}, 1));
+        pythonQuestions.add(new Question(
+                "Which symbol is used for comments in Python?",
+                new String[]{"//", "/*", "#", "**"}, 2));
+        pythonQuestions.add(new Question(
+                "What is the correct file extension for Python files?",
+                new String[]{".py", ".python", ".p", ".pt"}, 0));
+        pythonQuestions.add(new Question(
+                "Which keyword is used to define a function in Python?",
+                new String[]{"function", "def", "func", "define"}, 1));
+        pythonQuestions.add(new Question(
+                "What is used to create a list in Python?",
+                new String[]{"()", "{}", "[]", "<>"}, 2));
+
+        questionBank.put(pythonQuestions, "Python Basics", "Django Framework", "Data Science");
+
+        // Web Development questions
+        List<Question> webQuestions = new ArrayList<>();
+        webQuestions.add(new Question(
+                "HTML stands for?",
+                new String[]{"Hyper Text Markup Language", "High Tech Modern Language", "Home Tool Markup Language", "None"}, 0));
+        webQuestions.add(new Question(
+                "Which tag is used for largest heading in HTML?",
+                new String[]{"<h6>", "<h1>", "<header>", "<heading>"}, 1));
+        webQuestions.add(new Question(
+                "CSS stands for?",
+                new String[]{"Cascading Style Sheets", "Creative Style Sheets", "Computer Style Sheets", "Colorful Style Sheets"}, 0));
+        webQuestions.add(new Question(
+                "JavaScript is a __ language",
+                new String[]{"Server-side", "Client-side", "Both", "None"}, 2));
+        webQuestions.add(new Question(
+                "Which method is used to select an element by ID in JavaScript?",
+                new String[]{"getElementById", "selectById", "getElement", "findById"}, 0));
+
+        questionBank.put(webQuestions, "HTML/CSS", "JavaScript", "React.js");
+    }
+}
@@ -0,0 +1,276 @@
+package sms;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+// Process-wide counters and latency timers for the hot paths.
+//
+// Counters are LongAdders and timers record into log-linear histograms
+// (HDR-style: 32 sub-buckets per power of two, so any recorded latency is
+// reported within about 3%), both updated without locks. Nothing is
+// aggregated until someone reads a snapshot. Counters are exact; timers time
+// one call in 16 at random (-Dsms.metrics.sampleEvery=N, a power of two, 1 to
+// time every call), since the two clock reads cost more than the bookkeeping.
+// An unread metric therefore costs about one uncontended increment per call.
+// Starting the JVM with -Dsms.metrics=false turns every metric into a no-op.
+//
+// Metrics can be read as a text snapshot (admin menu, snapshot()) or over JMX
+// under the name "sms:type=Metrics" once registerMBean() has been called.
+final class Metrics {
+    static final boolean ENABLED = !"false".equals(System.getProperty("sms.metrics"));
+    private static final int SAMPLE_MASK = Integer.highestOneBit(
+            Math.max(1, Integer.getInteger("sms.metrics.sampleEvery", 16))) - 1;
+
+    private static final ConcurrentSkipListMap<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final ConcurrentSkipListMap<String, Timer> TIMERS = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, Counter::new);
+    }
+
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, Timer::new);
+    }
+
+    static class Counter {
+        private final String name;
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        public String getName() { return name; }
+
+        public void increment() {
+            if (ENABLED) {
+                value.increment();
+            }
+        }
+
+        public void add(long amount) {
+            if (ENABLED) {
+                value.add(amount);
+            }
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    // Latency histogram in nanoseconds. Use as:
+    //   long start = timer.start();
+    //   try { ... } finally { timer.stop(start); }
+    static class Timer {
+        private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+        private static final int SUB_BITS = 6;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * (SUB_BUCKETS / 2);
+
+        private final String name;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        public String getName() { return name; }
+
+        // Start time of a sampled call
+        public long start() {
+            if (!ENABLED || (ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) != 0) {
+                return NOT_SAMPLED;
+            }
+            return System.nanoTime();
+        }
+
+        public void stop(long start) {
+            if (start != NOT_SAMPLED) {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        public void record(long nanos) {
+            if (!ENABLED) {
+                return;
+            }
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(bucketOf(value));
+            count.increment();
+            total.add(value);
+            max.accumulate(value);
+        }
+
+        // Number of recorded (sampled) calls
+        public long getCount() { return count.sum(); }
+        public long getMax() { return max.get(); }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0.0 : (double) total.sum() / n;
+        }
+
+        // Upper bound of the bucket holding the given percentile (0-100)
+        public long getPercentile(double percentile) {
+            long n = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                n += snapshot[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= target) {
+                    return Math.min(upperBound(i), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        // Values below 2^SUB_BITS get a bucket each; above that, every power of
+        // two is split into SUB_BUCKETS / 2 equal buckets
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+            return shift * (SUB_BUCKETS / 2) + (int) (value >>> shift);
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / (SUB_BUCKETS / 2) - 1;
+            long mantissa = bucket % (SUB_BUCKETS / 2) + SUB_BUCKETS / 2;
+            return ((mantissa + 1) << shift) - 1;
+        }
+    }
+
+    // All metrics as text, one per line, latencies in microseconds
+    public static String snapshot() {
+        StringBuilder text = new StringBuilder(2048);
+        for (Counter counter : COUNTERS.values()) {
+            text.append(counter.getName()).append(' ').append(counter.get()).append('\n');
+        }
+        for (Timer timer : TIMERS.values()) {
+            text.append(timer.getName())
+                    .append(" samples=").append(timer.getCount())
+                    .append(" mean=").append(micros(timer.getMean()))
+                    .append(" p50=").append(micros(timer.getPercentile(50)))
+                    .append(" p90=").append(micros(timer.getPercentile(90)))
+                    .append(" p99=").append(micros(timer.getPercentile(99)))
+                    .append(" p99.9=").append(micros(timer.getPercentile(99.9)))
+                    .append(" max=").append(micros(timer.getMax()))
+                    .append(" us\n");
+        }
+        return text.toString();
+    }
+
+    private static String micros(double nanos) {
+        return String.valueOf(Math.round(nanos / 100.0) / 10.0);
+    }
+
+    // Exposes every metric as a read-only JMX attribute: counters by name,
+    // timers as <name>.samples, .meanMicros, .p50Micros, .p99Micros, .maxMicros
+    public static void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("sms:type=Metrics");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(), name);
+            }
+        } catch (JMException e) {
+            System.err.println("Warning: could not register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    private static class MetricsMBean implements DynamicMBean {
+        private static final String[] TIMER_ATTRIBUTES = {"samples", "meanMicros", "p50Micros", "p99Micros", "maxMicros"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Counter counter = COUNTERS.get(attribute);
+            if (counter != null) {
+                return counter.get();
+            }
+            int dot = attribute.lastIndexOf('.');
+            Timer timer = dot < 0 ? null : TIMERS.get(attribute.substring(0, dot));
+            if (timer != null) {
+                switch (attribute.substring(dot + 1)) {
+                    case "samples": return timer.getCount();
+                    case "meanMicros": return timer.getMean() / 1000.0;
+                    case "p50Micros": return timer.getPercentile(50) / 1000.0;
+                    case "p99Micros": return timer.getPercentile(99) / 1000.0;
+                    case "maxMicros": return timer.getMax() / 1000.0;
+                    default: break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Skipped, as the DynamicMBean contract allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        // Rebuilt on every call, so metrics created later still show up
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : COUNTERS.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", "Counter", true, false, false));
+            }
+            for (String name : TIMERS.keySet()) {
+                for (String suffix : TIMER_ATTRIBUTES) {
+                    String type = suffix.equals("samples") ? "long" : "double";
+                    attributes.add(new MBeanAttributeInfo(name + "." + suffix, type, "Latency", true, false, false));
+                }
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Student management system metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package sms;
+
+import java.util.*;
+
+// Question class for MCQs
+// Immutable, so one instance can be shared by every subject and exam using it.
+// Questions with the same text, options and answer are equal.
+final class Question {
+    // Answer sheets and attempt histories store an answer in one byte
+    static final int MAX_OPTIONS = 127;
+
+    private final String question;
+    private final String[] options;
+    private final int correctAnswer;
+    private final int key;
+
+    // Throws IllegalArgumentException if the text or an option is blank, the
+    // option count is not 2 to MAX_OPTIONS, or the answer is not one of the options
+    public Question(String question, String[] options, int correctAnswer) {
+        if (question == null || question.trim().isEmpty()) {
+            throw new IllegalArgumentException("missing question");
+        }
+        if (options == null || options.length < 2) {
+            throw new IllegalArgumentException("at least two options required");
+        }
+        if (options.length > MAX_OPTIONS) {
+            throw new IllegalArgumentException("more than " + MAX_OPTIONS + " options");
+        }
+        for (String option : options) {
+            if (option == null || option.trim().isEmpty()) {
+                throw new IllegalArgumentException("blank option");
+            }
+        }
+        if (correctAnswer < 0 || correctAnswer >= options.length) {
+            throw new IllegalArgumentException("answer out of range");
+        }
+        this.question = question;
+        this.options = options.clone();
+        this.correctAnswer = correctAnswer;
+        this.key = contentKey(question, this.options, correctAnswer);
+    }
+
+    public String getQuestion() { return question; }
+    public String[] getOptions() { return options.clone(); }
+    public int getOptionCount() { return options.length; }
+    public String getOption(int index) { return options[index]; }
+    public int getCorrectAnswer() { return correctAnswer; }
+
+    // 32-bit hash of the content, so equal questions share a key across banks
+    // and restarts; attempt histories keep it in place of the question
+    public int getKey() { return key; }
+
+    public boolean isCorrect(int answer) {
+        return answer == correctAnswer;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Question)) {
+            return false;
+        }
+        Question that = (Question) other;
+        return key == that.key && correctAnswer == that.correctAnswer && question.equals(that.question)
+                && Arrays.equals(options, that.options);
+    }
+
+    @Override
+    public int hashCode() {
+        return key;
+    }
+
+    // FNV-1a over the text and options, each followed by a separator
+    private static int contentKey(String question, String[] options, int correctAnswer) {
+        int hash = mix(0x811C9DC5, question);
+        for (String option : options) {
+            hash = mix(hash, option);
+        }
+        return (hash ^ correctAnswer) * 0x01000193;
+    }
+
+    private static int mix(int hash, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * 0x01000193;
+        }
+        return (hash ^ 0xFFFF) * 0x01000193;
+    }
+}
@@ -0,0 +1,127 @@
+package sms;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Shared, immutable question bank indexed by subject.
+//
+// Each subject maps to a Question[] that is never modified after publication;
+// subjects with the same questions share one array, and adding questions
+// publishes a new array. Exams therefore read banks without locking.
+//
+// Drawing an exam is a partial Fisher-Yates shuffle over a per-thread index
+// permutation: k swaps pick k distinct questions, and the swaps are undone
+// afterwards so the permutation is ready for the next draw. Apart from the
+// returned array, a draw allocates nothing.
+class QuestionBank {
+    private static final Question[] EMPTY = new Question[0];
+
+    private final ConcurrentHashMap<String, Question[]> bySubject = new ConcurrentHashMap<>();
+
+    // Identity permutation (between draws) and swap log, one per thread
+    private static final ThreadLocal<int[][]> SCRATCH = ThreadLocal.withInitial(() -> new int[][]{
+            identity(64), new int[16]});
+
+    // Sets the same bank for every given subject
+    public void put(List<Question> questions, String... subjects) {
+        Question[] bank = questions.toArray(EMPTY);
+        for (String subject : subjects) {
+            bySubject.put(subject, bank);
+        }
+    }
+
+    // Publishes the subject's bank extended by the given questions it does not
+    // hold yet, so appending the same questions twice changes nothing
+    public void append(String subject, List<Question> questions) {
+        bySubject.compute(subject, (name, existing) -> {
+            Set<Question> merged = new LinkedHashSet<>();
+            if (existing != null) {
+                merged.addAll(Arrays.asList(existing));
+            }
+            merged.addAll(questions);
+            return existing != null && merged.size() == existing.length ? existing : merged.toArray(EMPTY);
+        });
+    }
+
+    // Publishes a new bank for the subject in one step, without duplicates;
+    // exams already running keep the questions they drew, and draws see
+    // either the old bank or the new
+    public void replace(String subject, List<Question> questions) {
+        bySubject.put(subject, new LinkedHashSet<>(questions).toArray(EMPTY));
+    }
+
+    // Visits every subject's bank, each as it was published when visited
+    public void forEach(java.util.function.BiConsumer<String, List<Question>> visitor) {
+        bySubject.forEach((subject, bank) -> visitor.accept(subject, Collections.unmodifiableList(Arrays.asList(bank))));
+    }
+
+    // Read-only view of the subject's questions in bank order, or null if none
+    public List<Question> get(String subject) {
+        Question[] bank = bySubject.get(subject);
+        return bank == null ? null : Collections.unmodifiableList(Arrays.asList(bank));
+    }
+
+    // The published array itself, or null; it is replaced, never modified,
+    // so its identity tells whether the bank changed. Must not be written to.
+    Question[] getBank(String subject) {
+        return bySubject.get(subject);
+    }
+
+    public int size(String subject) {
+        Question[] bank = bySubject.get(subject);
+        return bank == null ? 0 : bank.length;
+    }
+
+    // Draws up to count distinct questions using ThreadLocalRandom
+    public Question[] drawExam(String subject, int count) {
+        return drawExam(subject, count, null);
+    }
+
+    // Draws up to count distinct questions; a seeded SplittableRandom makes the
+    // draw reproducible, null uses ThreadLocalRandom
+    public Question[] drawExam(String subject, int count, SplittableRandom random) {
+        Question[] bank = bySubject.get(subject);
+        if (bank == null || bank.length == 0) {
+            return EMPTY;
+        }
+        int n = bank.length;
+        int k = Math.min(count, n);
+
+        int[][] scratch = SCRATCH.get();
+        if (scratch[0].length < n) {
+            scratch[0] = identity(Math.max(n, scratch[0].length * 2));
+        }
+        if (scratch[1].length < k) {
+            scratch[1] = new int[Math.max(k, scratch[1].length * 2)];
+        }
+        int[] permutation = scratch[0];
+        int[] swaps = scratch[1];
+
+        Question[] exam = new Question[k];
+        for (int i = 0; i < k; i++) {
+            int j = i + (random != null ? random.nextInt(n - i) : ThreadLocalRandom.current().nextInt(n - i));
+            swap(permutation, i, j);
+            swaps[i] = j;
+            exam[i] = bank[permutation[i]];
+        }
+        for (int i = k - 1; i >= 0; i--) {
+            swap(permutation, i, swaps[i]);
+        }
+        return exam;
+    }
+
+    private static void swap(int[] values, int i, int j) {
+        int tmp = values[i];
+        values[i] = values[j];
+        values[j] = tmp;
+    }
+
+    private static int[] identity(int size) {
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = i;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,769 @@
+package sms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.util.*;
+
+// Streams reports out of the service as CSV, JSON lines or a compact binary
+// format:
+//   transcripts     one record per student with every result it has
+//   result sheet    the students of one course, with a score column per subject
+//   cohort summary  per course and per subject of it: participants, mean,
+//                   spread, pass rate and percentiles
+//
+// Students are read one at a time in id order, from the result store or, for
+// restored students that were never looked up, straight from the snapshot, so
+// no list of students or results is built and memory stays the same however
+// many students there are. Summaries come from the incremental statistics and
+// leaderboards without scanning at all. Records are encoded into one large
+// direct buffer that is written to the channel each time it fills.
+//
+// A report is a list of typed columns, where a LIST column holds nested
+// records (a transcript's results). CSV repeats the outer fields on one row
+// per nested record; JSON lines nests them as arrays. The binary format is
+// self-describing:
+//   header  "SMSX", version byte, report name, columns
+//   column  name, type byte (TEXT, INTEGER, DECIMAL, BOOLEAN, LIST), and for
+//           a LIST its own columns
+//   records each record is a 1 byte followed by its fields in column order;
+//           a 0 byte ends the report or the LIST
+// Texts are a varint byte length and UTF-8 (empty when absent), integers
+// zigzag varints (-1 when absent), decimals 8-byte IEEE doubles and booleans
+// one byte. Names in the header are texts, counts are varints.
+class ReportExporter {
+    static final int BUFFER_SIZE = Integer.getInteger("sms.export.bufferKB", 1024) * 1024;
+    private static final int BINARY_VERSION = 1;
+
+    private static final Metrics.Timer EXPORT_TIME = Metrics.timer("export.report");
+    private static final Metrics.Counter RECORDS_EXPORTED = Metrics.counter("export.records");
+    private static final Metrics.Counter BYTES_EXPORTED = Metrics.counter("export.bytes");
+
+    enum Format {
+        CSV("csv"), JSONL("jsonl"), BINARY("bin");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() { return extension; }
+
+        // By name or file extension, case-insensitive; null if unknown
+        static Format of(String name) {
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(name) || format.extension.equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final byte TEXT = 1;
+    private static final byte INTEGER = 2;
+    private static final byte DECIMAL = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte LIST = 5;
+
+    private static final class Column {
+        final String name;
+        final byte type;
+        final Column[] children;
+
+        Column(String name, byte type, Column... children) {
+            this.name = name;
+            this.type = type;
+            this.children = children;
+        }
+    }
+
+    private static final Column[] TRANSCRIPT = {
+            new Column("id", INTEGER),
+            new Column("email", TEXT),
+            new Column("name", TEXT),
+            new Column("course", TEXT),
+            new Column("results", LIST,
+                    new Column("subject", TEXT),
+                    new Column("score", INTEGER),
+                    new Column("passed", BOOLEAN))
+    };
+
+    private static final Column[] COHORT_SUMMARY = {
+            new Column("course", TEXT),
+            new Column("subject", TEXT),
+            new Column("students", INTEGER),
+            new Column("mean", DECIMAL),
+            new Column("stdDev", DECIMAL),
+            new Column("passRate", DECIMAL),
+            new Column("median", INTEGER),
+            new Column("p90", INTEGER)
+    };
+
+    private final ManagementService service;
+
+    public ReportExporter(ManagementService service) {
+        this.service = service;
+    }
+
+    // Each export returns the number of top-level records written. The Path
+    // variants replace the file; the channel variants leave it open.
+
+    public long exportTranscripts(Path file, Format format) throws IOException {
+        try (FileChannel channel = create(file)) {
+            return exportTranscripts(channel, format);
+        }
+    }
+
+    public long exportTranscripts(WritableByteChannel channel, Format format) throws IOException {
+        long started = EXPORT_TIME.start();
+        StudentRepository students = service.getStudentRepository();
+        SubjectTable subjects = students.getResults().getSubjects();
+        Encoder encoder = encoder(format, channel);
+        encoder.begin("transcripts", TRANSCRIPT);
+        ResultBuffer results = new ResultBuffer();
+        int size = students.size();
+        for (int id = 0; id < size; id++) {
+            results.count = 0;
+            students.forEachResult(id, results);
+            encoder.beginRecord();
+            encoder.integer(id);
+            encoder.text(students.emailOf(id));
+            encoder.text(students.nameOf(id));
+            encoder.text(students.courseOf(id));
+            encoder.beginList();
+            for (int i = 0; i < results.count; i++) {
+                encoder.beginRecord();
+                encoder.text(subjects.nameOf(results.subjectIds[i]));
+                encoder.integer(results.scores[i]);
+                encoder.bool(results.scores[i] >= ResultStatistics.PASS_MARK);
+                encoder.endRecord();
+            }
+            encoder.endList();
+            encoder.endRecord();
+        }
+        encoder.end();
+        return finish(started, encoder, size);
+    }
+
+    // Students who selected the course, with their score in each of its
+    // subjects; -1 if there is no such course
+    public long exportResultSheet(String courseName, Path file, Format format) throws IOException {
+        if (service.findCourse(courseName) == null) {
+            return -1;
+        }
+        try (FileChannel channel = create(file)) {
+            return exportResultSheet(courseName, channel, format);
+        }
+    }
+
+    public long exportResultSheet(String courseName, WritableByteChannel channel, Format format) throws IOException {
+        Course course = service.findCourse(courseName);
+        if (course == null) {
+            return -1;
+        }
+        long started = EXPORT_TIME.start();
+        StudentRepository students = service.getStudentRepository();
+        SubjectTable subjects = students.getResults().getSubjects();
+        List<String> courseSubjects = course.getSubjects();
+        Column[] columns = new Column[3 + courseSubjects.size()];
+        columns[0] = new Column("id", INTEGER);
+        columns[1] = new Column("email", TEXT);
+        columns[2] = new Column("name", TEXT);
+        int[] columnOf = new int[subjects.size() + courseSubjects.size()];
+        Arrays.fill(columnOf, -1);
+        for (int i = 0; i < courseSubjects.size(); i++) {
+            columns[3 + i] = new Column(courseSubjects.get(i), INTEGER);
+            columnOf[subjects.idOf(courseSubjects.get(i))] = i;
+        }
+
+        Encoder encoder = encoder(format, channel);
+        encoder.begin("resultSheet:" + course.getCourseName(), columns);
+        int[] scores = new int[courseSubjects.size()];
+        ResultStore.ResultConsumer collect = (subjectId, score) -> {
+            if (subjectId < columnOf.length && columnOf[subjectId] >= 0) {
+                scores[columnOf[subjectId]] = score;
+            }
+        };
+        long records = 0;
+        int size = students.size();
+        for (int id = 0; id < size; id++) {
+            if (!course.getCourseName().equals(students.courseOf(id))) {
+                continue;
+            }
+            Arrays.fill(scores, -1);
+            students.forEachResult(id, collect);
+            encoder.beginRecord();
+            encoder.integer(id);
+            encoder.text(students.emailOf(id));
+            encoder.text(students.nameOf(id));
+            for (int score : scores) {
+                if (score >= 0) {
+                    encoder.integer(score);
+                } else {
+                    encoder.missing();
+                }
+            }
+            encoder.endRecord();
+            records++;
+        }
+        encoder.end();
+        return finish(started, encoder, records);
+    }
+
+    // One row per course, then one per subject of it
+    public long exportCohortSummary(Path file, Format format) throws IOException {
+        try (FileChannel channel = create(file)) {
+            return exportCohortSummary(channel, format);
+        }
+    }
+
+    public long exportCohortSummary(WritableByteChannel channel, Format format) throws IOException {
+        long started = EXPORT_TIME.start();
+        ResultStatistics statistics = service.getStatistics();
+        Leaderboards leaderboards = service.getLeaderboards();
+        Encoder encoder = encoder(format, channel);
+        encoder.begin("cohortSummary", COHORT_SUMMARY);
+        long records = 0;
+        for (Course course : service.getCourses()) {
+            summaryRow(encoder, course.getCourseName(), null, statistics.forCourse(course), leaderboards);
+            records++;
+            for (String subject : course.getSubjects()) {
+                summaryRow(encoder, course.getCourseName(), subject, statistics.forSubject(subject), leaderboards);
+                records++;
+            }
+        }
+        encoder.end();
+        return finish(started, encoder, records);
+    }
+
+    // Percentiles come from the leaderboards, which are kept per subject only
+    private static void summaryRow(Encoder encoder, String course, String subject,
+                                   ResultStatistics.Aggregate aggregate, Leaderboards leaderboards)
+            throws IOException {
+        encoder.beginRecord();
+        encoder.text(course);
+        encoder.text(subject);
+        encoder.integer(aggregate.getCount());
+        encoder.decimal(aggregate.getMean());
+        encoder.decimal(Math.sqrt(aggregate.getVariance()));
+        encoder.decimal(aggregate.getPassRate());
+        int median = subject == null ? -1 : leaderboards.scoreAtPercentile(subject, 50);
+        int p90 = subject == null ? -1 : leaderboards.scoreAtPercentile(subject, 90);
+        if (median >= 0) {
+            encoder.integer(median);
+            encoder.integer(p90);
+        } else {
+            encoder.missing();
+            encoder.missing();
+        }
+        encoder.endRecord();
+    }
+
+    private static FileChannel create(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static long finish(long started, Encoder encoder, long records) throws IOException {
+        encoder.out.flush();
+        EXPORT_TIME.stop(started);
+        RECORDS_EXPORTED.add(records);
+        BYTES_EXPORTED.add(encoder.out.written);
+        return records;
+    }
+
+    private static Encoder encoder(Format format, WritableByteChannel channel) {
+        Output out = new Output(channel);
+        switch (format) {
+            case CSV: return new CsvEncoder(out);
+            case JSONL: return new JsonEncoder(out);
+            default: return new BinaryEncoder(out);
+        }
+    }
+
+    // One student's results, reused from student to student
+    private static final class ResultBuffer implements ResultStore.ResultConsumer {
+        int[] subjectIds = new int[16];
+        int[] scores = new int[16];
+        int count;
+
+        public void accept(int subjectId, int score) {
+            if (count == subjectIds.length) {
+                subjectIds = Arrays.copyOf(subjectIds, count * 2);
+                scores = Arrays.copyOf(scores, count * 2);
+            }
+            subjectIds[count] = subjectId;
+            scores[count++] = score;
+        }
+    }
+
+    // Buffered writer to the channel. Text is encoded to UTF-8 by hand, a
+    // code point at a time, so no intermediate strings or arrays are made.
+    private static final class Output {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long written;
+
+        Output(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void write(int b) throws IOException {
+            ensure(1);
+            buffer.put((byte) b);
+        }
+
+        void ascii(String text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                write(text.charAt(i));
+            }
+        }
+
+        void codePoint(int c) throws IOException {
+            ensure(4);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (c < 0x10000) {
+                buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            } else {
+                buffer.put((byte) (0xF0 | c >> 18)).put((byte) (0x80 | c >> 12 & 0x3F))
+                        .put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+
+        void utf8(CharSequence text) throws IOException {
+            for (int i = 0; i < text.length(); ) {
+                int c = Character.codePointAt(text, i);
+                codePoint(c);
+                i += Character.charCount(c);
+            }
+        }
+
+        static int utf8Length(String text) {
+            int length = 0;
+            for (int i = 0; i < text.length(); ) {
+                int c = text.codePointAt(i);
+                length += c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+                i += Character.charCount(c);
+            }
+            return length;
+        }
+
+        void digits(long value) throws IOException {
+            ensure(20);
+            if (value < 0) {
+                buffer.put((byte) '-');
+                value = -value;
+            }
+            long scale = 1;
+            while (scale <= value / 10) {
+                scale *= 10;
+            }
+            for (; scale > 0; scale /= 10) {
+                buffer.put((byte) ('0' + value / scale % 10));
+            }
+        }
+
+        // Fixed point with four decimals; enough for means and rates
+        void fixed(double value) throws IOException {
+            long scaled = Math.round(value * 10_000);
+            if (scaled < 0) {
+                write('-');
+                scaled = -scaled;
+            }
+            digits(scaled / 10_000);
+            write('.');
+            long fraction = scaled % 10_000;
+            for (long scale = 1000; scale > 0; scale /= 10) {
+                write((int) ('0' + fraction / scale % 10));
+            }
+        }
+
+        void varint(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer);
+                }
+            } finally {
+                buffer.clear();
+            }
+        }
+    }
+
+    // Writes records field by field, in column order. A LIST must be the
+    // last column of its record.
+    private abstract static class Encoder {
+        final Output out;
+
+        Encoder(Output out) {
+            this.out = out;
+        }
+
+        abstract void begin(String report, Column[] columns) throws IOException;
+        abstract void beginRecord() throws IOException;
+        abstract void endRecord() throws IOException;
+        abstract void beginList() throws IOException;
+        abstract void endList() throws IOException;
+        abstract void text(String value) throws IOException; // null when absent
+        abstract void integer(long value) throws IOException;
+        abstract void decimal(double value) throws IOException;
+        abstract void bool(boolean value) throws IOException;
+        abstract void missing() throws IOException;
+
+        void end() throws IOException {
+        }
+    }
+
+    // Header row of column names, with a LIST's columns in its place. When a
+    // report has a LIST, the outer cells of each record are kept and written
+    // at the start of each of its nested rows, or of one row with the nested
+    // cells empty if there are none; otherwise cells are written straight out.
+    private static final class CsvEncoder extends Encoder {
+        private final StringBuilder outer = new StringBuilder(256);
+        private boolean buffered;
+        private int nestedColumns;
+        private boolean inList;
+        private int nestedRows;
+        private boolean firstCell;
+
+        CsvEncoder(Output out) {
+            super(out);
+        }
+
+        void begin(String report, Column[] columns) throws IOException {
+            firstCell = true;
+            for (Column column : columns) {
+                for (Column cell : column.type == LIST ? column.children : new Column[]{column}) {
+                    separator();
+                    escaped(cell.name);
+                }
+                if (column.type == LIST) {
+                    buffered = true;
+                    nestedColumns = column.children.length;
+                }
+            }
+            out.write('\n');
+        }
+
+        void beginRecord() throws IOException {
+            if (inList) {
+                out.utf8(outer);
+                firstCell = outer.length() == 0;
+            } else {
+                outer.setLength(0);
+                firstCell = true;
+            }
+        }
+
+        void endRecord() throws IOException {
+            if (inList) {
+                nestedRows++;
+            }
+            if (inList || !buffered) {
+                out.write('\n');
+            }
+        }
+
+        void beginList() {
+            inList = true;
+            nestedRows = 0;
+        }
+
+        void endList() throws IOException {
+            inList = false;
+            if (nestedRows == 0) {
+                out.utf8(outer);
+                for (int i = outer.length() == 0 ? 1 : 0; i < nestedColumns; i++) {
+                    out.write(',');
+                }
+                out.write('\n');
+            }
+        }
+
+        void text(String value) throws IOException {
+            if (value == null) {
+                missing();
+            } else if (direct()) {
+                separator();
+                escaped(value);
+            } else {
+                cell();
+                if (needsQuotes(value)) {
+                    outer.append('"').append(value.replace("\"", "\"\"")).append('"');
+                } else {
+                    outer.append(value);
+                }
+            }
+        }
+
+        void integer(long value) throws IOException {
+            if (direct()) {
+                separator();
+                out.digits(value);
+            } else {
+                cell();
+                outer.append(value);
+            }
+        }
+
+        void decimal(double value) throws IOException {
+            if (direct()) {
+                separator();
+                out.fixed(value);
+            } else {
+                cell();
+                outer.append(String.format(Locale.ROOT, "%.4f", value));
+            }
+        }
+
+        void bool(boolean value) throws IOException {
+            if (direct()) {
+                separator();
+                out.ascii(value ? "true" : "false");
+            } else {
+                cell();
+                outer.append(value);
+            }
+        }
+
+        void missing() throws IOException {
+            if (direct()) {
+                separator();
+            } else {
+                cell();
+            }
+        }
+
+        private boolean direct() {
+            return inList || !buffered;
+        }
+
+        private void cell() {
+            if (!firstCell) {
+                outer.append(',');
+            }
+            firstCell = false;
+        }
+
+        private void separator() throws IOException {
+            if (!firstCell) {
+                out.write(',');
+            }
+            firstCell = false;
+        }
+
+        private void escaped(String value) throws IOException {
+            if (!needsQuotes(value)) {
+                out.utf8(value);
+                return;
+            }
+            out.write('"');
+            for (int i = 0; i < value.length(); ) {
+                int c = value.codePointAt(i);
+                if (c == '"') {
+                    out.write('"');
+                }
+                out.codePoint(c);
+                i += Character.charCount(c);
+            }
+            out.write('"');
+        }
+
+        private static boolean needsQuotes(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // One JSON object per line, keyed by column name; a LIST is an array of
+    // objects. Absent values are null.
+    private static final class JsonEncoder extends Encoder {
+        private static final int MAX_DEPTH = 4;
+
+        private final Column[][] columns = new Column[MAX_DEPTH][];
+        private final int[] field = new int[MAX_DEPTH];   // next column of the open record at each depth
+        private final int[] records = new int[MAX_DEPTH]; // records so far in the open list at each depth
+        private int depth = -1;
+
+        JsonEncoder(Output out) {
+            super(out);
+        }
+
+        void begin(String report, Column[] columns) {
+            this.columns[0] = columns;
+        }
+
+        void beginRecord() throws IOException {
+            depth++;
+            if (depth > 0) {
+                columns[depth] = columns[depth - 1][field[depth - 1]].children;
+                if (records[depth]++ > 0) {
+                    out.write(',');
+                }
+            }
+            field[depth] = 0;
+            out.write('{');
+        }
+
+        void endRecord() throws IOException {
+            out.write('}');
+            if (depth == 0) {
+                out.write('\n');
+            }
+            depth--;
+        }
+
+        void beginList() throws IOException {
+            key();
+            out.write('[');
+            records[depth + 1] = 0;
+        }
+
+        void endList() throws IOException {
+            out.write(']');
+            field[depth]++;
+        }
+
+        void text(String value) throws IOException {
+            if (value == null) {
+                missing();
+                return;
+            }
+            key();
+            quoted(value);
+            field[depth]++;
+        }
+
+        void integer(long value) throws IOException {
+            key();
+            out.digits(value);
+            field[depth]++;
+        }
+
+        void decimal(double value) throws IOException {
+            key();
+            out.fixed(value);
+            field[depth]++;
+        }
+
+        void bool(boolean value) throws IOException {
+            key();
+            out.ascii(value ? "true" : "false");
+            field[depth]++;
+        }
+
+        void missing() throws IOException {
+            key();
+            out.ascii("null");
+            field[depth]++;
+        }
+
+        private void key() throws IOException {
+            if (field[depth] > 0) {
+                out.write(',');
+            }
+            quoted(columns[depth][field[depth]].name);
+            out.write(':');
+        }
+
+        private void quoted(String value) throws IOException {
+            out.write('"');
+            for (int i = 0; i < value.length(); ) {
+                int c = value.codePointAt(i);
+                i += Character.charCount(c);
+                switch (c) {
+                    case '"': out.ascii("\\\""); break;
+                    case '\\': out.ascii("\\\\"); break;
+                    case '\n': out.ascii("\\n"); break;
+                    case '\r': out.ascii("\\r"); break;
+                    case '\t': out.ascii("\\t"); break;
+                    default:
+                        if (c < 0x20) {
+                            out.ascii(String.format("\\u%04x", c));
+                        } else {
+                            out.codePoint(c);
+                        }
+                }
+            }
+            out.write('"');
+        }
+    }
+
+    // See the format at the top of the class
+    private static final class BinaryEncoder extends Encoder {
+        BinaryEncoder(Output out) {
+            super(out);
+        }
+
+        void begin(String report, Column[] columns) throws IOException {
+            out.ascii("SMSX");
+            out.write(BINARY_VERSION);
+            string(report);
+            columns(columns);
+        }
+
+        private void columns(Column[] columns) throws IOException {
+            out.varint(columns.length);
+            for (Column column : columns) {
+                string(column.name);
+                out.write(column.type);
+                if (column.type == LIST) {
+                    columns(column.children);
+                }
+            }
+        }
+
+        void beginRecord() throws IOException { out.write(1); }
+        void endRecord() { }
+        void beginList() { }
+        void endList() throws IOException { out.write(0); }
+
+        void text(String value) throws IOException { string(value != null ? value : ""); }
+        void integer(long value) throws IOException { out.varint((value << 1) ^ (value >> 63)); }
+        void decimal(double value) throws IOException { out.putDouble(value); }
+        void bool(boolean value) throws IOException { out.write(value ? 1 : 0); }
+        void missing() throws IOException { integer(-1); }
+
+        @Override
+        void end() throws IOException {
+            out.write(0);
+        }
+
+        private void string(String value) throws IOException {
+            out.varint(Output.utf8Length(value));
+            out.utf8(value);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package sms;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-subject result aggregates, maintained in O(1) per recorded result.
+//
+// Each subject keeps count, sum, sum of squares, passes and a score histogram
+// over its students' current scores. A retake first removes the replaced score,
+// so the figures always describe the latest result per student. Course figures
+// are merged from the course's subjects at query time, which costs
+// O(subjects in the course) and never touches the student list.
+//
+// A subject's figures are split over a few stripes by student id, merged when
+// read, so results for one popular subject do not all queue on one monitor.
+// A student always lands in the same stripe, so a retake stays within it.
+class ResultStatistics implements ResultStore.ResultListener {
+    static final int PASS_MARK = 60;
+    static final int BUCKETS = 11; // 0-9, 10-19, ..., 90-99, 100
+    private static final int STRIPES = 16;
+
+    private final SubjectTable subjects;
+    private final ConcurrentHashMap<Integer, Aggregate[]> bySubject = new ConcurrentHashMap<>();
+
+    public ResultStatistics(SubjectTable subjects) {
+        this.subjects = subjects;
+    }
+
+    // Aggregate over a set of scores; mutated only under its own monitor
+    static class Aggregate {
+        private long count;
+        private long sum;
+        private long sumOfSquares;
+        private long passed;
+        private final long[] histogram = new long[BUCKETS];
+
+        synchronized void add(int score, int sign) {
+            count += sign;
+            sum += sign * score;
+            sumOfSquares += (long) sign * score * score;
+            if (score >= PASS_MARK) {
+                passed += sign;
+            }
+            histogram[score / 10] += sign;
+        }
+
+        synchronized void merge(Aggregate other) {
+            synchronized (other) {
+                count += other.count;
+                sum += other.sum;
+                sumOfSquares += other.sumOfSquares;
+                passed += other.passed;
+                for (int i = 0; i < BUCKETS; i++) {
+                    histogram[i] += other.histogram[i];
+                }
+            }
+        }
+
+        synchronized Aggregate copy() {
+            Aggregate copy = new Aggregate();
+            copy.merge(this);
+            return copy;
+        }
+
+        public synchronized long getCount() { return count; }
+        public synchronized long getSum() { return sum; }
+        public synchronized long getSumOfSquares() { return sumOfSquares; }
+        public synchronized long getPassed() { return passed; }
+
+        public synchronized double getMean() {
+            return count == 0 ? 0.0 : (double) sum / count;
+        }
+
+        // Population variance
+        public synchronized double getVariance() {
+            if (count == 0) {
+                return 0.0;
+            }
+            double mean = (double) sum / count;
+            return Math.max(0.0, (double) sumOfSquares / count - mean * mean);
+        }
+
+        public synchronized double getPassRate() {
+            return count == 0 ? 0.0 : (double) passed / count;
+        }
+
+        public synchronized long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        // Restores figures saved in a snapshot
+        synchronized void set(long count, long sum, long sumOfSquares, long passed, long[] histogram) {
+            this.count = count;
+            this.sum = sum;
+            this.sumOfSquares = sumOfSquares;
+            this.passed = passed;
+            System.arraycopy(histogram, 0, this.histogram, 0, BUCKETS);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("Results: %d | Mean: %.1f | Std Dev: %.1f | Pass Rate: %.1f%%",
+                    count, getMean(), Math.sqrt(getVariance()), 100 * getPassRate());
+        }
+    }
+
+    @Override
+    public void onResult(int studentId, int subjectId, int previousScore, int score) {
+        Aggregate aggregate = stripes(subjectId)[studentId & (STRIPES - 1)];
+        if (previousScore >= 0) {
+            aggregate.add(previousScore, -1);
+        }
+        aggregate.add(score, 1);
+    }
+
+    // Snapshot of one subject's figures; empty if nobody took it yet
+    public Aggregate forSubject(String subject) {
+        int id = subjects.find(subject);
+        Aggregate merged = new Aggregate();
+        Aggregate[] stripes = id < 0 ? null : bySubject.get(id);
+        if (stripes != null) {
+            mergeInto(merged, stripes);
+        }
+        return merged;
+    }
+
+    // Merged figures over all subjects of the course, whose subject ids must
+    // come from the same SubjectTable
+    public Aggregate forCourse(Course course) {
+        Aggregate merged = new Aggregate();
+        for (int id : course.getSubjectIds()) {
+            Aggregate[] stripes = bySubject.get(id);
+            if (stripes != null) {
+                mergeInto(merged, stripes);
+            }
+        }
+        return merged;
+    }
+
+    // Figures by subject name, used when writing snapshots
+    public Map<String, Aggregate> getAll() {
+        Map<String, Aggregate> all = new TreeMap<>();
+        for (Map.Entry<Integer, Aggregate[]> entry : bySubject.entrySet()) {
+            Aggregate merged = new Aggregate();
+            mergeInto(merged, entry.getValue());
+            all.put(subjects.nameOf(entry.getKey()), merged);
+        }
+        return all;
+    }
+
+    // Seeds a subject's figures from a snapshot, all into the first stripe.
+    // A single stripe may then go negative as restored students retake; only
+    // the merged figures are meaningful.
+    public void restore(String subject, long count, long sum, long sumOfSquares, long passed, long[] histogram) {
+        Aggregate[] stripes = stripes(subjects.idOf(subject));
+        stripes[0].set(count, sum, sumOfSquares, passed, histogram);
+        for (int i = 1; i < STRIPES; i++) {
+            stripes[i].set(0, 0, 0, 0, new long[BUCKETS]);
+        }
+    }
+
+    private Aggregate[] stripes(int subjectId) {
+        Aggregate[] stripes = bySubject.get(subjectId);
+        if (stripes != null) {
+            return stripes;
+        }
+        return bySubject.computeIfAbsent(subjectId, id -> {
+            Aggregate[] created = new Aggregate[STRIPES];
+            for (int i = 0; i < STRIPES; i++) {
+                created[i] = new Aggregate();
+            }
+            return created;
+        });
+    }
+
+    private static void mergeInto(Aggregate merged, Aggregate[] stripes) {
+        for (Aggregate stripe : stripes) {
+            merged.merge(stripe);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package sms;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Columnar store for exam results.
+//
+// Each result is one row across primitive columns (student id, subject id,
+// score as a byte), so a term's results cost about 13 bytes each instead of a
+// boxed HashMap entry per student. Rows of the same student are chained
+// through the next-row column from a per-student head, which keeps per-student
+// lookups and updates proportional to that student's subject count, while
+// reporting scans walk the columns sequentially.
+//
+// Students are spread over independent stripes by id, each with its own
+// columns and read-write lock, so results for different students are recorded
+// in parallel and one student's update is atomic with respect to its readers.
+//
+// Listeners see every change made through put(), with the score it replaced,
+// so derived aggregates and indexes can be maintained incrementally. They are
+// called under the student's stripe lock, so each student's changes reach them
+// in order; they must not call back into the store. The version counts the
+// puts whose listeners have run, and stamps views rendered from the results.
+class ResultStore {
+    private static final int NONE = -1;
+    static final int STRIPES = 32;
+
+    private final SubjectTable subjects;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int stripeShift;
+
+    // Receives a single student's results
+    interface ResultConsumer {
+        void accept(int subjectId, int score);
+    }
+
+    // Receives every row during a scan
+    interface RowConsumer {
+        void accept(int studentId, int subjectId, int score);
+    }
+
+    // Notified after each put; previousScore is -1 for a first result
+    interface ResultListener {
+        void onResult(int studentId, int subjectId, int previousScore, int score);
+    }
+
+    private final List<ResultListener> listeners = new CopyOnWriteArrayList<>();
+    private final LongAdder version = new LongAdder();
+
+    public ResultStore(SubjectTable subjects) {
+        this(subjects, 1024, STRIPES);
+    }
+
+    // A single-stripe store, for a private store of few results
+    public ResultStore(SubjectTable subjects, int initialCapacity) {
+        this(subjects, initialCapacity, 1);
+    }
+
+    // stripes must be a power of two; initialCapacity is spread over them
+    public ResultStore(SubjectTable subjects, int initialCapacity, int stripes) {
+        if (Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Stripes must be a power of two: " + stripes);
+        }
+        this.subjects = subjects;
+        this.stripes = new Stripe[stripes];
+        this.stripeMask = stripes - 1;
+        this.stripeShift = Integer.numberOfTrailingZeros(stripes);
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe(Math.max(1, initialCapacity / stripes));
+        }
+    }
+
+    public SubjectTable getSubjects() { return subjects; }
+
+    public void addListener(ResultListener listener) {
+        listeners.add(listener);
+    }
+
+    // Grows with every put; never decreases
+    public long getVersion() {
+        return version.sum();
+    }
+
+    public int put(int studentId, String subject, int score) {
+        return put(studentId, subjects.idOf(subject), score);
+    }
+
+    // Stores the score, overwriting an earlier one for the same subject.
+    // Returns the previous score, or -1 if there was none.
+    public int put(int studentId, int subjectId, int score) {
+        checkScore(score);
+        Stripe stripe = stripeOf(studentId);
+        stripe.lock.writeLock().lock();
+        try {
+            int previous = stripe.store(studentId, studentId >>> stripeShift, subjectId, score);
+            for (ResultListener listener : listeners) {
+                listener.onResult(studentId, subjectId, previous, score);
+            }
+            version.increment();
+            return previous;
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    // Stores a result that derived aggregates already account for (snapshot
+    // materialization), without notifying the listeners
+    public void load(int studentId, String subject, int score) {
+        checkScore(score);
+        int subjectId = subjects.idOf(subject);
+        Stripe stripe = stripeOf(studentId);
+        stripe.lock.writeLock().lock();
+        try {
+            stripe.store(studentId, studentId >>> stripeShift, subjectId, score);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    // Returns the score, or -1 if the student has no result for the subject
+    public int get(int studentId, int subjectId) {
+        Stripe stripe = stripeOf(studentId);
+        int local = studentId >>> stripeShift;
+        stripe.lock.readLock().lock();
+        try {
+            if (local >= stripe.headRow.length) {
+                return NONE;
+            }
+            for (int row = stripe.headRow[local]; row != NONE; row = stripe.nextRow[row]) {
+                if (stripe.subjectColumn[row] == subjectId) {
+                    return stripe.scoreColumn[row];
+                }
+            }
+            return NONE;
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    // Visits the student's results in the order they were first recorded
+    public void forEachResult(int studentId, ResultConsumer consumer) {
+        Stripe stripe = stripeOf(studentId);
+        int local = studentId >>> stripeShift;
+        int[] subjectIds;
+        byte[] scores;
+        int count = 0;
+        stripe.lock.readLock().lock();
+        try {
+            if (local >= stripe.headRow.length) {
+                return;
+            }
+            for (int row = stripe.headRow[local]; row != NONE; row = stripe.nextRow[row]) {
+                count++;
+            }
+            subjectIds = new int[count];
+            scores = new byte[count];
+            int i = 0;
+            for (int row = stripe.headRow[local]; row != NONE; row = stripe.nextRow[row], i++) {
+                subjectIds[i] = stripe.subjectColumn[row];
+                scores[i] = stripe.scoreColumn[row];
+            }
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+        // Call back outside the lock
+        for (int i = 0; i < count; i++) {
+            consumer.accept(subjectIds[i], scores[i]);
+        }
+    }
+
+    public int countFor(int studentId) {
+        Stripe stripe = stripeOf(studentId);
+        int local = studentId >>> stripeShift;
+        stripe.lock.readLock().lock();
+        try {
+            int count = 0;
+            if (local < stripe.headRow.length) {
+                for (int row = stripe.headRow[local]; row != NONE; row = stripe.nextRow[row]) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    // Sequential scan over all rows, one stripe at a time under its read lock
+    public void scan(RowConsumer consumer) {
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                for (int row = 0; row < stripe.rowCount; row++) {
+                    consumer.accept(stripe.studentColumn[row], stripe.subjectColumn[row], stripe.scoreColumn[row]);
+                }
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                size += stripe.rowCount;
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    // Read-only Map view of one student's results, keyed by subject name
+    public Map<String, Integer> viewOf(int studentId) {
+        return new AbstractMap<String, Integer>() {
+            @Override
+            public Integer get(Object key) {
+                if (!(key instanceof String)) {
+                    return null;
+                }
+                int subjectId = subjects.find((String) key);
+                int score = subjectId < 0 ? NONE : ResultStore.this.get(studentId, subjectId);
+                return score == NONE ? null : score;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public int size() {
+                return countFor(studentId);
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return size() == 0;
+            }
+
+            @Override
+            public Set<Entry<String, Integer>> entrySet() {
+                return new AbstractSet<Entry<String, Integer>>() {
+                    @Override
+                    public Iterator<Entry<String, Integer>> iterator() {
+                        List<Entry<String, Integer>> entries = new ArrayList<>();
+                        forEachResult(studentId, (subjectId, score) -> entries.add(
+                                new SimpleImmutableEntry<>(subjects.nameOf(subjectId), score)));
+                        return entries.iterator();
+                    }
+
+                    @Override
+                    public int size() {
+                        return countFor(studentId);
+                    }
+                };
+            }
+        };
+    }
+
+    private Stripe stripeOf(int studentId) {
+        return stripes[studentId & stripeMask];
+    }
+
+    private static void checkScore(int score) {
+        if (score < 0 || score > 100) {
+            throw new IllegalArgumentException("Score must be between 0 and 100: " + score);
+        }
+    }
+
+    // The columns of the students whose id falls in one stripe; students are
+    // indexed by id >>> stripe bits. Guarded by lock.
+    private static final class Stripe {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        int[] studentColumn;
+        int[] subjectColumn;
+        byte[] scoreColumn;
+        int[] nextRow;
+        int[] headRow;
+        int rowCount;
+
+        Stripe(int capacity) {
+            this.studentColumn = new int[capacity];
+            this.subjectColumn = new int[capacity];
+            this.scoreColumn = new byte[capacity];
+            this.nextRow = new int[capacity];
+            this.headRow = newHeads(capacity, 0);
+        }
+
+        // Must hold the write lock
+        int store(int studentId, int local, int subjectId, int score) {
+            ensureStudent(local);
+            int last = NONE;
+            for (int row = headRow[local]; row != NONE; row = nextRow[row]) {
+                if (subjectColumn[row] == subjectId) {
+                    int previous = scoreColumn[row];
+                    scoreColumn[row] = (byte) score;
+                    return previous;
+                }
+                last = row;
+            }
+
+            ensureRows(rowCount + 1);
+            int row = rowCount++;
+            studentColumn[row] = studentId;
+            subjectColumn[row] = subjectId;
+            scoreColumn[row] = (byte) score;
+            nextRow[row] = NONE;
+            if (last == NONE) {
+                headRow[local] = row;
+            } else {
+                nextRow[last] = row;
+            }
+            return NONE;
+        }
+
+        private void ensureStudent(int local) {
+            if (local >= headRow.length) {
+                int size = headRow.length;
+                while (size <= local) {
+                    size *= 2;
+                }
+                int[] grown = newHeads(size, headRow.length);
+                System.arraycopy(headRow, 0, grown, 0, headRow.length);
+                headRow = grown;
+            }
+        }
+
+        private void ensureRows(int rows) {
+            if (rows > studentColumn.length) {
+                int size = studentColumn.length * 2;
+                studentColumn = Arrays.copyOf(studentColumn, size);
+                subjectColumn = Arrays.copyOf(subjectColumn, size);
+                scoreColumn = Arrays.copyOf(scoreColumn, size);
+                nextRow = Arrays.copyOf(nextRow, size);
+            }
+        }
+
+        private static int[] newHeads(int size, int from) {
+            int[] heads = new int[size];
+            Arrays.fill(heads, from, size, NONE);
+            return heads;
+        }
+    }
+}
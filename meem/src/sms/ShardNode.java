@@ -0,0 +1,463 @@
+package sms;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// One shard of the student registry and result store, served to ShardRouter
+// over TCP.
+//
+// Students belong to the shard picked by a hash of their normalized email
+// (shardOf), so each node holds only its part of the registry and results,
+// and capacity grows by adding shards. A request for a student of another
+// shard is refused with WRONG_SHARD, so a misconfigured router cannot split
+// a student over two shards.
+//
+// A shard has one leader and any number of followers. A follower is given
+// the other replicas of its shard and follows whichever of them answers
+// FOLLOW, which only the leader does, so after a promotion the remaining
+// followers move to the new leader. It receives the journal by log shipping:
+// first the leader's full state as journal records, then every batch the
+// leader's journal makes durable, in log order. The follower applies each
+// batch and appends it to its own journal, so it holds the same state and
+// can take over when promoted. Followers answer reads and refuse writes with READ_ONLY until
+// then. Shipping is asynchronous: a write is acknowledged once it is durable
+// on the leader, so batches not yet shipped when the leader dies are lost.
+// A follower that falls more than sms.shard.shipQueue batches behind is
+// disconnected and resyncs from the full state when it reconnects; every
+// journal record is idempotent, so the overlap replays safely.
+//
+// Each request is [op][arguments] and answered by [status][payload] before
+// the next one is read; strings are written with writeUTF. The log stream
+// after FOLLOW is [length][framed records], with a zero length as heartbeat.
+class ShardNode implements Closeable {
+    static final byte REGISTER = 1;       // n, then n x (name, email, age) -> n x accepted
+    static final byte LOGIN = 2;          // email -> name, email, age, results
+    static final byte RECORD_RESULTS = 3; // n, then n x (email, subject, score) -> n x recorded
+    static final byte COUNT = 4;          // -> students on this node
+    static final byte FOLLOW = 5;         // -> log stream until the connection closes (leader only)
+    static final byte PROMOTE = 6;        // stop following and take writes
+
+    static final byte OK = 0;
+    static final byte NOT_FOUND = 1;
+    static final byte WRONG_SHARD = 2;
+    static final byte READ_ONLY = 3;
+
+    private static final int SHIP_QUEUE = Integer.getInteger("sms.shard.shipQueue", 4096);
+    private static final int DUMP_CHUNK = 256 * 1024;
+    private static final long HEARTBEAT_MILLIS = 1000;
+    private static final int FOLLOW_TIMEOUT_MILLIS = 10_000;
+
+    private static final Metrics.Counter REQUESTS = Metrics.counter("shard.requests");
+    private static final Metrics.Counter BYTES_SHIPPED = Metrics.counter("shard.bytesShipped");
+    private static final Metrics.Counter BYTES_APPLIED = Metrics.counter("shard.bytesApplied");
+    private static final Metrics.Counter RESYNCS = Metrics.counter("shard.followerResyncs");
+
+    private final ManagementService service;
+    private final int shard;
+    private final int shards;
+    private final List<InetSocketAddress> replicas; // the others, for a follower
+    private volatile InetSocketAddress leaderAddress; // the one followed
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService connections;
+    private final List<Follower> followers = new CopyOnWriteArrayList<>();
+    private final Thread upstream;
+    private volatile Socket upstreamSocket;
+    private volatile boolean leader;
+    private volatile boolean running = true;
+
+    // Log stream to one follower. The journal's tap queues batches and the
+    // connection's thread sends them; a full queue cuts the follower off.
+    private static final class Follower {
+        final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(SHIP_QUEUE);
+        volatile boolean cutOff;
+    }
+
+    // Serves the given shard of shards on the port; replicas is empty for a
+    // leader, otherwise the other replicas of the shard, one of which leads.
+    // The service must be journaled.
+    public ShardNode(ManagementService service, int shard, int shards, int port,
+                     List<InetSocketAddress> replicas) throws IOException {
+        if (shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("Shard " + shard + " is not one of " + shards);
+        }
+        this.service = service;
+        this.shard = shard;
+        this.shards = shards;
+        this.replicas = new ArrayList<>(replicas);
+        this.leader = replicas.isEmpty();
+        service.setReplicationTap(this::ship);
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port), 1024);
+        this.connections = ExamServer.newSessionExecutor();
+        this.upstream = new Thread(this::follow, "shard-follower");
+        this.upstream.setDaemon(true);
+    }
+
+    // Shard owning the email. String.hashCode is fixed by the language spec,
+    // so every process agrees; the multiply spreads similar addresses.
+    static int shardOf(String email, int shards) {
+        int hash = StudentRepository.normalizeEmail(email).hashCode() * 0x9E3779B9;
+        return (int) (((hash & 0xFFFFFFFFL) * shards) >>> 32);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public boolean isLeader() {
+        return leader;
+    }
+
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    // Accepts connections until closed
+    public void serve() throws IOException {
+        System.out.println("Shard " + shard + "/" + shards + " listening on port " + getPort()
+                + (leader ? " as leader" : " following one of " + replicas));
+        if (!leader) {
+            upstream.start();
+        }
+        while (running) {
+            SocketChannel client;
+            try {
+                client = serverChannel.accept();
+            } catch (IOException e) {
+                if (!running) {
+                    return;
+                }
+                throw e;
+            }
+            connections.execute(() -> handle(client));
+        }
+    }
+
+    // Stops following and takes writes from now on
+    public void promote() {
+        if (leader) {
+            return;
+        }
+        leader = true;
+        upstream.interrupt();
+        closeQuietly(upstreamSocket);
+        System.out.println("Shard " + shard + "/" + shards + " promoted to leader");
+    }
+
+    private void handle(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            channel.socket().setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    channel.socket().getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    channel.socket().getOutputStream(), 1 << 16));
+            while (running) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                REQUESTS.increment();
+                if (op == FOLLOW) {
+                    if (!leader) {
+                        out.writeByte(READ_ONLY);
+                        out.flush();
+                        return;
+                    }
+                    streamLog(out);
+                    return;
+                }
+                respond(op, in, out);
+                out.flush();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            if (running) {
+                System.err.println("Shard connection ended with error: " + e.getMessage());
+            }
+        }
+    }
+
+    // Reads the whole request before answering, so a refusal leaves the
+    // connection usable
+    private void respond(byte op, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (op) {
+            case REGISTER: {
+                int count = in.readInt();
+                List<Student> batch = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    batch.add(new Student(in.readUTF(), in.readUTF(), in.readInt()));
+                }
+                List<String> emails = new ArrayList<>(count);
+                for (Student student : batch) {
+                    emails.add(student.getEmail());
+                }
+                if (refuseWrite(emails, out)) {
+                    return;
+                }
+                boolean[] accepted = service.registerStudents(batch);
+                out.writeByte(OK);
+                for (boolean ok : accepted) {
+                    out.writeBoolean(ok);
+                }
+                return;
+            }
+            case LOGIN: {
+                String email = in.readUTF();
+                if (!owns(email)) {
+                    out.writeByte(WRONG_SHARD);
+                    return;
+                }
+                Student student = service.login(email);
+                if (student == null) {
+                    out.writeByte(NOT_FOUND);
+                    return;
+                }
+                out.writeByte(OK);
+                out.writeUTF(student.getName());
+                out.writeUTF(student.getEmail());
+                out.writeInt(student.getAge());
+                Map<String, Integer> results = student.getExamResults();
+                List<Map.Entry<String, Integer>> entries = new ArrayList<>(results.entrySet());
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Integer> result : entries) {
+                    out.writeUTF(result.getKey());
+                    out.writeInt(result.getValue());
+                }
+                return;
+            }
+            case RECORD_RESULTS: {
+                int count = in.readInt();
+                List<String> emails = new ArrayList<>(count);
+                List<String> subjects = new ArrayList<>(count);
+                int[] scores = new int[count];
+                for (int i = 0; i < count; i++) {
+                    emails.add(in.readUTF());
+                    subjects.add(in.readUTF());
+                    scores[i] = in.readInt();
+                }
+                if (refuseWrite(emails, out)) {
+                    return;
+                }
+                boolean[] recorded = new boolean[count];
+                List<Student> found = new ArrayList<>(count);
+                List<String> foundSubjects = new ArrayList<>(count);
+                int[] foundScores = new int[count];
+                for (int i = 0; i < count; i++) {
+                    Student student = service.findStudent(emails.get(i));
+                    if (student != null) {
+                        foundScores[found.size()] = scores[i];
+                        found.add(student);
+                        foundSubjects.add(subjects.get(i));
+                        recorded[i] = true;
+                    }
+                }
+                if (!found.isEmpty()) {
+                    service.recordResults(found, foundSubjects, Arrays.copyOf(foundScores, found.size()));
+                }
+                out.writeByte(OK);
+                for (boolean ok : recorded) {
+                    out.writeBoolean(ok);
+                }
+                return;
+            }
+            case COUNT:
+                out.writeByte(OK);
+                out.writeInt(service.getStudentCount());
+                return;
+            case PROMOTE:
+                promote();
+                out.writeByte(OK);
+                return;
+            default:
+                throw new IOException("Unknown shard request: " + op);
+        }
+    }
+
+    // Answers READ_ONLY or WRONG_SHARD and returns true if this node may not
+    // apply writes for these students
+    private boolean refuseWrite(List<String> emails, DataOutputStream out) throws IOException {
+        if (!leader) {
+            out.writeByte(READ_ONLY);
+            return true;
+        }
+        for (String email : emails) {
+            if (!owns(email)) {
+                out.writeByte(WRONG_SHARD);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean owns(String email) {
+        return shardOf(email, shards) == shard;
+    }
+
+    // Journal tap: queues the batch for every follower, cutting off those
+    // whose queue is full
+    private void ship(byte[] frames) {
+        for (Follower follower : followers) {
+            if (!follower.queue.offer(frames)) {
+                follower.cutOff = true;
+                followers.remove(follower);
+            }
+        }
+    }
+
+    // Sends the full state, then the batches queued since the follower was
+    // registered. Registering first means no batch made durable after the
+    // state was read can be missed.
+    private void streamLog(DataOutputStream out) throws IOException {
+        Follower follower = new Follower();
+        followers.add(follower);
+        try {
+            out.writeByte(OK);
+            try {
+                service.dumpFrames(DUMP_CHUNK, chunk -> {
+                    try {
+                        sendFrames(out, chunk);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.flush();
+            while (running) {
+                byte[] frames;
+                try {
+                    frames = follower.queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (follower.cutOff) {
+                    RESYNCS.increment();
+                    return; // the follower reconnects and starts over
+                }
+                if (frames == null) {
+                    out.writeInt(0);
+                } else {
+                    sendFrames(out, frames);
+                }
+                if (follower.queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } finally {
+            followers.remove(follower);
+        }
+    }
+
+    private static void sendFrames(DataOutputStream out, byte[] frames) throws IOException {
+        out.writeInt(frames.length);
+        out.write(frames);
+        BYTES_SHIPPED.add(frames.length);
+    }
+
+    // Follower loop: asks each replica in turn, starting with the last
+    // leader, to ship its log, and streams it into the service until the
+    // leader goes away; waits a second after a round in which none leads.
+    // Runs until promoted.
+    private void follow() {
+        int first = 0;
+        while (running && !leader) {
+            boolean lost = false;
+            for (int i = 0; i < replicas.size() && !lost && running && !leader; i++) {
+                int index = (first + i) % replicas.size();
+                InetSocketAddress address = replicas.get(index);
+                try {
+                    follow(address);
+                } catch (IOException | UncheckedIOException e) {
+                    if (leader || !running) {
+                        return;
+                    }
+                    if (address.equals(leaderAddress)) {
+                        System.err.println("Shard " + shard + "/" + shards + " lost leader " + address + ": "
+                                + (e instanceof EOFException ? "connection closed" : e.getMessage()));
+                        leaderAddress = null;
+                        first = index;
+                        lost = true; // look for the next leader right away
+                    }
+                }
+            }
+            if (!lost && !leader) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Streams the replica's log until this node is promoted or the
+    // connection fails; returns at once if the replica is not the leader
+    private void follow(InetSocketAddress address) throws IOException {
+        try (Socket socket = new Socket()) {
+            upstreamSocket = socket;
+            if (leader) {
+                return;
+            }
+            socket.connect(address, FOLLOW_TIMEOUT_MILLIS);
+            socket.setSoTimeout(FOLLOW_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeByte(FOLLOW);
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            byte status = in.readByte();
+            if (status == READ_ONLY) {
+                return;
+            }
+            if (status != OK) {
+                throw new IOException("Leader refused to ship its log");
+            }
+            leaderAddress = address;
+            System.out.println("Shard " + shard + "/" + shards + " following " + address);
+            while (!leader) {
+                int length = in.readInt();
+                if (length == 0) {
+                    continue;
+                }
+                byte[] frames = new byte[length];
+                in.readFully(frames);
+                if (!leader) {
+                    service.applyShipped(frames);
+                    BYTES_APPLIED.add(length);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        upstream.interrupt();
+        closeQuietly(upstreamSocket);
+        serverChannel.close();
+        connections.shutdown();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package sms;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Client side of the sharded student registry (see ShardNode): sends each
+// request to the shard that owns the student's email, and batches to every
+// shard they touch, one request per shard.
+//
+// Every shard is a list of replicas, its leader first. Writes go to the
+// replica taken as the leader, or to whichever replica takes them if it
+// refuses; reads fall back to the followers, which may be a little behind.
+// A write is only sent to another replica when the first one certainly did
+// not apply it: it answered READ_ONLY, or the request never reached it. A
+// write that was sent but not answered (a timeout, a dropped connection) may
+// have been applied, so it fails instead of being resent.
+//
+// When no replica takes writes and the leader refused the connection, so its
+// process is gone, the first follower that answers is promoted and used as
+// the shard's leader from then on. A leader that is only slow is never
+// replaced, since it would keep taking writes from other routers. The other
+// followers move to the new leader by themselves (see ShardNode). Restart a
+// replaced leader as a follower, never as a leader.
+//
+// Connections are kept open and pooled per replica; a connection that fails
+// is dropped. A pooled connection is checked before each use, and dropped if
+// the node closed it while it sat idle, so the first write after a leader
+// died is never sent into a dead socket with an unknown outcome.
+//
+// Spec: replicas of a shard separated by commas, shards by semicolons, in
+// shard order, e.g. "localhost:7100,localhost:7101;localhost:7200,localhost:7201"
+class ShardRouter implements Closeable {
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int READ_TIMEOUT_MILLIS = Integer.getInteger("sms.shard.timeoutMillis", 10_000);
+
+    private static final Metrics.Counter FAILOVERS = Metrics.counter("shard.failovers");
+    private static final Metrics.Timer REQUEST_TIME = Metrics.timer("shard.request");
+
+    private final Replica[][] shards;
+    private final AtomicIntegerArray leaders;
+
+    // Writes the request and reads the payload that follows an OK
+    private interface Request<T> {
+        void write(DataOutputStream out) throws IOException;
+        T read(byte status, DataInputStream in) throws IOException;
+    }
+
+    // Answer of a follower to a write
+    private static final class ReadOnlyException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ReadOnlyException(InetSocketAddress address) {
+            super(address + " is a follower");
+        }
+    }
+
+    // The request did not reach the replica in full, so it had no effect
+    private static final class NotSentException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NotSentException(InetSocketAddress address, IOException cause) {
+            super("Could not send to " + address + ": " + cause.getMessage(), cause);
+        }
+
+        // The replica's port is closed: nothing is serving it
+        boolean isRefused() {
+            return getCause() instanceof ConnectException;
+        }
+    }
+
+    private static final class Connection implements Closeable {
+        final SocketChannel channel;
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(InetSocketAddress address) throws IOException {
+            channel = SocketChannel.open();
+            socket = channel.socket();
+            try {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        // False if the node closed the connection (or sent something
+        // unasked) since the last exchange; never blocks
+        boolean isIdle() {
+            try {
+                if (in.available() > 0) {
+                    return false;
+                }
+                synchronized (channel.blockingLock()) {
+                    channel.configureBlocking(false);
+                    try {
+                        return channel.read(ByteBuffer.allocate(1)) == 0;
+                    } finally {
+                        channel.configureBlocking(true);
+                    }
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static final class Replica {
+        final InetSocketAddress address;
+        final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+
+        Replica(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        // Sends the request on a pooled connection, returning it to the pool
+        // only after a complete exchange. Pooled connections the node closed
+        // are dropped unused. One may still close in between: if sending
+        // fails, the node cannot have read the whole request, so it is sent
+        // again on a new connection. Throws NotSentException if it never
+        // reached the node; any other IOException leaves its outcome unknown.
+        <T> T call(Request<T> request) throws IOException {
+            Connection pooled;
+            while ((pooled = idle.poll()) != null && !pooled.isIdle()) {
+                pooled.close();
+            }
+            if (pooled != null) {
+                try {
+                    return exchange(pooled, request);
+                } catch (NotSentException e) {
+                    // Stale; try a fresh connection
+                } catch (ReadOnlyException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // The node may have restarted; the other pooled
+                    // connections would fail the same way
+                    close();
+                    throw e;
+                }
+            }
+            Connection connection;
+            try {
+                connection = new Connection(address);
+            } catch (IOException e) {
+                throw new NotSentException(address, e);
+            }
+            return exchange(connection, request);
+        }
+
+        private <T> T exchange(Connection connection, Request<T> request) throws IOException {
+            long started = REQUEST_TIME.start();
+            try {
+                try {
+                    request.write(connection.out);
+                    connection.out.flush();
+                } catch (IOException e) {
+                    throw new NotSentException(address, e);
+                }
+                byte status = connection.in.readByte();
+                if (status == ShardNode.READ_ONLY) {
+                    idle.add(connection);
+                    throw new ReadOnlyException(address);
+                }
+                if (status == ShardNode.WRONG_SHARD) {
+                    idle.add(connection);
+                    throw new IllegalStateException(address + " does not own the student; check the shard order");
+                }
+                T result = request.read(status, connection.in);
+                idle.add(connection);
+                REQUEST_TIME.stop(started);
+                return result;
+            } catch (IOException e) {
+                if (!(e instanceof ReadOnlyException)) {
+                    connection.close();
+                }
+                throw e;
+            }
+        }
+
+        void close() {
+            Connection connection;
+            while ((connection = idle.poll()) != null) {
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+        }
+    }
+
+    public ShardRouter(List<List<InetSocketAddress>> replicas) {
+        if (replicas.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        shards = new Replica[replicas.size()][];
+        for (int s = 0; s < shards.length; s++) {
+            List<InetSocketAddress> addresses = replicas.get(s);
+            if (addresses.isEmpty()) {
+                throw new IllegalArgumentException("Shard " + s + " has no replicas");
+            }
+            shards[s] = new Replica[addresses.size()];
+            for (int r = 0; r < addresses.size(); r++) {
+                shards[s][r] = new Replica(addresses.get(r));
+            }
+        }
+        leaders = new AtomicIntegerArray(shards.length);
+    }
+
+    public static ShardRouter parse(String spec) {
+        List<List<InetSocketAddress>> replicas = new ArrayList<>();
+        for (String shard : spec.split(";")) {
+            replicas.add(parseReplicas(shard));
+        }
+        return new ShardRouter(replicas);
+    }
+
+    // Replicas of one shard, host:port separated by commas
+    static List<InetSocketAddress> parseReplicas(String shard) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String replica : shard.split(",")) {
+            addresses.add(parseAddress(replica));
+        }
+        return addresses;
+    }
+
+    static InetSocketAddress parseAddress(String hostAndPort) {
+        String trimmed = hostAndPort.trim();
+        int colon = trimmed.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Expected host:port, got '" + hostAndPort + "'");
+        }
+        return new InetSocketAddress(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1)));
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int shardOf(String email) {
+        return ShardNode.shardOf(email, shards.length);
+    }
+
+    // False if the email is already registered
+    public boolean register(String name, String email, int age) {
+        return registerAll(Collections.singletonList(new Student(name, email, age)))[0];
+    }
+
+    // Registers the batch with one request per shard; returns which entries
+    // were accepted (false = duplicate email)
+    public boolean[] registerAll(List<Student> batch) {
+        boolean[] accepted = new boolean[batch.size()];
+        List<List<Integer>> byShard = partition(batch.size(), i -> batch.get(i).getEmail());
+        for (int s = 0; s < shards.length; s++) {
+            List<Integer> indexes = byShard.get(s);
+            if (indexes.isEmpty()) {
+                continue;
+            }
+            boolean[] shardAccepted = write(s, new Request<boolean[]>() {
+                public void write(DataOutputStream out) throws IOException {
+                    out.writeByte(ShardNode.REGISTER);
+                    out.writeInt(indexes.size());
+                    for (int i : indexes) {
+                        Student student = batch.get(i);
+                        out.writeUTF(student.getName());
+                        out.writeUTF(student.getEmail());
+                        out.writeInt(student.getAge());
+                    }
+                }
+
+                public boolean[] read(byte status, DataInputStream in) throws IOException {
+                    return readFlags(in, indexes.size());
+                }
+            });
+            for (int k = 0; k < indexes.size(); k++) {
+                accepted[indexes.get(k)] = shardAccepted[k];
+            }
+        }
+        return accepted;
+    }
+
+    // The student with its results as stored on its shard, or null if the
+    // email is not registered. The student is detached: it belongs to no
+    // registry here.
+    public Student login(String email) {
+        return read(shardOf(email), new Request<Student>() {
+            public void write(DataOutputStream out) throws IOException {
+                out.writeByte(ShardNode.LOGIN);
+                out.writeUTF(email);
+            }
+
+            public Student read(byte status, DataInputStream in) throws IOException {
+                if (status == ShardNode.NOT_FOUND) {
+                    return null;
+                }
+                Student student = new Student(in.readUTF(), in.readUTF(), in.readInt());
+                int results = in.readInt();
+                for (int i = 0; i < results; i++) {
+                    student.addExamResult(in.readUTF(), in.readInt());
+                }
+                return student;
+            }
+        });
+    }
+
+    // False if the email is not registered
+    public boolean addExamResult(String email, String subject, int score) {
+        return addExamResults(Collections.singletonList(email),
+                Collections.singletonList(subject), new int[] {score})[0];
+    }
+
+    // Records the results with one request per shard; returns which entries
+    // were recorded (false = email not registered)
+    public boolean[] addExamResults(List<String> emails, List<String> subjects, int[] scores) {
+        boolean[] recorded = new boolean[emails.size()];
+        List<List<Integer>> byShard = partition(emails.size(), emails::get);
+        for (int s = 0; s < shards.length; s++) {
+            List<Integer> indexes = byShard.get(s);
+            if (indexes.isEmpty()) {
+                continue;
+            }
+            boolean[] shardRecorded = write(s, new Request<boolean[]>() {
+                public void write(DataOutputStream out) throws IOException {
+                    out.writeByte(ShardNode.RECORD_RESULTS);
+                    out.writeInt(indexes.size());
+                    for (int i : indexes) {
+                        out.writeUTF(emails.get(i));
+                        out.writeUTF(subjects.get(i));
+                        out.writeInt(scores[i]);
+                    }
+                }
+
+                public boolean[] read(byte status, DataInputStream in) throws IOException {
+                    return readFlags(in, indexes.size());
+                }
+            });
+            for (int k = 0; k < indexes.size(); k++) {
+                recorded[indexes.get(k)] = shardRecorded[k];
+            }
+        }
+        return recorded;
+    }
+
+    // Students registered on all shards
+    public int count() {
+        int total = 0;
+        for (int s = 0; s < shards.length; s++) {
+            total += read(s, new Request<Integer>() {
+                public void write(DataOutputStream out) throws IOException {
+                    out.writeByte(ShardNode.COUNT);
+                }
+
+                public Integer read(byte status, DataInputStream in) throws IOException {
+                    return in.readInt();
+                }
+            });
+        }
+        return total;
+    }
+
+    private List<List<Integer>> partition(int size, java.util.function.IntFunction<String> email) {
+        List<List<Integer>> byShard = new ArrayList<>(shards.length);
+        for (int s = 0; s < shards.length; s++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (int i = 0; i < size; i++) {
+            byShard.get(shardOf(email.apply(i))).add(i);
+        }
+        return byShard;
+    }
+
+    private static boolean[] readFlags(DataInputStream in, int count) throws IOException {
+        boolean[] flags = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            flags[i] = in.readBoolean();
+        }
+        return flags;
+    }
+
+    // Sends a write to the shard's leader. If it is unreachable or a
+    // follower, the other replicas are tried in case one was promoted; if
+    // none takes writes and the leader refused the connection, the first
+    // follower that answers is promoted. A write sent without an answer is
+    // not retried anywhere, as it may have been applied.
+    private <T> T write(int shard, Request<T> request) {
+        Replica[] replicas = shards[shard];
+        int leader = leaders.get(shard);
+        IOException failure = null;
+        boolean leaderRefused = false;
+        for (int i = 0; i < replicas.length; i++) {
+            int index = (leader + i) % replicas.length;
+            try {
+                T result = replicas[index].call(request);
+                leaders.compareAndSet(shard, leader, index);
+                return result;
+            } catch (ReadOnlyException e) {
+                failure = e;
+            } catch (NotSentException e) {
+                failure = e;
+                leaderRefused |= i == 0 && e.isRefused();
+            } catch (IOException e) {
+                throw unanswered(replicas[index], e);
+            }
+        }
+        if (!leaderRefused) {
+            throw new UncheckedIOException("No replica of shard " + shard + " takes writes", failure);
+        }
+        for (int i = 1; i < replicas.length; i++) {
+            int index = (leader + i) % replicas.length;
+            try {
+                replicas[index].call(PROMOTE);
+            } catch (IOException e) {
+                failure = e;
+                continue;
+            }
+            FAILOVERS.increment();
+            System.err.println("Shard " + shard + ": promoted " + replicas[index].address + " to leader");
+            leaders.set(shard, index);
+            try {
+                return replicas[index].call(request);
+            } catch (IOException e) {
+                throw unanswered(replicas[index], e);
+            }
+        }
+        throw new UncheckedIOException("No replica of shard " + shard + " takes writes", failure);
+    }
+
+    private static UncheckedIOException unanswered(Replica replica, IOException e) {
+        if (e instanceof NotSentException || e instanceof ReadOnlyException) {
+            return new UncheckedIOException("Write not applied by " + replica.address, e);
+        }
+        return new UncheckedIOException("No answer from " + replica.address
+                + "; the write may or may not have been applied", e);
+    }
+
+    // Sends a read to the shard's leader, falling back to its followers
+    private <T> T read(int shard, Request<T> request) {
+        Replica[] replicas = shards[shard];
+        int leader = leaders.get(shard);
+        IOException failure = null;
+        for (int i = 0; i < replicas.length; i++) {
+            try {
+                return replicas[(leader + i) % replicas.length].call(request);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        throw new UncheckedIOException("No replica of shard " + shard + " is reachable", failure);
+    }
+
+    private static final Request<Void> PROMOTE = new Request<Void>() {
+        public void write(DataOutputStream out) throws IOException {
+            out.writeByte(ShardNode.PROMOTE);
+        }
+
+        public Void read(byte status, DataInputStream in) {
+            return null;
+        }
+    };
+
+    @Override
+    public void close() {
+        for (Replica[] replicas : shards) {
+            for (Replica replica : replicas) {
+                replica.close();
+            }
+        }
+    }
+}
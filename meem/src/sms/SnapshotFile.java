@@ -0,0 +1,667 @@
+package sms;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Binary snapshot of courses, students, selections, exam results and question banks.
+//
+// Layout (big-endian):
+//   header   magic, version, covered journal segment, course and student counts,
+//            offsets of the course section, student offset table, email index,
+//            stats, ranks, seats and banks, and the number of records written
+//   courses  name, capacity, subject count, subjects
+//   students name, email, age, selected course, selected subjects, results
+//   offsets  one long per student, in registration order
+//   index    student ordinals sorted by normalized email
+//   stats    per-subject result aggregates (see ResultStatistics)
+//   ranks    per-subject student ordinals grouped by score (see Leaderboards)
+//   seats    per-course count of enrolled students (see CourseSeats)
+//   banks    per-subject questions: text, options, answer (see QuestionBank)
+//
+// The file is opened with FileChannel.map and nothing is decoded up front.
+// Students are materialized one at a time on first access, and login looks
+// the email up by binary search over the mapped index.
+//
+// Snapshots of earlier versions still load. Sections they lack are derived
+// from the students: version 1 has no stats, versions 1-2 no ranks, and
+// versions 1-3 no capacities (all courses are unlimited) and no seats.
+// Versions 1-4 hold no banks (hasQuestions is false), and versions 1-5 do
+// not record their record count. The next compaction rewrites the file in
+// the current version.
+class SnapshotFile {
+    private static final int MAGIC = 0x534d5332; // "SMS2"
+    private static final int VERSION = 6;
+    private static final int HEADER_SIZE = 88;
+
+    private final ByteBuffer buffer;
+    private final int version;
+    private final long coveredSegment;
+    private final int courseCount;
+    private final int studentCount;
+    private final int coursesOffset;
+    private final int offsetsOffset;
+    private final int emailIndexOffset;
+    private final int statsOffset;
+    private final int ranksOffset;
+    private final int seatsOffset;
+    private final int banksOffset;
+    private final long recordCount;
+
+    private SnapshotFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        this.version = buffer.getInt(4);
+        if (buffer.getInt(0) != MAGIC || version < 1 || version > VERSION) {
+            throw new IOException("Unsupported snapshot format (version " + version + ")");
+        }
+        this.coveredSegment = buffer.getLong(8);
+        this.courseCount = buffer.getInt(16);
+        this.studentCount = buffer.getInt(20);
+        this.coursesOffset = (int) buffer.getLong(24);
+        this.offsetsOffset = (int) buffer.getLong(32);
+        this.emailIndexOffset = (int) buffer.getLong(40);
+        this.statsOffset = version >= 2 ? (int) buffer.getLong(48) : -1;
+        this.ranksOffset = version >= 3 ? (int) buffer.getLong(56) : -1;
+        this.seatsOffset = version >= 4 ? (int) buffer.getLong(64) : -1;
+        this.banksOffset = version >= 5 ? (int) buffer.getLong(72) : -1;
+        this.recordCount = version >= 6 ? buffer.getLong(80) : -1;
+    }
+
+    static SnapshotFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot larger than 2GB: " + path);
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new SnapshotFile(mapped);
+        }
+    }
+
+    public long getCoveredSegment() { return coveredSegment; }
+    public int getStudentCount() { return studentCount; }
+
+    // False for older versions, which were written before banks were kept
+    public boolean hasQuestions() { return banksOffset >= 0; }
+
+    // Journal records the snapshot was written from, or -1 if an older
+    // version did not record it
+    public long getRecordCount() { return recordCount; }
+
+    // Adds the snapshot's courses, their capacities and subjects to the catalog
+    public void readCourses(CourseCatalog catalog) {
+        Reader in = new Reader(coursesOffset);
+        for (int i = 0; i < courseCount; i++) {
+            String name = in.readString();
+            Course course = catalog.add(name);
+            if (course == null) {
+                course = catalog.find(name);
+            }
+            if (version >= 4) {
+                course.getSeats().setCapacity(in.readInt());
+            }
+            int subjects = in.readInt();
+            for (int j = 0; j < subjects; j++) {
+                course.addSubject(in.readString());
+            }
+        }
+    }
+
+    // Materializes the student, attached to the given result store under its ordinal
+    public Student readStudent(int ordinal, ResultStore results) {
+        Reader in = new Reader((int) buffer.getLong(offsetsOffset + 8 * ordinal));
+        String name = in.readString();
+        String email = in.readString();
+        Student student = new Student(name, email, in.readInt());
+        student.attach(results, ordinal);
+        String course = in.readString();
+        if (!course.isEmpty()) {
+            student.setSelectedCourse(course);
+        }
+        int selected = in.readInt();
+        for (int i = 0; i < selected; i++) {
+            student.addSelectedSubject(in.readString());
+        }
+        int resultCount = in.readInt();
+        for (int i = 0; i < resultCount; i++) {
+            String subject = in.readString();
+            results.load(ordinal, subject, in.readByte());
+        }
+        return student;
+    }
+
+    // Seeds the aggregates, which already cover every student in the snapshot
+    public void readStatistics(ResultStatistics statistics) {
+        if (statsOffset < 0) {
+            Map<String, ResultStatistics.Aggregate> derived = new HashMap<>();
+            scanResults((ordinal, subject, score) ->
+                    derived.computeIfAbsent(subject, name -> new ResultStatistics.Aggregate()).add(score, 1));
+            for (Map.Entry<String, ResultStatistics.Aggregate> entry : derived.entrySet()) {
+                ResultStatistics.Aggregate aggregate = entry.getValue();
+                statistics.restore(entry.getKey(), aggregate.getCount(), aggregate.getSum(),
+                        aggregate.getSumOfSquares(), aggregate.getPassed(), aggregate.getHistogram());
+            }
+            return;
+        }
+        Reader in = new Reader(statsOffset);
+        int subjects = in.readInt();
+        long[] histogram = new long[ResultStatistics.BUCKETS];
+        for (int i = 0; i < subjects; i++) {
+            String subject = in.readString();
+            long count = in.readLong();
+            long sum = in.readLong();
+            long sumOfSquares = in.readLong();
+            long passed = in.readLong();
+            for (int b = 0; b < histogram.length; b++) {
+                histogram[b] = in.readLong();
+            }
+            statistics.restore(subject, count, sum, sumOfSquares, passed, histogram);
+        }
+    }
+
+    // Seeds the score buckets, which already cover every student in the snapshot
+    public void readLeaderboards(Leaderboards leaderboards) {
+        if (ranksOffset < 0) {
+            Map<String, IntList[]> derived = new HashMap<>();
+            scanResults((ordinal, subject, score) -> {
+                IntList[] buckets = derived.computeIfAbsent(subject, name -> new IntList[Leaderboards.SCORES]);
+                if (buckets[score] == null) {
+                    buckets[score] = new IntList();
+                }
+                buckets[score].add(ordinal);
+            });
+            for (Map.Entry<String, IntList[]> entry : derived.entrySet()) {
+                IntList[] buckets = entry.getValue();
+                for (int score = 0; score < buckets.length; score++) {
+                    if (buckets[score] != null) {
+                        leaderboards.restore(entry.getKey(), score,
+                                Arrays.copyOf(buckets[score].values, buckets[score].size));
+                    }
+                }
+            }
+            return;
+        }
+        Reader in = new Reader(ranksOffset);
+        int subjects = in.readInt();
+        for (int i = 0; i < subjects; i++) {
+            String subject = in.readString();
+            int buckets = in.readInt();
+            for (int b = 0; b < buckets; b++) {
+                int score = in.readByte();
+                int[] ordinals = new int[in.readInt()];
+                for (int j = 0; j < ordinals.length; j++) {
+                    ordinals[j] = in.readInt();
+                }
+                leaderboards.restore(subject, score, ordinals);
+            }
+        }
+    }
+
+    // Takes the seats held by the snapshot's students, which are not
+    // materialized to find their courses
+    public void readSeats(CourseCatalog catalog) {
+        if (seatsOffset < 0) {
+            for (int ordinal = 0; ordinal < studentCount; ordinal++) {
+                String name = readCourse(ordinal);
+                Course course = name != null ? catalog.find(name) : null;
+                if (course != null) {
+                    course.getSeats().takeForced(1);
+                }
+            }
+            return;
+        }
+        Reader in = new Reader(seatsOffset);
+        int courses = in.readInt();
+        for (int i = 0; i < courses; i++) {
+            Course course = catalog.find(in.readString());
+            int enrolled = in.readInt();
+            if (course != null) {
+                course.getSeats().takeForced(enrolled);
+            }
+        }
+    }
+
+    // Publishes the snapshot's banks, one per subject
+    public void readQuestions(QuestionBank bank) {
+        if (banksOffset < 0) {
+            return;
+        }
+        Reader in = new Reader(banksOffset);
+        int subjects = in.readInt();
+        for (int i = 0; i < subjects; i++) {
+            String subject = in.readString();
+            int count = in.readInt();
+            List<Question> questions = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                String text = in.readString();
+                String[] options = new String[in.readByte()];
+                for (int k = 0; k < options.length; k++) {
+                    options[k] = in.readString();
+                }
+                questions.add(new Question(text, options, in.readByte()));
+            }
+            bank.replace(subject, questions);
+        }
+    }
+
+    // Binary search over the email index; returns the ordinal or -1
+    public int findStudent(String normalizedEmail) {
+        int low = 0;
+        int high = studentCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int ordinal = buffer.getInt(emailIndexOffset + 4 * mid);
+            int cmp = emailAt(ordinal).compareTo(normalizedEmail);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return ordinal;
+            }
+        }
+        return -1;
+    }
+
+    // Name and email of one student, decoded without materializing it
+    public String readName(int ordinal) {
+        return new Reader((int) buffer.getLong(offsetsOffset + 8 * ordinal)).readString();
+    }
+
+    public String readEmail(int ordinal) {
+        Reader in = new Reader((int) buffer.getLong(offsetsOffset + 8 * ordinal));
+        in.skipString();
+        return in.readString();
+    }
+
+    // Selected course of one student, or null if none
+    public String readCourse(int ordinal) {
+        Reader in = new Reader((int) buffer.getLong(offsetsOffset + 8 * ordinal));
+        in.skipString();
+        in.skipString();
+        in.readInt();
+        String course = in.readString();
+        return course.isEmpty() ? null : course;
+    }
+
+    // Visits one student's results, with subject ids from the given table
+    public void readResults(int ordinal, SubjectTable subjects, ResultStore.ResultConsumer consumer) {
+        Reader in = new Reader((int) buffer.getLong(offsetsOffset + 8 * ordinal));
+        in.skipString();
+        in.skipString();
+        in.readInt();
+        in.skipString();
+        int selected = in.readInt();
+        for (int i = 0; i < selected; i++) {
+            in.skipString();
+        }
+        int resultCount = in.readInt();
+        for (int i = 0; i < resultCount; i++) {
+            int subjectId = subjects.idOf(in.readString());
+            consumer.accept(subjectId, in.readByte());
+        }
+    }
+
+    private interface ResultVisitor {
+        void visit(int ordinal, String subject, int score);
+    }
+
+    // Visits every stored result, for sections an older snapshot lacks
+    private void scanResults(ResultVisitor visitor) {
+        SubjectTable names = new SubjectTable();
+        for (int ordinal = 0; ordinal < studentCount; ordinal++) {
+            int student = ordinal;
+            readResults(ordinal, names, (subjectId, score) -> visitor.visit(student, names.nameOf(subjectId), score));
+        }
+    }
+
+    private String emailAt(int ordinal) {
+        return StudentRepository.normalizeEmail(readEmail(ordinal));
+    }
+
+    // Sequential reader over the mapped buffer, using absolute offsets so
+    // concurrent readers never share a position
+    private class Reader {
+        private int position;
+
+        Reader(int position) {
+            this.position = position;
+        }
+
+        int readInt() {
+            int value = buffer.getInt(position);
+            position += 4;
+            return value;
+        }
+
+        long readLong() {
+            long value = buffer.getLong(position);
+            position += 8;
+            return value;
+        }
+
+        byte readByte() {
+            return buffer.get(position++);
+        }
+
+        String readString() {
+            int length = readInt();
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(position);
+            slice.limit(position + length);
+            position += length;
+            return StandardCharsets.UTF_8.decode(slice).toString();
+        }
+
+        void skipString() {
+            int length = readInt();
+            position += length;
+        }
+    }
+
+    // Streams state emitted through the journal handler into a snapshot file.
+    // Records arrive as courses with their subjects and capacities, then each
+    // student followed by its selections and results, then the banks.
+    static class Writer implements Journal.Handler, Closeable {
+        private final FileChannel channel;
+        private final CountingOutputStream counter;
+        private final DataOutputStream out;
+        private final long coveredSegment;
+
+        private final Map<String, Set<String>> courses = new LinkedHashMap<>();
+        private final Map<String, Integer> capacities = new HashMap<>();
+        private final Map<String, Integer> enrolled = new LinkedHashMap<>();
+        private boolean coursesWritten;
+        private long coursesOffset;
+
+        private final List<Long> offsets = new ArrayList<>();
+        private final List<String> emails = new ArrayList<>();
+
+        private String name;
+        private String email;
+        private int age;
+        private String selectedCourse;
+        private final List<String> selectedSubjects = new ArrayList<>();
+        private final Map<String, Integer> results = new LinkedHashMap<>();
+        private final Map<String, ResultStatistics.Aggregate> statistics = new TreeMap<>();
+        private final Map<String, IntList[]> ranks = new TreeMap<>();
+        private final Map<String, List<Question>> banks = new LinkedHashMap<>();
+        private long records;
+
+        Writer(Path path, long coveredSegment) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.counter = new CountingOutputStream(new BufferedOutputStream(
+                    java.nio.channels.Channels.newOutputStream(channel), 1 << 16));
+            this.out = new DataOutputStream(counter);
+            this.coveredSegment = coveredSegment;
+            write(() -> out.write(new byte[HEADER_SIZE]));
+        }
+
+        // Number of records written, used to pace the next compaction
+        public long getRecordCount() { return records; }
+
+        public void addCourse(String courseName) {
+            records++;
+            courses.putIfAbsent(courseName, new LinkedHashSet<>());
+        }
+
+        public void addSubject(String courseName, String subject) {
+            records++;
+            Set<String> subjects = courses.get(courseName);
+            if (subjects != null) {
+                subjects.add(subject);
+            }
+        }
+
+        public void setCapacity(String courseName, int capacity) {
+            records++;
+            capacities.put(courseName, capacity);
+        }
+
+        public void registerStudent(String name, String email, int age) {
+            records++;
+            flushStudent();
+            this.name = name;
+            this.email = email;
+            this.age = age;
+        }
+
+        public void selectCourse(String email, String courseName) {
+            records++;
+            selectedCourse = courseName;
+        }
+
+        public void selectSubject(String email, String subject) {
+            records++;
+            selectedSubjects.add(subject);
+        }
+
+        public void examResult(String email, String subject, int score) {
+            records++;
+            results.put(subject, score);
+        }
+
+        // Counted per question, as the journal splits large banks over records
+        public void replaceQuestions(String subject, List<Question> questions) {
+            records += Math.max(1, questions.size());
+            banks.put(subject, new ArrayList<>(questions));
+        }
+
+        public void addQuestions(String subject, List<Question> questions) {
+            records += Math.max(1, questions.size());
+            banks.computeIfAbsent(subject, name -> new ArrayList<>()).addAll(questions);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushStudent();
+                writeCourses();
+                long offsetsOffset = position();
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+                long emailIndexOffset = position();
+                Integer[] order = new Integer[emails.size()];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> emails.get(a).compareTo(emails.get(b)));
+                for (int ordinal : order) {
+                    out.writeInt(ordinal);
+                }
+                long statsOffset = position();
+                out.writeInt(statistics.size());
+                for (Map.Entry<String, ResultStatistics.Aggregate> entry : statistics.entrySet()) {
+                    ResultStatistics.Aggregate aggregate = entry.getValue();
+                    writeString(entry.getKey());
+                    out.writeLong(aggregate.getCount());
+                    out.writeLong(aggregate.getSum());
+                    out.writeLong(aggregate.getSumOfSquares());
+                    out.writeLong(aggregate.getPassed());
+                    for (long bucket : aggregate.getHistogram()) {
+                        out.writeLong(bucket);
+                    }
+                }
+                long ranksOffset = position();
+                out.writeInt(ranks.size());
+                for (Map.Entry<String, IntList[]> entry : ranks.entrySet()) {
+                    writeString(entry.getKey());
+                    IntList[] buckets = entry.getValue();
+                    int nonEmpty = 0;
+                    for (IntList bucket : buckets) {
+                        if (bucket != null) {
+                            nonEmpty++;
+                        }
+                    }
+                    out.writeInt(nonEmpty);
+                    for (int score = 0; score < buckets.length; score++) {
+                        if (buckets[score] != null) {
+                            out.writeByte(score);
+                            out.writeInt(buckets[score].size);
+                            for (int i = 0; i < buckets[score].size; i++) {
+                                out.writeInt(buckets[score].values[i]);
+                            }
+                        }
+                    }
+                }
+                long seatsOffset = position();
+                out.writeInt(enrolled.size());
+                for (Map.Entry<String, Integer> entry : enrolled.entrySet()) {
+                    writeString(entry.getKey());
+                    out.writeInt(entry.getValue());
+                }
+                long banksOffset = position();
+                out.writeInt(banks.size());
+                for (Map.Entry<String, List<Question>> entry : banks.entrySet()) {
+                    writeString(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (Question question : entry.getValue()) {
+                        writeString(question.getQuestion());
+                        out.writeByte(question.getOptionCount());
+                        for (int i = 0; i < question.getOptionCount(); i++) {
+                            writeString(question.getOption(i));
+                        }
+                        out.writeByte(question.getCorrectAnswer());
+                    }
+                }
+                out.flush();
+                if (position() > Integer.MAX_VALUE) {
+                    throw new IOException("Snapshot larger than 2GB");
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putLong(coveredSegment)
+                        .putInt(courses.size()).putInt(offsets.size())
+                        .putLong(coursesOffset).putLong(offsetsOffset).putLong(emailIndexOffset)
+                        .putLong(statsOffset).putLong(ranksOffset).putLong(seatsOffset)
+                        .putLong(banksOffset).putLong(records);
+                header.clear();
+                channel.write(header, 0);
+                channel.force(true);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void writeCourses() {
+            if (coursesWritten) {
+                return;
+            }
+            coursesWritten = true;
+            write(() -> {
+                coursesOffset = position();
+                for (Map.Entry<String, Set<String>> course : courses.entrySet()) {
+                    writeString(course.getKey());
+                    out.writeInt(capacities.getOrDefault(course.getKey(), CourseSeats.UNLIMITED));
+                    out.writeInt(course.getValue().size());
+                    for (String subject : course.getValue()) {
+                        writeString(subject);
+                    }
+                }
+            });
+        }
+
+        private void flushStudent() {
+            writeCourses();
+            if (email == null) {
+                return;
+            }
+            int ordinal = offsets.size();
+            if (selectedCourse != null && !selectedCourse.isEmpty()) {
+                enrolled.merge(selectedCourse, 1, Integer::sum);
+            }
+            write(() -> {
+                offsets.add(position());
+                emails.add(StudentRepository.normalizeEmail(email));
+                writeString(name);
+                writeString(email);
+                out.writeInt(age);
+                writeString(selectedCourse != null ? selectedCourse : "");
+                out.writeInt(selectedSubjects.size());
+                for (String subject : selectedSubjects) {
+                    writeString(subject);
+                }
+                out.writeInt(results.size());
+                for (Map.Entry<String, Integer> result : results.entrySet()) {
+                    writeString(result.getKey());
+                    out.writeByte(result.getValue());
+                    statistics.computeIfAbsent(result.getKey(), subject -> new ResultStatistics.Aggregate())
+                            .add(result.getValue(), 1);
+                    IntList[] buckets = ranks.computeIfAbsent(result.getKey(),
+                            subject -> new IntList[Leaderboards.SCORES]);
+                    if (buckets[result.getValue()] == null) {
+                        buckets[result.getValue()] = new IntList();
+                    }
+                    buckets[result.getValue()].add(ordinal);
+                }
+            });
+            email = null;
+            selectedCourse = null;
+            selectedSubjects.clear();
+            results.clear();
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private long position() {
+            return counter.count;
+        }
+
+        private void write(IoAction action) {
+            try {
+                action.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[16];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    private interface IoAction {
+        void run() throws IOException;
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package sms;
+
+import java.io.PrintStream;
+import java.util.*;
+
+// Student class
+class Student extends User {
+    private int age;
+    private volatile String selectedCourse;
+    private volatile SubjectSet selectedSubjects;
+    private volatile ResultStore results; // written after id, so a reader that sees it sees the id
+    private int id;
+    private boolean isRegistered;
+
+    public Student(String name, String email, int age) {
+        super(name, email);
+        this.age = age;
+        this.isRegistered = true;
+    }
+
+    // Binds the student to the registry's shared result store under its
+    // registration id, moving over any results and subject selections
+    // recorded before registration
+    synchronized void attach(ResultStore store, int id) {
+        ResultStore detached = results;
+        int detachedId = this.id;
+        SubjectSet detachedSubjects = selectedSubjects;
+        this.id = id;
+        this.results = store;
+        if (detached != null) {
+            detached.forEachResult(detachedId, (subjectId, score) ->
+                    store.put(id, detached.getSubjects().nameOf(subjectId), score));
+        }
+        if (detachedSubjects != null) {
+            SubjectSet moved = new SubjectSet(store.getSubjects());
+            for (String subject : detachedSubjects.asList()) {
+                moved.add(subject);
+            }
+            selectedSubjects = moved;
+        }
+    }
+
+    public int getId() { return id; }
+
+    // True once attach() has bound the student to the given store
+    boolean isAttachedTo(ResultStore store) { return results == store; }
+
+    public int getAge() { return age; }
+    public String getSelectedCourse() { return selectedCourse; }
+    public List<String> getSelectedSubjects() {
+        SubjectSet selected = selectedSubjects;
+        return selected != null ? selected.asList() : Collections.<String>emptyList();
+    }
+    public Map<String, Integer> getExamResults() {
+        ResultStore store = results;
+        return store != null ? store.viewOf(id) : Collections.<String, Integer>emptyMap();
+    }
+    public boolean isRegistered() { return isRegistered; }
+
+    public void setSelectedCourse(String course) { this.selectedCourse = course; }
+
+    public void addSelectedSubject(String subject) {
+        SubjectSet selected = selectedSubjects;
+        if (selected == null) {
+            selected = createSelectedSubjects();
+        }
+        selected.add(subject);
+    }
+
+    public void addExamResult(String subject, int score) {
+        ResultStore store = results;
+        if (store == null) {
+            store = detach();
+        }
+        store.put(id, subject, score);
+    }
+
+    private synchronized SubjectSet createSelectedSubjects() {
+        if (selectedSubjects == null) {
+            if (results == null) {
+                detach();
+            }
+            selectedSubjects = new SubjectSet(results.getSubjects());
+        }
+        return selectedSubjects;
+    }
+
+    // Private store for a student that is not registered (yet)
+    private synchronized ResultStore detach() {
+        if (results == null) {
+            results = new ResultStore(new SubjectTable(), 4);
+        }
+        return results;
+    }
+
+    @Override
+    public void displayMenu(PrintStream out) {
+        out.println("\n=== STUDENT MENU ===");
+        out.println("1. View Available Courses");
+        out.println("2. Select Course");
+        out.println("3. Choose Subjects");
+        out.println("4. Take Exam");
+        out.println("5. View Exam Results");
+        out.println("6. Drop Course");
+        out.println("7. Logout");
+    }
+
+    // Appends the listing line, so paged listings need no per-student strings
+    void appendTo(StringBuilder line) {
+        String course = selectedCourse;
+        line.append("Student: ").append(name)
+                .append(" | Email: ").append(email)
+                .append(" | Age: ").append(age)
+                .append(" | Course: ").append(course != null ? course : "Not Selected");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder(96);
+        appendTo(line);
+        return line.toString();
+    }
+}
@@ -0,0 +1,949 @@
+package sms;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+
+// Main Management System class
+// Console client of the management service. All state lives in the service,
+// which is shared by every session (see ExamServer); each session only owns
+// its scanner and output.
+//
+// Output is buffered and only flushed when the session waits for input, so a
+// menu or a page of a listing leaves in one write rather than one per line.
+class StudentManagementSystem {
+    private static final int PAGE_SIZE = 50;
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final ManagementService service;
+    private final Scanner scanner;
+    private final PrintStream out;
+    private final StringBuilder page = new StringBuilder(8192);
+
+    public StudentManagementSystem(ManagementService service) {
+        this(service, System.in, new PrintStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false));
+    }
+
+    // Session variant: talks to its own streams. The output should not flush
+    // on every line; it is flushed before each read.
+    public StudentManagementSystem(ManagementService service, InputStream in, PrintStream out) {
+        this.service = service;
+        this.scanner = new Scanner(in);
+        this.out = out;
+    }
+
+    // Renders one entry of a paged listing
+    private interface EntryRenderer {
+        void render(int index, StringBuilder line);
+    }
+
+    public void start() {
+        out.println("=== WELCOME TO STUDENT MANAGEMENT SYSTEM ===");
+
+        while (true) {
+            out.println("\n=== MAIN MENU ===");
+            out.println("1. Admin Login");
+            out.println("2. Student Registration");
+            out.println("3. Student Login");
+            out.println("4. Exit");
+            out.print("Choose option: ");
+
+            int choice = getIntInput();
+
+            switch (choice) {
+                case 1:
+                    adminLogin();
+                    break;
+                case 2:
+                    studentRegistration();
+                    break;
+                case 3:
+                    studentLogin();
+                    break;
+                case 4:
+                    out.println("Thank you for using Student Management System!");
+                    out.flush();
+                    return;
+                default:
+                    out.println("Invalid choice! Please try again.");
+            }
+        }
+    }
+
+    private void adminLogin() {
+        out.print("Enter admin password (default: admin): ");
+        String password = readLine();
+
+        if (service.authenticateAdmin(password)) {
+            out.println("Admin logged in successfully!");
+            adminMenu();
+        } else {
+            out.println("Invalid password!");
+        }
+    }
+
+    private void adminMenu() {
+        while (true) {
+            service.getAdmin().displayMenu(out);
+            out.print("Choose option: ");
+            int choice = getIntInput();
+
+            switch (choice) {
+                case 1:
+                    addCourse();
+                    break;
+                case 2:
+                    addSubject();
+                    break;
+                case 3:
+                    viewAllCourses();
+                    break;
+                case 4:
+                    viewAllStudents();
+                    break;
+                case 5:
+                    viewStudentResults();
+                    break;
+                case 6:
+                    bulkImport();
+                    break;
+                case 7:
+                    gradeAnswerSheets();
+                    break;
+                case 8:
+                    viewStatistics();
+                    break;
+                case 9:
+                    viewLeaderboard();
+                    break;
+                case 10:
+                    viewMetrics();
+                    break;
+                case 11:
+                    viewAttemptHistory();
+                    break;
+                case 12:
+                    exportReports();
+                    break;
+                case 13:
+                    setCourseCapacity();
+                    break;
+                case 14:
+                    out.println("Admin logged out successfully!");
+                    return;
+                default:
+                    out.println("Invalid choice!");
+            }
+        }
+    }
+
+    private void addCourse() {
+        out.print("Enter course name: ");
+        String courseName = readLine();
+
+        // Check if course already exists
+        if (!service.createCourse(courseName)) {
+            out.println("Course already exists!");
+            return;
+        }
+        out.println("Course added successfully!");
+    }
+
+    private void addSubject() {
+        long version = service.getCatalogVersion();
+        List<Course> courses = service.getCourses();
+        if (courses.isEmpty()) {
+            out.println("No courses available! Please add a course first.");
+            return;
+        }
+
+        out.print(service.getViews().get("courseChoices", version, () -> {
+            StringBuilder view = new StringBuilder(256);
+            view.append("Available Courses:").append(NEWLINE);
+            for (int i = 0; i < courses.size(); i++) {
+                view.append(i + 1).append(". ").append(courses.get(i).getCourseName()).append(NEWLINE);
+            }
+            return view.toString();
+        }));
+
+        out.print("Select course (enter number): ");
+        int courseIndex = getIntInput() - 1;
+
+        if (courseIndex >= 0 && courseIndex < courses.size()) {
+            out.print("Enter subject name: ");
+            String subjectName = readLine();
+
+            service.addSubjectToCourse(courses.get(courseIndex).getCourseName(), subjectName);
+            out.println("Subject added successfully!");
+        } else {
+            out.println("Invalid course selection!");
+        }
+    }
+
+    private void viewAllCourses() {
+        long version = service.getCatalogVersion();
+        List<Course> courses = service.getCourses();
+        if (courses.isEmpty()) {
+            out.println("No courses available!");
+            return;
+        }
+
+        ViewCache views = service.getViews();
+        out.println("\n=== ALL COURSES ===");
+        showPages(courses.size(), (i, line) -> {
+            Course course = courses.get(i);
+            line.append(views.get(Arrays.asList("allCourses", course), version, () -> {
+                StringBuilder entry = new StringBuilder(64);
+                entry.append("Course: ").append(course.getCourseName()).append(NEWLINE).append("Subjects: ");
+                appendList(entry, course.getSubjects());
+                return entry.append(NEWLINE).toString();
+            }));
+            appendSeats(line, course.getSeats());
+            line.append(NEWLINE).append("---");
+        });
+    }
+
+    // Seat counts change with every enrollment, so they are never cached
+    private static void appendSeats(StringBuilder line, CourseSeats seats) {
+        line.append("Enrolled: ").append(seats.getEnrolled());
+        if (seats.isLimited()) {
+            line.append('/').append(seats.getCapacity()).append(" | Waitlist: ").append(seats.getWaiting());
+        }
+    }
+
+    private void setCourseCapacity() {
+        List<Course> courses = service.getCourses();
+        if (courses.isEmpty()) {
+            out.println("No courses available!");
+            return;
+        }
+
+        StringBuilder view = new StringBuilder(256);
+        view.append("Courses:").append(NEWLINE);
+        for (int i = 0; i < courses.size(); i++) {
+            view.append(i + 1).append(". ").append(courses.get(i).getCourseName()).append(" (");
+            appendSeats(view, courses.get(i).getSeats());
+            view.append(')').append(NEWLINE);
+        }
+        out.print(view);
+
+        out.print("Select course (enter number): ");
+        int courseIndex = getIntInput() - 1;
+        if (courseIndex < 0 || courseIndex >= courses.size()) {
+            out.println("Invalid course selection!");
+            return;
+        }
+
+        out.print("Enter capacity (0 for unlimited): ");
+        int capacity = getIntInput();
+        if (capacity < 0) {
+            out.println("Invalid capacity!");
+            return;
+        }
+        Course course = courses.get(courseIndex);
+        service.setCourseCapacity(course.getCourseName(), capacity);
+        StringBuilder line = new StringBuilder(64);
+        line.append("Capacity updated: ").append(course.getCourseName()).append(" (");
+        appendSeats(line, course.getSeats());
+        out.println(line.append(')'));
+    }
+
+    private void viewAllStudents() {
+        List<Student> students = service.getStudents();
+        if (students.isEmpty()) {
+            out.println("No students registered!");
+            return;
+        }
+
+        out.println("\n=== REGISTERED STUDENTS (" + students.size() + ") ===");
+        showPages(students.size(), (i, line) -> students.get(i).appendTo(line));
+    }
+
+    private void viewStudentResults() {
+        if (service.getStudentCount() == 0) {
+            out.println("No students registered!");
+            return;
+        }
+
+        out.print("Search by name or email (prefix, *text for substring, ~text for typo-tolerant, Enter for all): ");
+        String query = readLine().trim();
+        StudentSearchIndex.Mode mode = StudentSearchIndex.Mode.PREFIX;
+        if (query.startsWith("*")) {
+            mode = StudentSearchIndex.Mode.SUBSTRING;
+            query = query.substring(1);
+        } else if (query.startsWith("~")) {
+            mode = StudentSearchIndex.Mode.FUZZY;
+            query = query.substring(1);
+        }
+
+        // Shows matches a page at a time until a number is entered
+        List<Student> students = new ArrayList<>();
+        int studentIndex = -1;
+        while (true) {
+            StudentSearchIndex.Page matches = service.searchStudents(query, mode, students.size(), PAGE_SIZE);
+            if (students.isEmpty() && matches.size() == 0) {
+                out.println("No students match \"" + query + "\"");
+                return;
+            }
+            page.setLength(0);
+            for (int id : matches.getIds()) {
+                Student student = service.getStudent(id);
+                students.add(student);
+                page.append(students.size()).append(". ").append(student.getName())
+                        .append(" <").append(student.getEmail()).append('>').append(NEWLINE);
+            }
+            out.append(page);
+
+            out.print(matches.hasMore()
+                    ? "Select student (enter number, or Enter for more matches): "
+                    : "Select student (enter number): ");
+            String input = readLine().trim();
+            if (input.isEmpty() && matches.hasMore()) {
+                continue;
+            }
+            try {
+                studentIndex = Integer.parseInt(input) - 1;
+            } catch (NumberFormatException e) {
+                out.println("Invalid input! Please enter a number.");
+            }
+            break;
+        }
+
+        if (studentIndex >= 0 && studentIndex < students.size()) {
+            Student student = students.get(studentIndex);
+            Map<String, Integer> results = student.getExamResults();
+
+            if (results.isEmpty()) {
+                out.println("No exam results found for " + student.getName());
+            } else {
+                out.print(service.getViews().get(Arrays.asList("studentResults", student.getId()),
+                        service.getResultsVersion(), () -> {
+                    StringBuilder view = new StringBuilder(256);
+                    view.append("\n=== EXAM RESULTS FOR ").append(student.getName().toUpperCase()).append(" ===")
+                            .append(NEWLINE);
+                    for (Map.Entry<String, Integer> entry : results.entrySet()) {
+                        int score = entry.getValue();
+                        view.append("Subject: ").append(entry.getKey()).append(" | Score: ").append(score)
+                                .append("/100 | Status: ").append(score >= 60 ? "PASS" : "FAIL").append(NEWLINE);
+                    }
+                    return view.toString();
+                }));
+            }
+        } else {
+            out.println("Invalid student selection!");
+        }
+    }
+
+    private void bulkImport() {
+        out.println("1. Students (name,email,age)");
+        out.println("2. Courses and subjects (course,subject)");
+        out.println("3. Questions (subject,question,answer,option1,option2,...)");
+        out.println("4. Question banks, replacing each subject's questions (same columns)");
+        out.print("Select data type (enter number): ");
+        int type = getIntInput();
+        if (type < 1 || type > 4) {
+            out.println("Invalid data type!");
+            return;
+        }
+
+        out.print("Enter file path (.csv or .jsonl): ");
+        java.nio.file.Path file = java.nio.file.Paths.get(readLine().trim());
+        if (!java.nio.file.Files.isReadable(file)) {
+            out.println("File not found: " + file);
+            return;
+        }
+
+        try {
+            BulkImporter.ImportReport report = new BulkImporter(service)
+                    .importFile(BulkImporter.Kind.values()[type - 1], file);
+            out.println("Import completed! " + report);
+            for (String reject : report.getSampleRejects()) {
+                out.println("  " + reject);
+            }
+        } catch (IOException e) {
+            out.println("Import failed: " + e.getMessage());
+        }
+    }
+
+    private void exportReports() {
+        out.println("1. Transcripts (every student's results)");
+        out.println("2. Course result sheet");
+        out.println("3. Cohort summary");
+        out.print("Select report (enter number): ");
+        int report = getIntInput();
+        if (report < 1 || report > 3) {
+            out.println("Invalid report!");
+            return;
+        }
+        String courseName = null;
+        if (report == 2) {
+            out.print("Enter course name: ");
+            courseName = readLine().trim();
+            if (service.findCourse(courseName) == null) {
+                out.println("Course not found!");
+                return;
+            }
+        }
+
+        out.print("Enter output file (.csv, .jsonl or .bin): ");
+        String name = readLine().trim();
+        ReportExporter.Format format = ReportExporter.Format.of(name.substring(name.lastIndexOf('.') + 1));
+        if (format == null) {
+            out.println("Unknown format! Use a .csv, .jsonl or .bin file.");
+            return;
+        }
+
+        java.nio.file.Path file = java.nio.file.Paths.get(name);
+        ReportExporter exporter = new ReportExporter(service);
+        long started = System.nanoTime();
+        try {
+            long records = report == 1 ? exporter.exportTranscripts(file, format)
+                    : report == 2 ? exporter.exportResultSheet(courseName, file, format)
+                    : exporter.exportCohortSummary(file, format);
+            out.printf("Exported %d records to %s in %d ms%n", records, file,
+                    (System.nanoTime() - started) / 1_000_000);
+        } catch (IOException e) {
+            out.println("Export failed: " + e.getMessage());
+        }
+    }
+
+    private void gradeAnswerSheets() {
+        out.print("Enter answer sheet file (email,subject,answer1,answer2,...): ");
+        java.nio.file.Path file = java.nio.file.Paths.get(readLine().trim());
+        if (!java.nio.file.Files.isReadable(file)) {
+            out.println("File not found: " + file);
+            return;
+        }
+
+        try {
+            BatchGrader.GradingReport report = new BatchGrader(service).grade(BatchGrader.readSheets(file));
+            out.println("Grading completed! " + report);
+            for (String reject : report.getRejects()) {
+                out.println("  " + reject);
+            }
+        } catch (IOException e) {
+            out.println("Grading failed: " + e.getMessage());
+        }
+    }
+
+    // Depends on both the catalog and the results: cached per catalog version,
+    // stamped with the results version
+    private void viewStatistics() {
+        long catalogVersion = service.getCatalogVersion();
+        long resultsVersion = service.getResultsVersion();
+        List<Course> courses = service.getCourses();
+        ResultStatistics statistics = service.getStatistics();
+        if (courses.isEmpty()) {
+            out.println("No courses available!");
+            return;
+        }
+
+        out.print(service.getViews().get(Arrays.asList("statistics", catalogVersion), resultsVersion, () -> {
+            StringBuilder view = new StringBuilder(1024);
+            view.append("\n=== RESULT STATISTICS ===").append(NEWLINE);
+            for (Course course : courses) {
+                view.append("Course: ").append(course.getCourseName()).append(" | ")
+                        .append(statistics.forCourse(course)).append(NEWLINE);
+                for (String subject : course.getSubjects()) {
+                    ResultStatistics.Aggregate aggregate = statistics.forSubject(subject);
+                    view.append("  Subject: ").append(subject).append(" | ").append(aggregate).append(NEWLINE);
+                    if (aggregate.getCount() > 0) {
+                        long[] histogram = aggregate.getHistogram();
+                        view.append("    Scores:");
+                        for (int i = 0; i < histogram.length; i++) {
+                            view.append(' ').append(i == 10 ? "100" : (i * 10) + "-" + (i * 10 + 9))
+                                    .append(':').append(histogram[i]);
+                        }
+                        view.append(NEWLINE);
+                    }
+                }
+                view.append("---").append(NEWLINE);
+            }
+            return view.toString();
+        }));
+    }
+
+    private void viewLeaderboard() {
+        out.print("Enter subject name: ");
+        String subject = readLine().trim();
+        long version = service.getResultsVersion();
+        Leaderboards leaderboards = service.getLeaderboards();
+        long participants = leaderboards.participants(subject);
+        if (participants == 0) {
+            out.println("No exam results found for " + subject);
+            return;
+        }
+
+        out.print(service.getViews().get(Arrays.asList("leaderboard", subject), version, () -> {
+            StringBuilder view = new StringBuilder(512);
+            view.append("\n=== LEADERBOARD: ").append(subject.toUpperCase()).append(" (").append(participants)
+                    .append(" students) ===").append(NEWLINE);
+            List<Leaderboards.Entry> top = leaderboards.top(subject, 10);
+            for (int i = 0; i < top.size(); i++) {
+                Leaderboards.Entry entry = top.get(i);
+                view.append(i + 1).append(". ").append(service.getStudent(entry.getStudentId()).getName())
+                        .append(" | Score: ").append(entry.getScore()).append("/100").append(NEWLINE);
+            }
+            view.append("Median score: ").append(leaderboards.scoreAtPercentile(subject, 50))
+                    .append(" | 90th percentile: ").append(leaderboards.scoreAtPercentile(subject, 90)).append(NEWLINE);
+            return view.toString();
+        }));
+    }
+
+    private void viewMetrics() {
+        out.println("\n=== METRICS (latencies in microseconds) ===");
+        out.print(Metrics.snapshot());
+    }
+
+    // Attempts per day over the last days, streamed from the attempt history
+    private void viewAttemptHistory() {
+        out.print("Enter subject name: ");
+        String subject = readLine().trim();
+        out.print("Number of days (1-366): ");
+        int days = getIntInput();
+        if (days < 1 || days > 366) {
+            out.println("Invalid number of days!");
+            return;
+        }
+
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate first = LocalDate.now(zone).minusDays(days - 1);
+        long[] dayStarts = new long[days + 1];
+        for (int day = 0; day <= days; day++) {
+            dayStarts[day] = first.plusDays(day).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+        long[] attempts = new long[days];
+        long[] scoreSums = new long[days];
+        long[] passed = new long[days];
+        int[] day = {0};
+        long total = service.getHistory().query(subject, dayStarts[0], dayStarts[days], event -> {
+            while (event.getTimestamp() >= dayStarts[day[0] + 1]) {
+                day[0]++;
+            }
+            attempts[day[0]]++;
+            scoreSums[day[0]] += event.getScore();
+            if (event.getScore() >= ResultStatistics.PASS_MARK) {
+                passed[day[0]]++;
+            }
+        });
+        if (total == 0) {
+            out.println("No attempts at " + subject + " in the last " + days + " days");
+            return;
+        }
+
+        out.println("\n=== ATTEMPT HISTORY: " + subject.toUpperCase() + " (" + total + " attempts) ===");
+        for (int d = 0; d < days; d++) {
+            if (attempts[d] > 0) {
+                out.printf("%s | Attempts: %d | Average: %.1f | Passed: %d%n", first.plusDays(d), attempts[d],
+                        (double) scoreSums[d] / attempts[d], passed[d]);
+            }
+        }
+    }
+
+    private void studentRegistration() {
+        out.print("Enter your name: ");
+        String name = readLine();
+
+        out.print("Enter your email: ");
+        String email = readLine();
+
+        out.print("Enter your age: ");
+        int age = getIntInput();
+
+        // Check if student already exists
+        if (service.registerStudent(name, email, age) == null) {
+            out.println("Student with this email already exists!");
+            return;
+        }
+        out.println("Student registered successfully!");
+    }
+
+    private void studentLogin() {
+        if (service.getStudentCount() == 0) {
+            out.println("No students registered! Please register first.");
+            return;
+        }
+
+        out.print("Enter your email: ");
+        String email = readLine();
+
+        Student loggedInStudent = service.login(email);
+
+        if (loggedInStudent != null) {
+            out.println("Student logged in successfully! Welcome " + loggedInStudent.getName());
+            studentMenu(loggedInStudent);
+        } else {
+            out.println("Student not found! Please register first.");
+        }
+    }
+
+    private void studentMenu(Student student) {
+        while (true) {
+            student.displayMenu(out);
+            out.print("Choose option: ");
+            int choice = getIntInput();
+
+            switch (choice) {
+                case 1:
+                    viewAvailableCourses();
+                    break;
+                case 2:
+                    selectCourse(student);
+                    break;
+                case 3:
+                    chooseSubjects(student);
+                    break;
+                case 4:
+                    takeExam(student);
+                    break;
+                case 5:
+                    viewStudentResults(student);
+                    break;
+                case 6:
+                    dropCourse(student);
+                    break;
+                case 7:
+                    out.println("Student logged out successfully!");
+                    return;
+                default:
+                    out.println("Invalid choice!");
+            }
+        }
+    }
+
+    private void viewAvailableCourses() {
+        long version = service.getCatalogVersion();
+        List<Course> courses = service.getCourses();
+        if (courses.isEmpty()) {
+            out.println("No courses available!");
+            return;
+        }
+
+        out.print(service.getViews().get("availableCourses", version, () -> {
+            StringBuilder view = new StringBuilder(512);
+            view.append("\n=== AVAILABLE COURSES ===").append(NEWLINE);
+            for (int i = 0; i < courses.size(); i++) {
+                Course course = courses.get(i);
+                view.append(i + 1).append(". ").append(course.getCourseName()).append(NEWLINE).append("   Subjects: ");
+                appendList(view, course.getSubjects());
+                view.append(NEWLINE);
+            }
+            return view.toString();
+        }));
+    }
+
+    private void selectCourse(Student student) {
+        long version = service.getCatalogVersion();
+        List<Course> courses = service.getCourses();
+        if (courses.isEmpty()) {
+            out.println("No courses available!");
+            return;
+        }
+
+        out.print(service.getViews().get("courseChoices", version, () -> {
+            StringBuilder view = new StringBuilder(256);
+            view.append("Available Courses:").append(NEWLINE);
+            for (int i = 0; i < courses.size(); i++) {
+                view.append(i + 1).append(". ").append(courses.get(i).getCourseName()).append(NEWLINE);
+            }
+            return view.toString();
+        }));
+
+        out.print("Select course (enter number): ");
+        int courseIndex = getIntInput() - 1;
+
+        if (courseIndex < 0 || courseIndex >= courses.size()) {
+            out.println("Invalid course selection!");
+            return;
+        }
+        Course course = courses.get(courseIndex);
+        switch (service.selectCourse(student, course.getCourseName())) {
+            case ENROLLED:
+            case ALREADY_ENROLLED:
+                out.println("Course selected successfully: " + course.getCourseName());
+                break;
+            case WAITLISTED:
+                out.println(course.getCourseName() + " is full. You are on the waitlist ("
+                        + course.getSeats().getWaiting() + " waiting)"
+                        + (student.getSelectedCourse() != null
+                                ? " and keep " + student.getSelectedCourse() + " until a seat frees up." : "."));
+                break;
+            default:
+                out.println("Invalid course selection!");
+        }
+    }
+
+    private void dropCourse(Student student) {
+        if (service.dropCourse(student)) {
+            out.println("Course dropped successfully!");
+        } else {
+            out.println("No course selected or waitlisted!");
+        }
+    }
+
+    private void chooseSubjects(Student student) {
+        if (student.getSelectedCourse() == null) {
+            out.println("Please select a course first!");
+            return;
+        }
+
+        long version = service.getCatalogVersion();
+        Course selectedCourse = service.getSelectedCourse(student);
+        if (selectedCourse == null || selectedCourse.getSubjects().isEmpty()) {
+            out.println("No subjects available for this course!");
+            return;
+        }
+
+        List<String> subjects = selectedCourse.getSubjects();
+        out.print(service.getViews().get(Arrays.asList("subjectChoices", selectedCourse), version, () -> {
+            StringBuilder view = new StringBuilder(256);
+            view.append("Available Subjects in ").append(selectedCourse.getCourseName()).append(':').append(NEWLINE);
+            for (int i = 0; i < subjects.size(); i++) {
+                view.append(i + 1).append(". ").append(subjects.get(i)).append(NEWLINE);
+            }
+            return view.toString();
+        }));
+
+        out.print("Enter subject numbers to select (comma-separated, e.g., 1,2,3): ");
+        String input = readLine();
+        String[] selections = input.split(",");
+
+        List<String> chosen = new ArrayList<>(selections.length);
+        for (String selection : selections) {
+            try {
+                int subjectIndex = Integer.parseInt(selection.trim()) - 1;
+                if (subjectIndex >= 0 && subjectIndex < subjects.size()) {
+                    chosen.add(subjects.get(subjectIndex));
+                }
+            } catch (NumberFormatException e) {
+                out.println("Invalid input: " + selection);
+            }
+        }
+
+        service.chooseSubjects(student, chosen);
+        out.println("Selected subjects: " + student.getSelectedSubjects());
+    }
+
+    private void takeExam(Student student) {
+        if (student.getSelectedSubjects().isEmpty()) {
+            out.println("Please select subjects first!");
+            return;
+        }
+
+        out.println("Available subjects for exam:");
+        List<String> subjects = student.getSelectedSubjects();
+        for (int i = 0; i < subjects.size(); i++) {
+            out.println((i + 1) + ". " + subjects.get(i));
+        }
+
+        out.print("Select subject for exam (enter number): ");
+        int subjectIndex = getIntInput() - 1;
+
+        if (subjectIndex >= 0 && subjectIndex < subjects.size()) {
+            String selectedSubject = subjects.get(subjectIndex);
+            out.println("1. Standard exam (" + ManagementService.EXAM_QUESTIONS + " random questions)");
+            out.println("2. Adaptive exam (up to " + ExamScheduler.ADAPTIVE_QUESTIONS
+                    + " questions matched to your answers)");
+            out.print("Select exam type (enter number): ");
+            int type = getIntInput();
+            if (type != 1 && type != 2) {
+                out.println("Invalid exam type!");
+                return;
+            }
+            conductExam(student, selectedSubject, type == 2);
+        } else {
+            out.println("Invalid subject selection!");
+        }
+    }
+
+    private void conductExam(Student student, String subject, boolean adaptive) {
+        List<Question> bank = service.getQuestions(subject);
+        if (bank == null || bank.isEmpty()) {
+            out.println("No questions available for this subject!");
+            return;
+        }
+        if (service.getExamScheduler().getAvailableSeats() == 0) {
+            out.println("All exam seats are taken. Waiting for one to free up...");
+            out.flush();
+        }
+        // Select 5 distinct random questions (fewer if the bank is smaller) once a
+        // seat is free; adaptive exams choose each question as it is asked
+        ExamScheduler.Attempt attempt = adaptive
+                ? service.startAdaptiveExam(student, subject) : service.startExam(student, subject);
+        if (attempt == null) {
+            out.println("The exam room is full right now. Please try again in a few minutes.");
+            return;
+        }
+        int count = attempt.getQuestionCount();
+
+        out.println("\n=== EXAM: " + subject.toUpperCase() + " ===");
+        if (adaptive) {
+            out.println("Instructions: Answer " + count + " questions. Each question depends on your previous"
+                    + " answers, and your score estimates how much of the subject you master.");
+        } else {
+            out.println("Instructions: Answer all " + count + " questions. Each question carries "
+                    + (100 / count) + " marks.");
+        }
+        out.println("Time limit: " + formatDuration(attempt.getRemainingMillis())
+                + ". Unanswered questions count as wrong when the time is up.");
+        out.println("Press Enter to start...");
+        readLine();
+
+        for (int i = 0; i < count; i++) {
+            Question q = attempt.getQuestion(i);
+            if (q == null) {
+                out.println("Time is up! Your exam was submitted automatically.");
+                break;
+            }
+            out.println("\nQuestion " + (i + 1) + " (time left " + formatDuration(attempt.getRemainingMillis())
+                    + "): " + q.getQuestion());
+
+            for (int j = 0; j < q.getOptionCount(); j++) {
+                out.println((j + 1) + ". " + q.getOption(j));
+            }
+
+            out.print("Your answer (1-" + q.getOptionCount() + "): ");
+            int answer = getIntInput() - 1;
+            if (!attempt.answer(i, answer)) {
+                out.println("Time is up! Your exam was submitted automatically.");
+                break;
+            }
+
+            if (q.isCorrect(answer)) {
+                out.println("Correct!");
+            } else {
+                out.println("Wrong! Correct answer: " + q.getOption(q.getCorrectAnswer()));
+            }
+        }
+        ManagementService.ExamOutcome outcome = attempt.submit();
+        if (outcome == null) {
+            out.println("Your exam could not be recorded. Please contact the administrator.");
+            return;
+        }
+        int score = outcome.getScore();
+        String status = outcome.isPassed() ? "PASS" : "FAIL";
+
+        out.println("\n=== EXAM COMPLETED ===");
+        out.println("Subject: " + subject);
+        out.println("Score: " + score + "/100");
+        out.println("Status: " + status);
+        if (!outcome.isSaved()) {
+            out.println("Your score could not be saved. Please note it and contact the administrator.");
+        }
+
+        if (outcome.isPassed()) {
+            out.println("Congratulations! You passed the exam!");
+        } else {
+            out.println("Better luck next time! You need 60% to pass.");
+        }
+    }
+
+    // Minutes and seconds, e.g. "9:58"
+    private static String formatDuration(long millis) {
+        long seconds = (millis + 999) / 1000;
+        long rest = seconds % 60;
+        return (seconds / 60) + (rest < 10 ? ":0" : ":") + rest;
+    }
+
+    private void viewStudentResults(Student student) {
+        Map<String, Integer> results = student.getExamResults();
+
+        if (results.isEmpty()) {
+            out.println("No exam results found! Please take an exam first.");
+            return;
+        }
+
+        // Ranks move with everyone's results, so the view is stamped with the results version
+        Leaderboards leaderboards = service.getLeaderboards();
+        out.print(service.getViews().get(Arrays.asList("results", student.getId()), service.getResultsVersion(), () -> {
+            StringBuilder view = new StringBuilder(256);
+            view.append("\n=== YOUR EXAM RESULTS ===").append(NEWLINE);
+            for (Map.Entry<String, Integer> entry : results.entrySet()) {
+                int score = entry.getValue();
+                view.append("Subject: ").append(entry.getKey()).append(" | Score: ").append(score)
+                        .append("/100 | Status: ").append(score >= 60 ? "PASS" : "FAIL")
+                        .append(" | Rank: ").append(leaderboards.rankOf(student.getId(), entry.getKey()))
+                        .append('/').append(leaderboards.participants(entry.getKey()))
+                        .append(String.format(" (percentile %.1f)",
+                                leaderboards.percentileOf(student.getId(), entry.getKey())))
+                        .append(NEWLINE);
+            }
+            return view.toString();
+        }));
+    }
+
+    // Shows the entries PAGE_SIZE at a time. Each page is rendered into one
+    // reused buffer and written in a single call.
+    private void showPages(int total, EntryRenderer renderer) {
+        int pages = (total + PAGE_SIZE - 1) / PAGE_SIZE;
+        int current = 0;
+        while (current < pages) {
+            page.setLength(0);
+            int end = Math.min(total, (current + 1) * PAGE_SIZE);
+            for (int i = current * PAGE_SIZE; i < end; i++) {
+                renderer.render(i, page);
+                page.append(NEWLINE);
+            }
+            out.append(page);
+            if (pages == 1) {
+                return;
+            }
+
+            out.print("-- Page " + (current + 1) + " of " + pages
+                    + " (Enter: next, p: previous, number: go to page, q: done) -- ");
+            String command = readLine().trim();
+            if (command.isEmpty()) {
+                current++;
+            } else if (command.equalsIgnoreCase("q")) {
+                return;
+            } else if (command.equalsIgnoreCase("p")) {
+                current = Math.max(0, current - 1);
+            } else {
+                try {
+                    int target = Integer.parseInt(command) - 1;
+                    if (target >= 0 && target < pages) {
+                        current = target;
+                    } else {
+                        out.println("No such page!");
+                    }
+                } catch (NumberFormatException e) {
+                    out.println("Invalid input: " + command);
+                }
+            }
+        }
+    }
+
+    private static void appendList(StringBuilder line, List<String> values) {
+        line.append('[');
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                line.append(", ");
+            }
+            line.append(values.get(i));
+        }
+        line.append(']');
+    }
+
+    // Every read first flushes pending output, so prompts are always visible
+    private String readLine() {
+        out.flush();
+        return scanner.nextLine();
+    }
+
+    private int getIntInput() {
+        try {
+            int input = Integer.parseInt(readLine());
+            return input;
+        } catch (NumberFormatException e) {
+            out.println("Invalid input! Please enter a number.");
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package sms;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Student registry with a case-normalized email index.
+// Registration order is kept for the numbered admin listings, while lookups
+// and the duplicate check go through the hash index.
+//
+// When restored from a SnapshotFile, the snapshot's students occupy the first
+// ordinals and are only materialized when they are first looked up or listed.
+//
+// Each student's registration ordinal doubles as its id in the shared
+// columnar ResultStore and in the search index. Students are indexed for
+// search by the first search after they register; restored students are
+// indexed straight from the snapshot.
+//
+// Shared by all sessions without a registry-wide lock. The email index is a
+// ConcurrentHashMap, so the duplicate check is a single putIfAbsent; the
+// winner then takes the next ordinal from a counter and stores the student in
+// a chunked array. size() and get() only cover the gap-free prefix of stored
+// ordinals: each registration advances it past every stored slot it finds, so
+// one still storing its student never makes another wait, and the last of
+// them to finish publishes both. Only the search index has a lock of its own.
+class StudentRepository {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private final ConcurrentHashMap<String, Student> byEmail = new ConcurrentHashMap<>();
+    private final ResultStore results;
+    private final StudentSearchIndex searchIndex; // guarded by itself
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final AtomicInteger published = new AtomicInteger(); // registered students visible to readers
+    @SuppressWarnings("unchecked")
+    private volatile AtomicReferenceArray<Student>[] chunks =
+            (AtomicReferenceArray<Student>[]) new AtomicReferenceArray<?>[16];
+
+    // Set by restore() before the repository is shared
+    private SnapshotFile snapshot;
+    private AtomicReferenceArray<Student> restored = new AtomicReferenceArray<>(0);
+    private int base;
+
+    public StudentRepository() {
+        this.results = new ResultStore(new SubjectTable());
+        this.searchIndex = new StudentSearchIndex(new StudentSearchIndex.TextSource() {
+            public String nameOf(int id) { return StudentRepository.this.nameOf(id); }
+            public String emailOf(int id) { return StudentRepository.this.emailOf(id); }
+        });
+    }
+
+    public ResultStore getResults() { return results; }
+
+    static String normalizeEmail(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Must be called before any student is registered
+    public void restore(SnapshotFile snapshot) {
+        if (size() > 0) {
+            throw new IllegalStateException("Cannot restore into a non-empty repository");
+        }
+        this.snapshot = snapshot;
+        this.restored = new AtomicReferenceArray<>(snapshot.getStudentCount());
+        this.base = restored.length();
+    }
+
+    // Returns false if a student with the same email is already registered
+    public boolean register(Student student) {
+        String key = normalizeEmail(student.getEmail());
+        if ((snapshot != null && snapshot.findStudent(key) >= 0) || byEmail.putIfAbsent(key, student) != null) {
+            return false;
+        }
+        int slot = reserved.getAndIncrement();
+        student.attach(results, base + slot);
+        chunk(slot).set(slot & (CHUNK_SIZE - 1), student);
+        int visible;
+        while ((visible = published.get()) < reserved.get() && slotAt(visible) != null) {
+            published.compareAndSet(visible, visible + 1);
+        }
+        return true;
+    }
+
+    // Registers a batch in order; duplicates within the batch are rejected
+    // after their first occurrence
+    public boolean[] registerAll(List<Student> batch) {
+        boolean[] accepted = new boolean[batch.size()];
+        for (int i = 0; i < accepted.length; i++) {
+            accepted[i] = register(batch.get(i));
+        }
+        return accepted;
+    }
+
+    public boolean exists(String email) {
+        String key = normalizeEmail(email);
+        return byEmail.containsKey(key) || (snapshot != null && snapshot.findStudent(key) >= 0);
+    }
+
+    public Student findByEmail(String email) {
+        String key = normalizeEmail(email);
+        Student student = byEmail.get(key);
+        if (student != null) {
+            return awaitRegistered(student);
+        }
+        if (snapshot != null) {
+            int ordinal = snapshot.findStudent(key);
+            if (ordinal >= 0) {
+                student = materialize(ordinal);
+            }
+        }
+        return student;
+    }
+
+    // The student's id, or -1 if not registered; restored students are not materialized
+    public int idOf(String email) {
+        String key = normalizeEmail(email);
+        Student student = byEmail.get(key);
+        if (student != null) {
+            return awaitRegistered(student).getId();
+        }
+        return snapshot != null ? snapshot.findStudent(key) : -1;
+    }
+
+    public Student get(int index) {
+        if (index < base) {
+            return materialize(index);
+        }
+        int slot = index - base;
+        if (index < 0 || slot >= published.get()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return slotAt(slot);
+    }
+
+    // One page of students matching the query, in registration order
+    public StudentSearchIndex.Page search(String query, StudentSearchIndex.Mode mode, int offset, int limit) {
+        synchronized (searchIndex) {
+            int size = size();
+            for (int id = searchIndex.getIndexedCount(); id < size; id++) {
+                searchIndex.add(id, nameOf(id), emailOf(id));
+            }
+            return searchIndex.search(query, mode, offset, limit);
+        }
+    }
+
+    public int size() { return base + published.get(); }
+    public boolean isEmpty() { return size() == 0; }
+
+    public List<Student> getAll() {
+        return new AbstractList<Student>() {
+            @Override
+            public Student get(int index) { return StudentRepository.this.get(index); }
+
+            @Override
+            public int size() { return StudentRepository.this.size(); }
+        };
+    }
+
+    // The student stored in a slot, or null if it is still being registered
+    private Student slotAt(int slot) {
+        AtomicReferenceArray<Student>[] directory = chunks;
+        int index = slot >>> CHUNK_BITS;
+        return index < directory.length && directory[index] != null
+                ? directory[index].get(slot & (CHUNK_SIZE - 1)) : null;
+    }
+
+    // The chunk holding the slot, allocating it (and growing the chunk
+    // directory) on first use
+    private AtomicReferenceArray<Student> chunk(int slot) {
+        int index = slot >>> CHUNK_BITS;
+        AtomicReferenceArray<Student>[] directory = chunks;
+        if (index < directory.length && directory[index] != null) {
+            return directory[index];
+        }
+        synchronized (this) {
+            directory = chunks;
+            if (index >= directory.length) {
+                directory = Arrays.copyOf(directory, Math.max(index + 1, directory.length * 2));
+            } else if (directory[index] == null) {
+                directory = directory.clone();
+            }
+            if (directory[index] == null) {
+                directory[index] = new AtomicReferenceArray<>(CHUNK_SIZE);
+            }
+            chunks = directory;
+            return directory[index];
+        }
+    }
+
+    // A student is in the email index slightly before its registration has
+    // bound it to its id; a lookup in that window waits for the binding. The
+    // student may still be missing from listings until earlier registrations
+    // have stored theirs.
+    private Student awaitRegistered(Student student) {
+        while (!student.isAttachedTo(results)) {
+            Thread.yield();
+        }
+        return student;
+    }
+
+    // Reads for search and reporting. Restored students that were never
+    // looked up are read from the snapshot without materializing them; until
+    // then the snapshot is all there is to know about them.
+    public String nameOf(int id) {
+        return isPending(id) ? snapshot.readName(id) : get(id).getName();
+    }
+
+    public String emailOf(int id) {
+        return isPending(id) ? snapshot.readEmail(id) : get(id).getEmail();
+    }
+
+    // Selected course, or null if none
+    public String courseOf(int id) {
+        return isPending(id) ? snapshot.readCourse(id) : get(id).getSelectedCourse();
+    }
+
+    public void forEachResult(int id, ResultStore.ResultConsumer consumer) {
+        if (isPending(id)) {
+            snapshot.readResults(id, results.getSubjects(), consumer);
+        } else {
+            results.forEachResult(id, consumer);
+        }
+    }
+
+    private boolean isPending(int id) {
+        return id < base && restored.get(id) == null;
+    }
+
+    // Concurrent first lookups may each read the student; the first one stored wins
+    private Student materialize(int ordinal) {
+        Student student = restored.get(ordinal);
+        if (student == null) {
+            Student read = snapshot.readStudent(ordinal, results);
+            if (restored.compareAndSet(ordinal, null, read)) {
+                byEmail.putIfAbsent(normalizeEmail(read.getEmail()), read);
+            }
+            student = restored.get(ordinal);
+        }
+        return student;
+    }
+}
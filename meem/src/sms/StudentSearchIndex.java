@@ -0,0 +1,438 @@
+package sms;
+
+import java.util.*;
+
+// Trigram index over student names and emails.
+//
+// Every lowercased name and email contributes its character trigrams plus two
+// word-start trigrams per word (padded with a start marker, so "ann smith"
+// also yields "^^s" and "^sm"). Each distinct trigram maps to a posting list of
+// student ids; ids are assigned in registration order, so lists stay sorted by
+// simply appending.
+//
+// Queries pick candidates from the posting lists and verify them against the
+// actual text, walking candidates in id order and stopping once the requested
+// page is full:
+//   PREFIX     some word of the name or email starts with the query
+//   SUBSTRING  the name or email contains the query; candidates are the
+//              intersection of the query's trigram lists, starting from the
+//              shortest one
+//   FUZZY      some word of the name or email, the whole name, or the whole
+//              email is within 1 edit of the query (2 edits from 9 characters),
+//              counting insertions, deletions, substitutions and swaps of
+//              adjacent characters; an edit destroys at most 4 of the query's
+//              trigrams, so any match contains one of its 4k+1 rarest trigrams
+//              and only those lists are merged
+// Substring queries shorter than 3 characters and an empty query fall back to
+// a scan in id order.
+//
+// Not thread-safe; StudentRepository calls it under its monitor.
+class StudentSearchIndex {
+    enum Mode { PREFIX, SUBSTRING, FUZZY }
+
+    private static final char START = '\u0002';
+
+    // Name and email of a student id, for verifying candidates
+    interface TextSource {
+        String nameOf(int id);
+        String emailOf(int id);
+    }
+
+    // One page of matching student ids, in registration order
+    static class Page {
+        private final int[] ids;
+        private final boolean more;
+
+        Page(int[] ids, boolean more) {
+            this.ids = ids;
+            this.more = more;
+        }
+
+        public int[] getIds() { return ids; }
+        public int size() { return ids.length; }
+        public boolean hasMore() { return more; }
+    }
+
+    private final TextSource source;
+    private final LongIntMap lists = new LongIntMap();
+    private int[][] postings = new int[1024][];
+    private int[] postingSizes = new int[1024];
+    private int listCount;
+    private int indexed;
+
+    // Scratch for collecting one student's distinct trigrams
+    private long[] grams = new long[64];
+
+    public StudentSearchIndex(TextSource source) {
+        this.source = source;
+    }
+
+    // Number of ids indexed so far; ids must be added in order from 0
+    public int getIndexedCount() { return indexed; }
+
+    public void add(int id, String name, String email) {
+        if (id != indexed) {
+            throw new IllegalArgumentException("Expected id " + indexed + " but got " + id);
+        }
+        int count = collect(normalize(name), 0);
+        count = collect(normalize(email), count);
+        Arrays.sort(grams, 0, count);
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || grams[i] != grams[i - 1]) {
+                append(listFor(grams[i]), id);
+            }
+        }
+        indexed++;
+    }
+
+    public Page search(String query, Mode mode, int offset, int limit) {
+        String q = normalize(query);
+        if (mode == Mode.FUZZY && q.length() < 5) {
+            mode = Mode.PREFIX; // too short to tell typos from other words
+        }
+        int maxEdits = q.length() < 9 ? 1 : 2;
+
+        Candidates candidates;
+        if (q.isEmpty() || (mode == Mode.SUBSTRING && q.length() < 3)) {
+            candidates = new ScanCandidates(indexed);
+        } else if (mode == Mode.FUZZY) {
+            long[] keys = Arrays.stream(queryGrams(START + "" + START + q)).distinct().toArray();
+            candidates = keys.length > 4 * maxEdits
+                    ? union(Arrays.copyOf(listsBySize(keys), 4 * maxEdits + 1))
+                    : new ScanCandidates(indexed); // repetitive query, too few distinct trigrams
+        } else {
+            String padded = mode == Mode.PREFIX ? START + "" + START + q : q;
+            candidates = intersection(queryGrams(padded));
+        }
+
+        int[] ids = new int[Math.max(0, Math.min(limit, 1024))];
+        int found = 0;
+        int skipped = 0;
+        for (int id = candidates.next(); id >= 0; id = candidates.next()) {
+            if (!matches(id, q, mode, maxEdits)) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+            } else if (found < limit) {
+                if (found == ids.length) {
+                    ids = Arrays.copyOf(ids, Math.min(limit, ids.length * 2 + 1));
+                }
+                ids[found++] = id;
+            } else {
+                return new Page(Arrays.copyOf(ids, found), true);
+            }
+        }
+        return new Page(Arrays.copyOf(ids, found), false);
+    }
+
+    private boolean matches(int id, String q, Mode mode, int maxEdits) {
+        if (q.isEmpty()) {
+            return true;
+        }
+        String name = normalize(source.nameOf(id));
+        String email = normalize(source.emailOf(id));
+        switch (mode) {
+            case PREFIX:
+                return startsWord(name, q) || startsWord(email, q);
+            case SUBSTRING:
+                return name.contains(q) || email.contains(q);
+            default:
+                return withinEdits(name, q, maxEdits) || withinEdits(email, q, maxEdits)
+                        || anyWordWithinEdits(name, q, maxEdits) || anyWordWithinEdits(email, q, maxEdits);
+        }
+    }
+
+    private static boolean startsWord(String text, String q) {
+        for (int i = 0; i < text.length(); i++) {
+            if (isWordStart(text, i) && text.startsWith(q, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean anyWordWithinEdits(String text, String q, int maxEdits) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                if (withinEdits(text.substring(start, i), q, maxEdits)) {
+                    return true;
+                }
+                start = -1;
+            }
+        }
+        return false;
+    }
+
+    // Edit distance (optimal string alignment: adjacent swaps count as one
+    // edit) <= maxEdits, evaluated only inside the diagonal band
+    static boolean withinEdits(String a, String b, int maxEdits) {
+        if (Math.abs(a.length() - b.length()) > maxEdits) {
+            return false;
+        }
+        int[] beforePrevious = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                if (Math.abs(i - j) > maxEdits) {
+                    current[j] = maxEdits + 1;
+                } else {
+                    int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    int d = Math.min(previous[j - 1] + cost, Math.min(previous[j], current[j - 1]) + 1);
+                    if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                        d = Math.min(d, beforePrevious[j - 2] + 1);
+                    }
+                    current[j] = d;
+                }
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > maxEdits) {
+                return false;
+            }
+            int[] recycled = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = recycled;
+        }
+        return previous[b.length()] <= maxEdits;
+    }
+
+    // Trigram collection
+
+    private int collect(String text, int count) {
+        for (int i = 0; i < text.length(); i++) {
+            if (count + 3 > grams.length) {
+                grams = Arrays.copyOf(grams, grams.length * 2);
+            }
+            if (isWordStart(text, i)) {
+                grams[count++] = gram(START, START, text.charAt(i));
+                if (i + 1 < text.length()) {
+                    grams[count++] = gram(START, text.charAt(i), text.charAt(i + 1));
+                }
+            }
+            if (i + 2 < text.length()) {
+                grams[count++] = gram(text.charAt(i), text.charAt(i + 1), text.charAt(i + 2));
+            }
+        }
+        return count;
+    }
+
+    private static long[] queryGrams(String padded) {
+        long[] keys = new long[Math.max(0, padded.length() - 2)];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = gram(padded.charAt(i), padded.charAt(i + 1), padded.charAt(i + 2));
+        }
+        return keys;
+    }
+
+    private static boolean isWordStart(String text, int i) {
+        return Character.isLetterOrDigit(text.charAt(i))
+                && (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)));
+    }
+
+    private static long gram(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    private static String normalize(String text) {
+        return text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Posting lists
+
+    private int listFor(long gram) {
+        int list = lists.get(gram);
+        if (list < 0) {
+            if (listCount == postings.length) {
+                postings = Arrays.copyOf(postings, listCount * 2);
+                postingSizes = Arrays.copyOf(postingSizes, listCount * 2);
+            }
+            list = listCount++;
+            postings[list] = new int[4];
+            lists.put(gram, list);
+        }
+        return list;
+    }
+
+    private void append(int list, int id) {
+        int size = postingSizes[list];
+        if (size == postings[list].length) {
+            postings[list] = Arrays.copyOf(postings[list], size + (size >> 1) + 1);
+        }
+        postings[list][size] = id;
+        postingSizes[list] = size + 1;
+    }
+
+    // Lists of the given trigrams, shortest first; -1 marks a trigram nobody has
+    private int[] listsBySize(long[] keys) {
+        Integer[] found = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            found[i] = lists.get(keys[i]);
+        }
+        Arrays.sort(found, Comparator.comparingInt(list -> list < 0 ? -1 : postingSizes[list]));
+        int[] result = new int[found.length];
+        for (int i = 0; i < found.length; i++) {
+            result[i] = found[i];
+        }
+        return result;
+    }
+
+    // Candidate ids in ascending order; next() returns -1 when exhausted
+    private interface Candidates {
+        int next();
+    }
+
+    private static class ScanCandidates implements Candidates {
+        private final int end;
+        private int id;
+
+        ScanCandidates(int end) {
+            this.end = end;
+        }
+
+        public int next() {
+            return id < end ? id++ : -1;
+        }
+    }
+
+    // Ids present in every list: walks the shortest list and gallops forward
+    // through the others, which are only ever searched ahead of their cursor
+    private Candidates intersection(long[] keys) {
+        int[] order = listsBySize(keys);
+        if (order.length > 0 && order[0] < 0) {
+            return () -> -1;
+        }
+        int[] cursors = new int[order.length];
+        return new Candidates() {
+            public int next() {
+                int[] driver = postings[order[0]];
+                outer:
+                while (cursors[0] < postingSizes[order[0]]) {
+                    int id = driver[cursors[0]++];
+                    for (int l = 1; l < order.length; l++) {
+                        int position = seek(order[l], cursors[l], id);
+                        cursors[l] = position;
+                        if (position >= postingSizes[order[l]] || postings[order[l]][position] != id) {
+                            continue outer;
+                        }
+                    }
+                    return id;
+                }
+                return -1;
+            }
+        };
+    }
+
+    // Sorted, duplicate-free merge of the given lists
+    private Candidates union(int[] order) {
+        int[] cursors = new int[order.length];
+        return () -> {
+            int min = Integer.MAX_VALUE;
+            for (int l = 0; l < order.length; l++) {
+                if (order[l] >= 0 && cursors[l] < postingSizes[order[l]]) {
+                    min = Math.min(min, postings[order[l]][cursors[l]]);
+                }
+            }
+            if (min == Integer.MAX_VALUE) {
+                return -1;
+            }
+            for (int l = 0; l < order.length; l++) {
+                if (order[l] >= 0 && cursors[l] < postingSizes[order[l]] && postings[order[l]][cursors[l]] == min) {
+                    cursors[l]++;
+                }
+            }
+            return min;
+        };
+    }
+
+    // First position at or after from whose id is >= target (galloping search)
+    private int seek(int list, int from, int target) {
+        int[] ids = postings[list];
+        int size = postingSizes[list];
+        int step = 1;
+        int low = from;
+        int high = from;
+        while (high < size && ids[high] < target) {
+            low = high + 1;
+            high = from + step;
+            step <<= 1;
+        }
+        high = Math.min(high, size);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ids[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Open-addressing map from trigram key to posting list number
+    private static class LongIntMap {
+        private long[] keys = new long[1024];
+        private int[] values = newValues(1024);
+        private int size;
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; values[i] >= 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        void put(long key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (values[i] >= 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] < 0) {
+                size++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[capacity];
+            values = newValues(capacity);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] >= 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private static int[] newValues(int capacity) {
+            int[] values = new int[capacity];
+            Arrays.fill(values, -1);
+            return values;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package sms;
+
+import java.util.*;
+
+// Insertion-ordered set of subjects, held as ids interned in a SubjectTable.
+//
+// Ids are appended into spare capacity of an int array and published as an
+// immutable (array, size) view, so readers never lock and always see a
+// consistent prefix in insertion order. Membership is a scan while the set is
+// small and a bitmap over the dense ids once it grows, so add and contains are
+// O(1) however many subjects a course has. Writers serialize on the set.
+class SubjectSet {
+    private static final int SCAN_LIMIT = 8;
+
+    private final SubjectTable table;
+    private volatile View view = new View(new int[0], 0);
+    private volatile long[] members; // bitmap by subject id, built past SCAN_LIMIT
+
+    // Published state; ids beyond size may be written later and are never read
+    private static final class View {
+        final int[] ids;
+        final int size;
+
+        View(int[] ids, int size) {
+            this.ids = ids;
+            this.size = size;
+        }
+    }
+
+    public SubjectSet(SubjectTable table) {
+        this.table = table;
+    }
+
+    public SubjectTable getTable() { return table; }
+
+    // Returns false if the subject is already in the set
+    public synchronized boolean add(String subject) {
+        int id = table.idOf(subject);
+        if (containsId(id)) {
+            return false;
+        }
+        View current = view;
+        int[] ids = current.ids;
+        if (current.size == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(4, ids.length * 2));
+        }
+        ids[current.size] = id;
+        if (current.size + 1 > SCAN_LIMIT) {
+            mark(ids, current.size + 1);
+        }
+        view = new View(ids, current.size + 1);
+        return true;
+    }
+
+    public boolean contains(String subject) {
+        int id = table.find(subject);
+        return id >= 0 && containsId(id);
+    }
+
+    public boolean containsId(int id) {
+        long[] bitmap = members;
+        View current = view;
+        if (bitmap == null || current.size <= SCAN_LIMIT) {
+            for (int i = 0; i < current.size; i++) {
+                if (current.ids[i] == id) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        int word = id >>> 6;
+        return word < bitmap.length && (bitmap[word] & (1L << id)) != 0;
+    }
+
+    public int size() {
+        return view.size;
+    }
+
+    public boolean isEmpty() {
+        return view.size == 0;
+    }
+
+    // Ids in insertion order, as of this call
+    public int[] toIdArray() {
+        View current = view;
+        return Arrays.copyOf(current.ids, current.size);
+    }
+
+    // Read-only list of subject names in insertion order, as of this call
+    public List<String> asList() {
+        View current = view;
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                if (index >= current.size) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + current.size);
+                }
+                return table.nameOf(current.ids[index]);
+            }
+
+            @Override
+            public int size() {
+                return current.size;
+            }
+
+            // Checked against the live set in O(1) rather than by scanning the view
+            @Override
+            public boolean contains(Object subject) {
+                return subject instanceof String && SubjectSet.this.contains((String) subject);
+            }
+        };
+    }
+
+    // Must hold the monitor. Sets the bits of the first count ids, publishing
+    // a grown bitmap when an id does not fit.
+    private void mark(int[] ids, int count) {
+        long[] bitmap = members;
+        int from = bitmap == null ? 0 : count - 1; // first time: index everything so far
+        int maxId = 0;
+        for (int i = from; i < count; i++) {
+            maxId = Math.max(maxId, ids[i]);
+        }
+        if (bitmap == null || (maxId >>> 6) >= bitmap.length) {
+            int words = Math.max((maxId >>> 6) + 1, bitmap == null ? 1 : bitmap.length * 2);
+            bitmap = bitmap == null ? new long[words] : Arrays.copyOf(bitmap, words);
+        }
+        for (int i = from; i < count; i++) {
+            bitmap[ids[i] >>> 6] |= 1L << ids[i];
+        }
+        members = bitmap;
+    }
+}
@@ -0,0 +1,55 @@
+package sms;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Interns subject names to dense integer ids, so stores can key on an int
+// instead of repeating the name string in every record.
+// Names are kept in an array that is only appended to and republished after
+// each write, so nameOf() never locks.
+class SubjectTable {
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private volatile String[] names = new String[16];
+    private volatile int size;
+
+    // Returns the id for the subject, assigning the next one if it is new
+    public int idOf(String subject) {
+        Integer id = ids.get(subject);
+        if (id != null) {
+            return id;
+        }
+        synchronized (lock) {
+            id = ids.get(subject);
+            if (id == null) {
+                id = size;
+                String[] current = names;
+                if (id == current.length) {
+                    current = Arrays.copyOf(current, current.length * 2);
+                }
+                current[id] = subject;
+                names = current;
+                size = id + 1;
+                ids.put(subject, id); // published after the name, so lookups by id always succeed
+            }
+            return id;
+        }
+    }
+
+    // Returns the id of a known subject, or -1 without interning it
+    public int find(String subject) {
+        Integer id = ids.get(subject);
+        return id != null ? id : -1;
+    }
+
+    public String nameOf(int id) {
+        if (id >= size) {
+            throw new IndexOutOfBoundsException("Unknown subject id: " + id);
+        }
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,174 @@
+package sms;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Hierarchical timing wheel: one thread keeps any number of timeouts.
+//
+// Time advances in ticks. Each of the LEVELS wheels has SLOTS slots, and a
+// slot at level L spans SLOTS^L ticks, so with 1-second ticks four levels
+// cover about 194 days. A timeout is linked into the slot of its deadline at
+// the coarsest level it needs; whenever a finer wheel wraps, the next slot of
+// the coarser wheel is cascaded down. Scheduling, cancelling and firing are
+// O(1) per timeout, however many are pending, instead of a heap or one timer
+// thread per timeout.
+//
+// New timeouts are handed to the wheel thread through a lock-free queue and
+// cancelled ones are dropped when their slot comes up, so only the wheel
+// thread touches the slots. A timeout fires at the first tick at or after
+// its deadline. Everything that fires on the same tick reaches the handler as
+// one batch, on the wheel thread. The thread starts with the first timeout.
+class TimingWheel<T> implements Closeable {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int LEVELS = 4;
+
+    // Called on the wheel thread with the tasks whose timeouts fired on one tick
+    interface ExpiryHandler<T> {
+        void expired(List<T> tasks);
+    }
+
+    static final class Timeout<T> {
+        private final T task;
+        private final long deadline; // tick
+        private volatile boolean cancelled;
+        private Timeout<T> next;
+
+        private Timeout(T task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public T getTask() { return task; }
+
+        // The task will not be passed to the handler unless it already has been
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() { return cancelled; }
+    }
+
+    private final long tickNanos;
+    private final ExpiryHandler<T> handler;
+    private final String threadName;
+    private final ConcurrentLinkedQueue<Timeout<T>> added = new ConcurrentLinkedQueue<>();
+    private final Timeout<T>[] slots; // LEVELS x SLOTS list heads, wheel thread only
+    private final long origin = System.nanoTime();
+    private long tick; // wheel thread only
+    private Thread thread;
+    private volatile boolean closed;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickDuration, TimeUnit unit, String threadName, ExpiryHandler<T> handler) {
+        this.tickNanos = Math.max(1, unit.toNanos(tickDuration));
+        this.threadName = threadName;
+        this.handler = handler;
+        this.slots = (Timeout<T>[]) new Timeout<?>[LEVELS * SLOTS];
+    }
+
+    public Timeout<T> schedule(T task, long delay, TimeUnit unit) {
+        long due = System.nanoTime() + unit.toNanos(Math.max(0, delay)) - origin;
+        Timeout<T> timeout = new Timeout<>(task, (due + tickNanos - 1) / tickNanos);
+        added.add(timeout);
+        start();
+        return timeout;
+    }
+
+    // Stops the wheel thread; pending timeouts never fire
+    @Override
+    public void close() {
+        Thread running;
+        synchronized (this) {
+            closed = true;
+            running = thread;
+        }
+        if (running != null) {
+            LockSupport.unpark(running);
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private synchronized void start() {
+        if (thread == null && !closed) {
+            thread = new Thread(this::run, threadName);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void run() {
+        List<T> due = new ArrayList<>();
+        while (!closed) {
+            long wake = origin + (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = wake - System.nanoTime()) > 0 && !closed) {
+                LockSupport.parkNanos(this, wait);
+            }
+            if (closed) {
+                return;
+            }
+            // A late wake-up catches up tick by tick without sleeping
+            tick++;
+            Timeout<T> timeout;
+            while ((timeout = added.poll()) != null) {
+                place(timeout, due);
+            }
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) ((tick >>> (BITS * level)) & (SLOTS - 1)), due);
+                }
+            }
+            cascade(0, (int) (tick & (SLOTS - 1)), due);
+            if (!due.isEmpty()) {
+                try {
+                    handler.expired(due);
+                } catch (RuntimeException e) {
+                    System.err.println("Warning: timeout handler failed: " + e);
+                }
+                due.clear();
+            }
+        }
+    }
+
+    // Empties one slot, re-placing each live timeout relative to the current
+    // tick: due ones are collected, the rest move to a finer wheel
+    private void cascade(int level, int slot, List<T> due) {
+        int index = level * SLOTS + slot;
+        Timeout<T> timeout = slots[index];
+        slots[index] = null;
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            timeout.next = null;
+            place(timeout, due);
+            timeout = next;
+        }
+    }
+
+    private void place(Timeout<T> timeout, List<T> due) {
+        if (timeout.cancelled) {
+            return;
+        }
+        long delta = timeout.deadline - tick;
+        if (delta <= 0) {
+            due.add(timeout.task);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        // Beyond the outermost wheel: park in its farthest slot and re-place on the way
+        long at = Math.min(timeout.deadline, tick + (1L << (BITS * LEVELS)) - 1);
+        int index = level * SLOTS + (int) ((at >>> (BITS * level)) & (SLOTS - 1));
+        timeout.next = slots[index];
+        slots[index] = timeout;
+    }
+}
@@ -0,0 +1,23 @@
+package sms;
+
+import java.io.PrintStream;
+
+// Base User class
+abstract class User {
+    protected String name;
+    protected String email;
+
+    public User(String name, String email) {
+        this.name = name;
+        this.email = email;
+    }
+
+    public String getName() { return name; }
+    public String getEmail() { return email; }
+
+    public void displayMenu() {
+        displayMenu(System.out);
+    }
+
+    public abstract void displayMenu(PrintStream out);
+}
@@ -0,0 +1,123 @@
+package sms;
+
+import java.util.*;
+
+// Read-through cache of rendered views (course listings, statistics pages,
+// leaderboards) shared by all sessions.
+//
+// Each view is cached under a key together with the version stamp of the
+// data it was rendered from, such as the catalog version or the results
+// version. A read with the current stamp is a hash lookup; a stale or missing
+// view is rendered once and replaces the old one. The stamp must be read
+// before rendering, so a change made meanwhile leaves the view stale rather
+// than wrongly current.
+//
+// The cache holds at most maxChars characters of views and evicts the least
+// recently used ones beyond that. It is split into segments by key, each an
+// access-ordered LinkedHashMap under its own monitor, so sessions rarely
+// contend; rendering happens outside the monitor.
+class ViewCache {
+    static final int MAX_CHARS = Integer.getInteger("sms.views.maxChars", 4 * 1024 * 1024);
+    private static final int SEGMENTS = 16;
+
+    private static final Metrics.Counter HITS = Metrics.counter("views.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("views.misses");
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    // Renders a view when it is missing or stale
+    interface Renderer {
+        String render();
+    }
+
+    public ViewCache() {
+        this(MAX_CHARS);
+    }
+
+    public ViewCache(long maxChars) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, maxChars / SEGMENTS));
+        }
+    }
+
+    private static final class View {
+        final long version;
+        final String text;
+
+        View(long version, String text) {
+            this.version = version;
+            this.text = text;
+        }
+    }
+
+    private static final class Segment {
+        private final long maxChars;
+        private final LinkedHashMap<Object, View> views = new LinkedHashMap<>(16, 0.75f, true);
+        private long chars; // guarded by this
+
+        Segment(long maxChars) {
+            this.maxChars = maxChars;
+        }
+
+        synchronized View get(Object key) {
+            return views.get(key);
+        }
+
+        // Keeps the newer of two renderings of the same view
+        synchronized void put(Object key, View view) {
+            View old = views.get(key);
+            if (old != null && old.version > view.version) {
+                return;
+            }
+            if (old != null) {
+                chars -= old.text.length();
+            }
+            views.put(key, view);
+            chars += view.text.length();
+            Iterator<View> eldest = views.values().iterator();
+            while (chars > maxChars && eldest.hasNext()) {
+                chars -= eldest.next().text.length();
+                eldest.remove();
+            }
+        }
+
+        synchronized int size() { return views.size(); }
+        synchronized long chars() { return chars; }
+    }
+
+    // The view rendered for this version of its data, rendering it if needed.
+    // Keys must have value equality (strings, lists, or shared objects).
+    public String get(Object key, long version, Renderer renderer) {
+        Segment segment = segmentOf(key);
+        View view = segment.get(key);
+        if (view != null && view.version == version) {
+            HITS.increment();
+            return view.text;
+        }
+        MISSES.increment();
+        String text = renderer.render();
+        segment.put(key, new View(version, text));
+        return text;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getChars() {
+        long chars = 0;
+        for (Segment segment : segments) {
+            chars += segment.chars();
+        }
+        return chars;
+    }
+
+    private Segment segmentOf(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+}
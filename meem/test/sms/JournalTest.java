@@ -0,0 +1,178 @@
+package sms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+// Recovery of the journal and its snapshots: a torn tail after a crash, a
+// compaction racing concurrent writers, and snapshots of earlier versions.
+public class JournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Collects the students replayed from the log
+    private static class Recorder implements Journal.Recovery {
+        final List<String> emails = new ArrayList<>();
+
+        public void restore(SnapshotFile snapshot) {}
+        public void addCourse(String courseName) {}
+        public void addSubject(String courseName, String subject) {}
+        public void registerStudent(String name, String email, int age) { emails.add(email); }
+        public void selectCourse(String email, String courseName) {}
+        public void selectSubject(String email, String subject) {}
+        public void examResult(String email, String subject, int score) {}
+        public void setCapacity(String courseName, int capacity) {}
+        public void replaceQuestions(String subject, List<Question> questions) {}
+        public void addQuestions(String subject, List<Question> questions) {}
+    }
+
+    @Test
+    public void recoversTheRecordsBeforeATornTail() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        try (Journal journal = Journal.open(dir, new Recorder())) {
+            for (int i = 0; i < 100; i++) {
+                journal.registerStudent("Student " + i, "s" + i + "@x.org", 20);
+            }
+        }
+        // A crash in the middle of the last write leaves part of its record
+        Path segment = lastSegment(dir);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        Recorder recovered = new Recorder();
+        try (Journal journal = Journal.open(dir, recovered)) {
+            journal.registerStudent("Late", "late@x.org", 20);
+        }
+        assertEquals(99, recovered.emails.size());
+        assertEquals("s98@x.org", recovered.emails.get(98));
+
+        // Records written after the recovery are not lost behind the torn one
+        Recorder again = new Recorder();
+        Journal.open(dir, again).close();
+        assertEquals(100, again.emails.size());
+        assertEquals("late@x.org", again.emails.get(99));
+    }
+
+    @Test
+    public void snapshotTakenDuringWritesKeepsEveryChange() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        int threads = 8;
+        int perThread = 1500;
+        long coveredBefore;
+        try (ManagementService service = new ManagementService(dir)) {
+            coveredBefore = SnapshotFile.open(dir.resolve("snapshot.dat")).getCoveredSegment();
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                writers.add(pool.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        String email = "t" + thread + "-" + i + "@x.org";
+                        Student student = service.registerStudent("Student", email, 20);
+                        assertNotNull(student);
+                        assertTrue(service.recordResult(student, "Core Java", i % 101));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            pool.shutdown();
+        }
+        assertTrue("no compaction ran during the writes",
+                SnapshotFile.open(dir.resolve("snapshot.dat")).getCoveredSegment() > coveredBefore);
+
+        try (ManagementService service = new ManagementService(dir)) {
+            for (int t = 0; t < threads; t++) {
+                for (int i = 0; i < perThread; i++) {
+                    Student student = service.findStudent("t" + t + "-" + i + "@x.org");
+                    assertNotNull(student);
+                    assertEquals(Integer.valueOf(i % 101), student.getExamResults().get("Core Java"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void loadsVersion5Snapshot() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        writeSnapshot(dir, 5);
+        try (ManagementService service = new ManagementService(dir)) {
+            assertSnapshotState(service);
+            assertEquals(2, service.getQuestions("Optics").size());
+        }
+        // Reopens from the snapshot and log written after the upgrade
+        try (ManagementService service = new ManagementService(dir)) {
+            assertSnapshotState(service);
+            assertEquals(2, service.getQuestions("Optics").size());
+        }
+    }
+
+    @Test
+    public void loadsVersion4SnapshotWithoutBanks() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        writeSnapshot(dir, 4);
+        try (ManagementService service = new ManagementService(dir)) {
+            assertSnapshotState(service);
+            assertNull(service.getQuestions("Optics"));
+            assertNotNull(service.getQuestions("Core Java")); // seeded, as no banks were kept
+        }
+    }
+
+    // Writes a current snapshot and relabels it as the given version. Versions
+    // 4 and up lay out their sections the same way; the header only tells how
+    // many of them the reader may use.
+    private static void writeSnapshot(Path dir, int version) throws IOException {
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(dir.resolve("snapshot.dat"), 0)) {
+            writer.addCourse("Physics");
+            writer.setCapacity("Physics", 2);
+            writer.addSubject("Physics", "Optics");
+            // Each student's records follow it, as the service dumps them
+            writer.registerStudent("Ann", "ann@x.org", 20);
+            writer.selectCourse("ann@x.org", "Physics");
+            writer.selectSubject("ann@x.org", "Optics");
+            writer.examResult("ann@x.org", "Optics", 75);
+            writer.registerStudent("Bob", "bob@x.org", 21);
+            writer.examResult("bob@x.org", "Optics", 40);
+            writer.replaceQuestions("Optics", Arrays.asList(
+                    new Question("Lens?", new String[]{"Glass", "Water"}, 0),
+                    new Question("Prism?", new String[]{"Splits light", "Bends sound"}, 0)));
+        }
+        try (FileChannel channel = FileChannel.open(dir.resolve("snapshot.dat"), StandardOpenOption.WRITE)) {
+            channel.write((ByteBuffer) ByteBuffer.allocate(4).putInt(version).flip(), 4);
+        }
+    }
+
+    private static void assertSnapshotState(ManagementService service) {
+        assertEquals(2, service.getStudentCount());
+        Student ann = service.findStudent("ann@x.org");
+        assertEquals("Physics", ann.getSelectedCourse());
+        assertEquals(Integer.valueOf(75), ann.getExamResults().get("Optics"));
+        assertEquals(Integer.valueOf(40), service.findStudent("bob@x.org").getExamResults().get("Optics"));
+        Course physics = service.findCourse("Physics");
+        assertEquals(2, physics.getSeats().getCapacity());
+        assertTrue(physics.getSubjects().contains("Optics"));
+    }
+
+    private static Path lastSegment(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "journal-*.log")) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        Collections.sort(segments);
+        return segments.get(segments.size() - 1);
+    }
+}